@@ -0,0 +1,31 @@
+package my.project.xmlconverter.controllers;
+
+import my.project.xmlconverter.utils.ConnectionManager;
+
+/**
+ * Обучающий запуск для архива AppCDS (профиль appcds).
+ * В одной JVM выполняются export во временный файл и sync с этим же файлом, чтобы в архив
+ * попали классы обеих команд. Файл может отличаться от таблицы (NULL в описании выгружается пустым
+ * элементом, таблицу могут изменить между командами), поэтому sync выполняется с sync.dry.run=true:
+ * изменения отправляются в БД, но транзакция откатывается, и сборка ничего не меняет в БД.
+ * Ошибка команды (например, недоступная БД) не прерывает обучение: в архив попадут классы,
+ * загруженные до ошибки.
+ */
+public class AppCdsTraining {
+
+	/**
+	 * @param args путь к временному XML-файлу
+	 */
+	public static void main(String[] args) {
+		String fileName = args[0];
+		System.setProperty("sync.dry.run", "true");
+		for (String command : new String[]{"export", "sync"}) {
+			try {
+				CommandLineController.main(new String[]{command, fileName});
+			} catch (RuntimeException e) {
+				System.err.println("Обучающий запуск " + command + " завершился ошибкой: " + e.getMessage());
+			}
+		}
+		ConnectionManager.shutdown();
+	}
+}
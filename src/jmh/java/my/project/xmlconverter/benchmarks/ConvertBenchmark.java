@@ -0,0 +1,57 @@
+package my.project.xmlconverter.benchmarks;
+
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.services.ConvertService;
+import my.project.xmlconverter.xml.DepartmentXmlWriter;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Экспорт набора отделов в XML: DOM-дерево с записью через Transformer
+ * против потоковой записи через XMLStreamWriter. Результат пишется в пустой поток,
+ * поэтому измеряются только построение и сериализация документа.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class ConvertBenchmark {
+
+	@Param({"1000", "100000", "1000000", "5000000"})
+	private int rows;
+
+	private DepartmentStore departments;
+	private Transformer transformer;
+
+	@Setup
+	public void setUp() throws Exception {
+		departments = DepartmentData.generate(rows, 42);
+		transformer = TransformerFactory.newDefaultInstance().newTransformer();
+		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+	}
+
+	@Benchmark
+	public void domExport() throws Exception {
+		var doc = ConvertService.convertDepartmentToXml(departments);
+		transformer.transform(new DOMSource(doc), new StreamResult(OutputStream.nullOutputStream()));
+	}
+
+	@Benchmark
+	public long streamExport() {
+		try (DepartmentXmlWriter writer = new DepartmentXmlWriter(OutputStream.nullOutputStream(), true)) {
+			for (int id = departments.next(0); id >= 0; id = departments.next(id + 1)) {
+				writer.accept(departments.getDepCode(id), departments.getDepJob(id), departments.getDescription(id));
+			}
+			return writer.getCount();
+		}
+	}
+}
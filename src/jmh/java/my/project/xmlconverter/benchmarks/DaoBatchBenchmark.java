@@ -0,0 +1,67 @@
+package my.project.xmlconverter.benchmarks;
+
+import my.project.xmlconverter.dao.DepartmentDAO;
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.utils.ConnectionManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пакетная вставка DepartmentDAO.saveAll в локально запущенную БД из application.properties
+ * (или заданную через -Ddb.url, -Ddb.username, -Ddb.password в параметрах JVM бенчмарка).
+ * Каждый вызов вставляет rows новых строк и откатывает транзакцию, таблица не меняется.
+ * insertMode: batch - пакет JDBC, multirow - многострочные INSERT, rewrite - reWriteBatchedInserts драйвера.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DaoBatchBenchmark {
+
+	@Param({"1000", "100000"})
+	private int rows;
+
+	@Param({"100", "1000", "10000"})
+	private int batchSize;
+
+	@Param({"batch", "multirow", "rewrite"})
+	private String insertMode;
+
+	private final DepartmentDAO dao = DepartmentDAO.getInstance();
+	private DepartmentStore departments;
+	private Connection connection;
+
+	@Setup
+	public void setUp() throws Exception {
+		System.setProperty("db.pool.enabled", "false");
+		System.setProperty("db.batch.size", String.valueOf(batchSize));
+		System.setProperty("db.batch.insert", "multirow".equals(insertMode) ? "multirow" : "batch");
+		System.setProperty("db.reWriteBatchedInserts", String.valueOf("rewrite".equals(insertMode)));
+		DepartmentStore generated = DepartmentData.generate(rows, 42);
+		departments = new DepartmentStore(rows);
+		for (int id = generated.next(0); id >= 0; id = generated.next(id + 1)) {
+			departments.add("BENCH-" + generated.getDepCode(id), generated.getDepJob(id), generated.getDescription(id));
+		}
+		connection = ConnectionManager.openConnection();
+		connection.setAutoCommit(false);
+	}
+
+	@TearDown(Level.Invocation)
+	public void rollback() throws Exception {
+		connection.rollback();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		connection.close();
+	}
+
+	@Benchmark
+	public void saveAll() {
+		dao.saveAll(departments, connection);
+	}
+}
@@ -0,0 +1,113 @@
+package my.project.xmlconverter.benchmarks;
+
+import my.project.xmlconverter.entities.DepartmentKey;
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.utils.DepartmentSnapshot;
+import my.project.xmlconverter.utils.DepartmentSnapshotWriter;
+import my.project.xmlconverter.xml.DepartmentXmlWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Генератор синтетических наборов отделов для бенчмарков.
+ */
+final class DepartmentData {
+
+	private static final String[] WORDS = {
+			"Разработка", "программного", "обеспечения", "тестирование", "поддержка",
+			"пользователей", "управление", "персоналом", "финансовый", "анализ", "продажи", "контент"
+	};
+
+	private DepartmentData() {}
+
+	/**
+	 * Создаёт набор отделов заданного размера. Один и тот же seed даёт один и тот же набор.
+	 */
+	static DepartmentStore generate(int rows, long seed) {
+		Random random = new Random(seed);
+		DepartmentStore departments = new DepartmentStore(rows);
+		for (int i = 0; i < rows; i++) {
+			departments.add("DEP-" + (i / 50), "Job-" + i, description(random));
+		}
+		return departments;
+	}
+
+	/**
+	 * Создаёт копию набора, в которой заданная доля записей изменена:
+	 * треть из них получает новое описание, треть удаляется, треть заменяется новыми ключами.
+	 */
+	static DepartmentStore mutate(DepartmentStore source, double ratio, long seed) {
+		Random random = new Random(seed);
+		DepartmentStore result = new DepartmentStore(source.size());
+		int added = 0;
+		for (int id = source.next(0); id >= 0; id = source.next(id + 1)) {
+			String depCode = source.getDepCode(id);
+			String depJob = source.getDepJob(id);
+			if (random.nextDouble() >= ratio) {
+				result.add(depCode, depJob, source.getDescription(id));
+				continue;
+			}
+			switch (random.nextInt(3)) {
+				case 0 -> result.add(depCode, depJob, description(random));
+				case 1 -> {
+				}
+				default -> {
+					result.add(depCode, depJob, source.getDescription(id));
+					result.add("NEW-" + added, "Job-" + added++, description(random));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Записывает набор во временный XML-файл в формате экспорта.
+	 */
+	static Path writeXml(DepartmentStore departments) throws IOException {
+		Path file = Files.createTempFile("departments-bench", ".xml");
+		try (DepartmentXmlWriter writer = new DepartmentXmlWriter(
+				new BufferedOutputStream(Files.newOutputStream(file)), true)) {
+			for (int id = departments.next(0); id >= 0; id = departments.next(id + 1)) {
+				writer.accept(departments.getDepCode(id), departments.getDepJob(id), departments.getDescription(id));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Записывает отделы двоичным снимком; снимок требует порядка ключей, поэтому записи сортируются.
+	 */
+	static Path writeSnapshot(DepartmentStore departments) throws IOException {
+		List<Integer> ids = new ArrayList<>();
+		for (int id = departments.next(0); id >= 0; id = departments.next(id + 1)) {
+			ids.add(id);
+		}
+		ids.sort((a, b) -> DepartmentKey.compare(departments.getDepCode(a), departments.getDepJob(a),
+				departments.getDepCode(b), departments.getDepJob(b)));
+		Path file = Files.createTempFile("departments-bench", DepartmentSnapshot.EXTENSION);
+		try (DepartmentSnapshotWriter writer = new DepartmentSnapshotWriter(file.toString())) {
+			for (int id : ids) {
+				writer.accept(departments.getDepCode(id), departments.getDepJob(id), departments.getDescription(id));
+			}
+		}
+		return file;
+	}
+
+	private static String description(Random random) {
+		StringBuilder builder = new StringBuilder();
+		int words = 2 + random.nextInt(5);
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				builder.append(' ');
+			}
+			builder.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,72 @@
+package my.project.xmlconverter.benchmarks;
+
+import my.project.xmlconverter.dao.DepartmentChangeSink;
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.services.SyncService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение данных БД и XML (SyncService.diff) без обращения к БД.
+ * Набор из XML отличается от набора из БД на долю changeRatio записей.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class DiffBenchmark {
+
+	@Param({"1000", "100000", "1000000", "5000000"})
+	private int rows;
+
+	@Param({"0.01", "0.1"})
+	private double changeRatio;
+
+	private DepartmentStore db;
+	private DepartmentStore xml;
+	private DepartmentStore dbCopy;
+
+	@Setup
+	public void setUp() {
+		db = DepartmentData.generate(rows, 42);
+		xml = DepartmentData.mutate(db, changeRatio, 7);
+	}
+
+	/**
+	 * SyncService.diff удаляет совпавшие записи из набора БД, поэтому перед каждым вызовом нужна копия.
+	 */
+	@Setup(Level.Invocation)
+	public void copyDb() {
+		dbCopy = db.copy();
+	}
+
+	@Benchmark
+	public long diff() {
+		CountingSink sink = new CountingSink();
+		SyncService.diff(dbCopy, xml, sink);
+		return sink.count;
+	}
+
+	private static final class CountingSink implements DepartmentChangeSink {
+
+		private long count;
+
+		@Override
+		public void insert(String depCode, String depJob, String description) {
+			count++;
+		}
+
+		@Override
+		public void update(String depCode, String depJob, String description) {
+			count++;
+		}
+
+		@Override
+		public void delete(String depCode, String depJob) {
+			count++;
+		}
+	}
+}
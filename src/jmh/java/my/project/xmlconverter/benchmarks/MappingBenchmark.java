@@ -0,0 +1,95 @@
+package my.project.xmlconverter.benchmarks;
+
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.entities.TableMapping;
+import my.project.xmlconverter.xml.DepartmentXmlWriter;
+import my.project.xmlconverter.xml.StaxDepartmentReader;
+import my.project.xmlconverter.xml.TableXmlReader;
+import my.project.xmlconverter.xml.TableXmlWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Универсальный конвертер по описанию mapping.departments против написанного вручную для отделов:
+ * чтение XML (TableXmlReader и StaxDepartmentReader) и запись XML в пустой поток
+ * (TableXmlWriter и DepartmentXmlWriter).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class MappingBenchmark {
+
+	@Param({"100000", "1000000"})
+	private int rows;
+
+	private DepartmentStore departments;
+	private String[][] tableRows;
+	private TableMapping mapping;
+	private Path file;
+
+	@Setup
+	public void setUp() throws Exception {
+		departments = DepartmentData.generate(rows, 42);
+		file = DepartmentData.writeXml(departments);
+		mapping = TableMapping.get("departments");
+		tableRows = new String[departments.size()][];
+		int i = 0;
+		for (int id = departments.next(0); id >= 0; id = departments.next(id + 1)) {
+			tableRows[i++] = new String[]{departments.getDepCode(id), departments.getDepJob(id), departments.getDescription(id)};
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public long readDepartments() {
+		long count = 0;
+		try (StaxDepartmentReader reader = StaxDepartmentReader.open(file.toString())) {
+			while (reader.next()) {
+				count += reader.getDescription().length();
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long readMapped() {
+		long count = 0;
+		try (TableXmlReader reader = TableXmlReader.open(mapping, file.toString())) {
+			while (reader.next()) {
+				count += reader.getRow()[2].length();
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long writeDepartments() {
+		try (DepartmentXmlWriter writer = new DepartmentXmlWriter(OutputStream.nullOutputStream(), true)) {
+			for (String[] row : tableRows) {
+				writer.accept(row[0], row[1], row[2]);
+			}
+			return writer.getCount();
+		}
+	}
+
+	@Benchmark
+	public long writeMapped() {
+		try (TableXmlWriter writer = new TableXmlWriter(mapping, OutputStream.nullOutputStream(), true)) {
+			for (String[] row : tableRows) {
+				writer.accept(row);
+			}
+			return writer.getCount();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package my.project.xmlconverter.benchmarks;
+
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.services.ConvertService;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Масштабирование параллельного разбора XML (sync.parser=parallel) по количеству потоков:
+ * пропускная способность в разобранных файлах в секунду для каждого значения sync.parse.threads.
+ * Для сравнения с последовательным разбором используется ParseBenchmark с parser=mmap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class ParallelParseBenchmark {
+
+	@Param({"1000000", "5000000"})
+	private int rows;
+
+	@Param({"1", "2", "4", "8", "16", "32"})
+	private int threads;
+
+	private Path file;
+
+	@Setup
+	public void setUp() throws Exception {
+		file = DepartmentData.writeXml(DepartmentData.generate(rows, 42));
+		System.setProperty("sync.parser", "parallel");
+		System.setProperty("sync.parse.threads", String.valueOf(threads));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public DepartmentStore parse() {
+		return ConvertService.convertXmlToDepartments(file.toString());
+	}
+}
@@ -0,0 +1,57 @@
+package my.project.xmlconverter.benchmarks;
+
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.services.ConvertService;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор XML-файла синхронизации в набор отделов ConvertService.convertXmlToDepartments
+ * для каждого значения sync.parser и чтение того же набора из двоичного снимка (snapshot).
+ * Параметр validate включает проверку по схеме (xml.validate): разница со значением false
+ * даёт стоимость проверки; mmap при проверке разбирается через StAX, снимок не проверяется.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class ParseBenchmark {
+
+	@Param({"1000", "100000", "1000000", "5000000"})
+	private int rows;
+
+	@Param({"stax", "mmap", "dom", "snapshot"})
+	private String parser;
+
+	@Param({"false", "true"})
+	private boolean validate;
+
+	private Path file;
+
+	@Setup
+	public void setUp() throws Exception {
+		System.setProperty("xml.validate", Boolean.toString(validate));
+		DepartmentStore departments = DepartmentData.generate(rows, 42);
+		if ("snapshot".equals(parser)) {
+			file = DepartmentData.writeSnapshot(departments);
+		} else {
+			file = DepartmentData.writeXml(departments);
+			System.setProperty("sync.parser", parser);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public DepartmentStore parse() {
+		return ConvertService.convertXmlToDepartments(file.toString());
+	}
+}
@@ -0,0 +1,38 @@
+package my.project.xmlconverter.benchmarks;
+
+import my.project.xmlconverter.utils.HeapPeak;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Профилировщик JMH, сообщающий пиковое заполнение кучи за итерацию.
+ * Пик отслеживается HeapPeak: наибольшее заполнение кучи перед сборками мусора и в конце итерации,
+ * а не сумма пиков отдельных пулов, которая завышает пик.
+ * Подключается параметром -prof my.project.xmlconverter.benchmarks.PeakHeapProfiler.
+ */
+public class PeakHeapProfiler implements InternalProfiler {
+
+	@Override
+	public String getDescription() {
+		return "Пиковое заполнение кучи за итерацию";
+	}
+
+	@Override
+	public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+		HeapPeak.reset();
+	}
+
+	@Override
+	public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+														IterationParams iterationParams, IterationResult result) {
+		return List.of(new ScalarResult("·heap.peak", HeapPeak.get() / (1024.0 * 1024.0), "MB", AggregationPolicy.MAX));
+	}
+}
@@ -1,11 +1,21 @@
 package my.project.xmlconverter.controllers;
 
+import my.project.xmlconverter.entities.Department;
 import my.project.xmlconverter.services.ExportService;
+import my.project.xmlconverter.services.InboxService;
+import my.project.xmlconverter.services.MappingService;
 import my.project.xmlconverter.services.SyncService;
+import my.project.xmlconverter.utils.ConnectionManager;
+import my.project.xmlconverter.utils.DepartmentSnapshot;
 import my.project.xmlconverter.utils.LoggerConfigurator;
+import my.project.xmlconverter.utils.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
 /**
  * Контроллер командной строки для управления экспортом и синхронизацией данных.
  * Обрабатывает аргументы командной строки и запускает соответствующие сервисы.
@@ -24,9 +34,21 @@ public class CommandLineController {
             Использование: <команда> [имя файла]
             Команды:
             export <имя файла.xml> - экспорт БД в XML
+            export <имя файла.xml> --since <метка> - экспорт изменений после метки и вывод новой метки
             sync <имя файла.xml> - синхронизация БД с XML
+            export <имя файла.dsnap>, sync <имя файла.dsnap> - то же в формате двоичного снимка
+            lookup <имя файла.dsnap> <depCode> <depJob> - поиск отдела в двоичном снимке
+            export-tables <каталог> - экспорт таблиц из mapping.tables в XML-файлы каталога
+            sync-tables <каталог> - синхронизация таблиц из mapping.tables с XML-файлами каталога
+            serve <каталог> - синхронизация БД с каждым XML-файлом, появляющимся в каталоге
+            watch <каталог> - то же, что serve
             """;
 
+	/**
+	 * Параметр команды export для экспорта изменений
+	 */
+	private static final String SINCE = "--since";
+
 	static {
 		LoggerConfigurator.configure();
 	}
@@ -38,21 +60,64 @@ public class CommandLineController {
 	public static void main(String[] args) {
 		ExportService exportService = new ExportService();
 		SyncService syncService = new SyncService();
-		if (args.length >= 1 && args.length <= 2) {
+		if (args.length >= 1 && args.length <= 4) {
 			String command = args[0];
 			String fileName = "test.xml";
 			logger.info("Старт приложения с командой {}", command);
 			switch (command) {
 				case "export" -> {
-					if (args.length == 2) {
-						fileName = args[1];
+					int sinceIndex = Arrays.asList(args).indexOf(SINCE);
+					if (sinceIndex < 0 && args.length <= 2) {
+						if (args.length == 2) {
+							fileName = args[1];
+						}
+						String exportFile = fileName;
+						run(command, () -> exportService.export(exportFile));
+					} else if (sinceIndex > 0 && sinceIndex == args.length - 2 && args.length <= 4) {
+						if (sinceIndex == 2) {
+							fileName = args[1];
+						}
+						String exportFile = fileName;
+						String since = args[sinceIndex + 1];
+						run(command, () -> exportService.exportChanges(exportFile, since));
+					} else {
+						System.out.println(HELP_MESSAGE);
 					}
-					exportService.export(fileName);
 				}
 				case "sync" -> {
 					if (args.length == 2) {
-						fileName = args[1];
-						syncService.sync(fileName);
+						String syncFile = args[1];
+						run(command, () -> syncService.sync(syncFile));
+					} else {
+						System.out.println(HELP_MESSAGE);
+					}
+				}
+				case "export-tables" -> {
+					if (args.length == 2) {
+						String directory = args[1];
+						run(command, () -> new MappingService().export(directory));
+					} else {
+						System.out.println(HELP_MESSAGE);
+					}
+				}
+				case "sync-tables" -> {
+					if (args.length == 2) {
+						String directory = args[1];
+						run(command, () -> new MappingService().sync(directory));
+					} else {
+						System.out.println(HELP_MESSAGE);
+					}
+				}
+				case "lookup" -> {
+					if (args.length == 4) {
+						lookup(Path.of(args[1]), args[2], args[3]);
+					} else {
+						System.out.println(HELP_MESSAGE);
+					}
+				}
+				case "serve", "watch" -> {
+					if (args.length == 2) {
+						serve(syncService, Path.of(args[1]));
 					} else {
 						System.out.println(HELP_MESSAGE);
 					}
@@ -63,4 +128,56 @@ public class CommandLineController {
 			System.out.println(HELP_MESSAGE);
 		}
 	}
+
+	/**
+	 * Ищет отдел в двоичном снимке по индексу, не читая снимок целиком
+	 * @param file файл снимка
+	 * @param depCode код отдела
+	 * @param depJob должность в отделе
+	 */
+	private static void lookup(Path file, String depCode, String depJob) {
+		try (DepartmentSnapshot snapshot = DepartmentSnapshot.open(file)) {
+			Department department = snapshot.find(depCode, depJob);
+			if (department == null) {
+				System.out.println("Отдел " + depCode + " " + depJob + " не найден");
+			} else {
+				System.out.println(depCode + " " + depJob + ": " + Objects.toString(department.getDescription(), ""));
+			}
+		}
+	}
+
+	/**
+	 * Отслеживает входящий каталог до завершения процесса (Ctrl+C, SIGTERM).
+	 * Отчёт о запуске формируется для каждого файла отдельно.
+	 * @param syncService сервис синхронизации
+	 * @param inbox входящий каталог
+	 */
+	private static void serve(SyncService syncService, Path inbox) {
+		InboxService inboxService = new InboxService(syncService, inbox);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			inboxService.close();
+			ConnectionManager.shutdown();
+		}, "serve-shutdown"));
+		try {
+			inboxService.run();
+		} finally {
+			ConnectionManager.shutdown();
+		}
+	}
+
+	/**
+	 * Выполняет команду и формирует отчёт о запуске, в том числе при ошибке
+	 * @param command команда
+	 * @param action действие команды
+	 */
+	private static void run(String command, Runnable action) {
+		Metrics.reset();
+		boolean success = false;
+		try {
+			action.run();
+			success = true;
+		} finally {
+			Metrics.report(command, success);
+		}
+	}
 }
\ No newline at end of file
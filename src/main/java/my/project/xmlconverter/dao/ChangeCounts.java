@@ -0,0 +1,11 @@
+package my.project.xmlconverter.dao;
+
+/**
+ * Количество изменений, применённых к таблице departments.
+ *
+ * @param deleted   удалено строк
+ * @param updated   обновлено строк
+ * @param inserted  добавлено строк
+ */
+public record ChangeCounts(long deleted, long updated, long inserted) {
+}
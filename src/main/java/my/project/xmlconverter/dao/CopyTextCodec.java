@@ -0,0 +1,139 @@
+package my.project.xmlconverter.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Кодирование и разбор строк текстового формата COPY PostgreSQL.
+ * Поля разделяются табуляцией, строка завершается переводом строки,
+ * NULL записывается как \N, служебные символы экранируются обратной косой чертой.
+ */
+final class CopyTextCodec {
+
+	private CopyTextCodec() {}
+
+	/**
+	 * Дописывает строку из значений полей в буфер.
+	 *
+	 * @param out     буфер
+	 * @param values  значения полей (null записывается как \N)
+	 */
+	static void encode(ByteArrayOutputStream out, String... values) {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				out.write('\t');
+			}
+			String value = values[i];
+			if (value == null) {
+				out.write('\\');
+				out.write('N');
+				continue;
+			}
+			int start = 0;
+			for (int j = 0; j < value.length(); j++) {
+				char c = value.charAt(j);
+				char escape = switch (c) {
+					case '\\' -> '\\';
+					case '\t' -> 't';
+					case '\n' -> 'n';
+					case '\r' -> 'r';
+					default -> 0;
+				};
+				if (escape != 0) {
+					writeUtf8(out, value, start, j);
+					out.write('\\');
+					out.write(escape);
+					start = j + 1;
+				}
+			}
+			writeUtf8(out, value, start, value.length());
+		}
+		out.write('\n');
+	}
+
+	/**
+	 * Разбирает одну строку COPY TO STDOUT.
+	 *
+	 * @param row     байты строки в UTF-8 (с завершающим переводом строки или без него)
+	 * @param fields  массив для значений полей
+	 */
+	static void decode(byte[] row, String[] fields) {
+		int length = row.length;
+		if (length > 0 && row[length - 1] == '\n') {
+			length--;
+		}
+		ByteArrayOutputStream field = new ByteArrayOutputStream(64);
+		int index = 0;
+		int position = 0;
+		while (index < fields.length) {
+			int end = position;
+			while (end < length && row[end] != '\t') {
+				end++;
+			}
+			fields[index++] = decodeField(row, position, end, field);
+			position = end + 1;
+		}
+	}
+
+	private static String decodeField(byte[] row, int start, int end, ByteArrayOutputStream field) {
+		if (end - start == 2 && row[start] == '\\' && row[start + 1] == 'N') {
+			return null;
+		}
+		int backslash = start;
+		while (backslash < end && row[backslash] != '\\') {
+			backslash++;
+		}
+		if (backslash == end) {
+			return new String(row, start, end - start, StandardCharsets.UTF_8);
+		}
+		field.reset();
+		field.write(row, start, backslash - start);
+		int i = backslash;
+		while (i < end) {
+			byte b = row[i++];
+			if (b != '\\' || i == end) {
+				field.write(b);
+				continue;
+			}
+			byte next = row[i++];
+			switch (next) {
+				case 'b' -> field.write('\b');
+				case 'f' -> field.write('\f');
+				case 'n' -> field.write('\n');
+				case 'r' -> field.write('\r');
+				case 't' -> field.write('\t');
+				case 'v' -> field.write(0x0B);
+				case 'x' -> {
+					int value = 0;
+					int digits = 0;
+					while (digits < 2 && i < end && Character.digit(row[i], 16) >= 0) {
+						value = value * 16 + Character.digit(row[i++], 16);
+						digits++;
+					}
+					field.write(value);
+				}
+				default -> {
+					if (next >= '0' && next <= '7') {
+						int value = next - '0';
+						int digits = 1;
+						while (digits < 3 && i < end && row[i] >= '0' && row[i] <= '7') {
+							value = value * 8 + (row[i++] - '0');
+							digits++;
+						}
+						field.write(value);
+					} else {
+						field.write(next);
+					}
+				}
+			}
+		}
+		return field.toString(StandardCharsets.UTF_8);
+	}
+
+	private static void writeUtf8(ByteArrayOutputStream out, String value, int start, int end) {
+		if (start < end) {
+			byte[] bytes = value.substring(start, end).getBytes(StandardCharsets.UTF_8);
+			out.write(bytes, 0, bytes.length);
+		}
+	}
+}
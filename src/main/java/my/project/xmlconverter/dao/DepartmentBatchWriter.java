@@ -0,0 +1,292 @@
+package my.project.xmlconverter.dao;
+
+import my.project.xmlconverter.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Пакетная запись изменений отделов в рамках транзакции вызывающего кода.
+ * Вставки, обновления и удаления копятся в отдельных пакетах JDBC
+ * и отправляются в БД, как только пакет достигает заданного размера.
+ * Вставки могут отправляться многострочными запросами INSERT ... VALUES (...), (...).
+ * При закрытии в журнал выводится скорость записи (строк в секунду) по каждой операции,
+ * а время пакетов и количество строк добавляются в Metrics.
+ */
+public class DepartmentBatchWriter implements DepartmentChangeSink, AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(DepartmentBatchWriter.class);
+
+	/**
+	 * Ограничение протокола PostgreSQL на количество параметров в одном запросе.
+	 */
+	private static final int MAX_PARAMETERS = 65535;
+	private static final String INSERT_PREFIX = "INSERT INTO departments (depcode, depjob, description) VALUES ";
+
+	private final Connection connection;
+	private final int batchSize;
+	private final Operation inserts;
+	private final Operation updates;
+	private final Operation deletes;
+
+	DepartmentBatchWriter(Connection connection, int batchSize, boolean multiRowInsert) {
+		this.connection = connection;
+		this.batchSize = Math.max(1, batchSize);
+		this.inserts = multiRowInsert
+				? new MultiRowInsert(Math.min(this.batchSize, MAX_PARAMETERS / 3))
+				: new Batch("Вставка", "inserted", INSERT_PREFIX + "(?, ?, ?)");
+		this.updates = new Batch("Обновление", "updated", """
+                UPDATE departments SET description = ? WHERE depcode = ? AND depjob = ?
+                """);
+		this.deletes = new Batch("Удаление", "deleted", """
+                DELETE FROM departments WHERE depcode = ? AND depjob = ?
+                """);
+	}
+
+	/**
+	 * Добавляет новый отдел.
+	 *
+	 * @param depCode      код отдела
+	 * @param depJob       должность в отделе
+	 * @param description  описание отдела
+	 */
+	@Override
+	public void insert(String depCode, String depJob, String description) {
+		inserts.add(depCode, depJob, description);
+	}
+
+	/**
+	 * Обновляет описание существующего отдела.
+	 *
+	 * @param depCode      код отдела
+	 * @param depJob       должность в отделе
+	 * @param description  новое описание отдела
+	 */
+	@Override
+	public void update(String depCode, String depJob, String description) {
+		updates.add(description, depCode, depJob);
+	}
+
+	/**
+	 * Удаляет отдел.
+	 *
+	 * @param depCode  код отдела
+	 * @param depJob   должность в отделе
+	 */
+	@Override
+	public void delete(String depCode, String depJob) {
+		deletes.add(depCode, depJob);
+	}
+
+	/**
+	 * Отправляет неполные пакеты и закрывает запросы. Транзакцию не завершает.
+	 */
+	@Override
+	public void close() {
+		try {
+			deletes.close();
+			updates.close();
+			inserts.close();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		log.info("Записано изменений: удалено {}, обновлено {}, добавлено {}",
+				deletes.total, updates.total, inserts.total);
+	}
+
+	/**
+	 * Возвращает количество добавленных отделов.
+	 */
+	public long getInserted() {
+		return inserts.total;
+	}
+
+	/**
+	 * Возвращает количество обновлённых отделов.
+	 */
+	public long getUpdated() {
+		return updates.total;
+	}
+
+	/**
+	 * Возвращает количество удалённых отделов.
+	 */
+	public long getDeleted() {
+		return deletes.total;
+	}
+
+	/**
+	 * Операция записи с накоплением строк и учётом времени их отправки в БД.
+	 */
+	private abstract static class Operation {
+
+		private final String name;
+		private final String metric;
+		protected int pending;
+		protected long total;
+		private long nanos;
+		private int roundTrips;
+
+		Operation(String name, String metric) {
+			this.name = name;
+			this.metric = metric;
+		}
+
+		final void add(String... values) {
+			try {
+				bind(values);
+				total++;
+				if (++pending >= capacity()) {
+					flush();
+				}
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		final void flush() throws SQLException {
+			if (pending == 0) {
+				return;
+			}
+			long start = System.nanoTime();
+			execute();
+			long elapsed = System.nanoTime() - start;
+			nanos += elapsed;
+			Metrics.addTime("db.write." + metric, elapsed);
+			Metrics.count("db.batches", 1);
+			roundTrips++;
+			pending = 0;
+		}
+
+		final void close() throws SQLException {
+			flush();
+			release();
+			Metrics.count("rows." + metric, total);
+			if (total > 0) {
+				double seconds = nanos / 1_000_000_000.0;
+				log.info("{}: {} строк за {} мс, пакетов {}, {} строк/с", name, total,
+						nanos / 1_000_000, roundTrips, seconds > 0 ? Math.round(total / seconds) : total);
+			}
+		}
+
+		abstract int capacity();
+
+		abstract void bind(String[] values) throws SQLException;
+
+		abstract void execute() throws SQLException;
+
+		abstract void release() throws SQLException;
+	}
+
+	/**
+	 * Пакет JDBC однотипных запросов (addBatch/executeBatch).
+	 */
+	private final class Batch extends Operation {
+
+		private final String sql;
+		private PreparedStatement statement;
+
+		Batch(String name, String metric, String sql) {
+			super(name, metric);
+			this.sql = sql;
+		}
+
+		@Override
+		int capacity() {
+			return batchSize;
+		}
+
+		@Override
+		void bind(String[] values) throws SQLException {
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+			}
+			for (int i = 0; i < values.length; i++) {
+				statement.setString(i + 1, values[i]);
+			}
+			statement.addBatch();
+		}
+
+		@Override
+		void execute() throws SQLException {
+			statement.executeBatch();
+		}
+
+		@Override
+		void release() throws SQLException {
+			if (statement != null) {
+				statement.close();
+				statement = null;
+			}
+		}
+	}
+
+	/**
+	 * Вставка многострочными запросами INSERT ... VALUES (...), (...).
+	 * Запрос на полный пакет подготавливается один раз, остаток отправляется запросом своего размера.
+	 */
+	private final class MultiRowInsert extends Operation {
+
+		private final int rows;
+		private final String[] values;
+		private PreparedStatement fullStatement;
+
+		MultiRowInsert(int rows) {
+			super("Вставка", "inserted");
+			this.rows = rows;
+			this.values = new String[rows * 3];
+		}
+
+		@Override
+		int capacity() {
+			return rows;
+		}
+
+		@Override
+		void bind(String[] row) {
+			System.arraycopy(row, 0, values, pending * 3, 3);
+		}
+
+		@Override
+		void execute() throws SQLException {
+			if (pending == rows) {
+				if (fullStatement == null) {
+					fullStatement = connection.prepareStatement(sql(rows));
+				}
+				executeWith(fullStatement);
+			} else {
+				try (PreparedStatement statement = connection.prepareStatement(sql(pending))) {
+					executeWith(statement);
+				}
+			}
+		}
+
+		@Override
+		void release() throws SQLException {
+			if (fullStatement != null) {
+				fullStatement.close();
+				fullStatement = null;
+			}
+		}
+
+		private void executeWith(PreparedStatement statement) throws SQLException {
+			for (int i = 0; i < pending * 3; i++) {
+				statement.setString(i + 1, values[i]);
+				values[i] = null;
+			}
+			statement.executeUpdate();
+		}
+
+		private static String sql(int rows) {
+			StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * 11);
+			sql.append(INSERT_PREFIX);
+			for (int i = 0; i < rows; i++) {
+				sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+			}
+			return sql.toString();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package my.project.xmlconverter.dao;
+
+/**
+ * Получатель изменений, найденных при сравнении данных БД и XML.
+ */
+public interface DepartmentChangeSink {
+
+	/**
+	 * Новый отдел, которого нет в БД.
+	 *
+	 * @param depCode      код отдела
+	 * @param depJob       должность в отделе
+	 * @param description  описание отдела
+	 */
+	void insert(String depCode, String depJob, String description);
+
+	/**
+	 * Отдел, описание которого изменилось.
+	 *
+	 * @param depCode      код отдела
+	 * @param depJob       должность в отделе
+	 * @param description  новое описание отдела
+	 */
+	void update(String depCode, String depJob, String description);
+
+	/**
+	 * Отдел, которого больше нет в XML.
+	 *
+	 * @param depCode  код отдела
+	 * @param depJob   должность в отделе
+	 */
+	void delete(String depCode, String depJob);
+}
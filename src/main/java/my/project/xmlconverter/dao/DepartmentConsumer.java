@@ -0,0 +1,19 @@
+package my.project.xmlconverter.dao;
+
+/**
+ * Обработчик записей отделов, получаемых построчно.
+ * Позволяет передавать данные из курсора БД или XML-файла
+ * без создания промежуточных объектов DepartmentKey и Department.
+ */
+@FunctionalInterface
+public interface DepartmentConsumer {
+
+	/**
+	 * Обрабатывает одну запись отдела.
+	 *
+	 * @param depCode      код отдела
+	 * @param depJob       должность в отделе
+	 * @param description  описание отдела (может быть null)
+	 */
+	void accept(String depCode, String depJob, String description);
+}
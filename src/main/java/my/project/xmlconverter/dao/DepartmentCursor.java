@@ -0,0 +1,72 @@
+package my.project.xmlconverter.dao;
+
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.xml.DepartmentReader;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Однонаправленный курсор по строкам таблицы departments.
+ * Закрывает результат запроса и сам запрос, но не соединение.
+ */
+class DepartmentCursor implements DepartmentReader {
+
+	private final PreparedStatement statement;
+	private final ResultSet resultSet;
+	private long rows;
+
+	DepartmentCursor(PreparedStatement statement) throws SQLException {
+		this.statement = statement;
+		this.resultSet = statement.executeQuery();
+	}
+
+	@Override
+	public boolean next() {
+		try {
+			boolean hasNext = resultSet.next();
+			if (hasNext) {
+				rows++;
+			}
+			return hasNext;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public String getDepCode() {
+		return getString(1);
+	}
+
+	@Override
+	public String getDepJob() {
+		return getString(2);
+	}
+
+	@Override
+	public String getDescription() {
+		return getString(3);
+	}
+
+	@Override
+	public void close() {
+		Metrics.count("rows.db.read", rows);
+		rows = 0;
+		try {
+			resultSet.close();
+			statement.close();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private String getString(int column) {
+		try {
+			return resultSet.getString(column);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -1,15 +1,24 @@
 package my.project.xmlconverter.dao;
 
-import my.project.xmlconverter.entities.Department;
-import my.project.xmlconverter.entities.DepartmentKey;
+import my.project.xmlconverter.entities.DepartmentStore;
 import my.project.xmlconverter.utils.ConnectionManager;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.utils.PropertiesUtil;
+import my.project.xmlconverter.xml.DepartmentReader;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyOut;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Data Access Object (DAO) для работы с сущностями Department в базе данных.
@@ -20,6 +29,17 @@ public class DepartmentDAO {
 
 	private final Logger logger = LoggerFactory.getLogger(DepartmentDAO.class);
 	private final static DepartmentDAO INSTANCE = new DepartmentDAO();
+	private final static String FETCH_SIZE = "db.fetch.size";
+	private final static int DEFAULT_FETCH_SIZE = 1000;
+	private final static String BATCH_SIZE = "db.batch.size";
+	private final static int DEFAULT_BATCH_SIZE = 1000;
+	private final static String BATCH_INSERT = "db.batch.insert";
+	private final static String MULTI_ROW_INSERT = "multirow";
+	private final static int COPY_BUFFER_SIZE = 64 * 1024;
+	private final static String UNNEST_CHUNK_SIZE = "sync.unnest.chunk.size";
+	private final static int DEFAULT_UNNEST_CHUNK_SIZE = 10_000;
+	private final static String LOG_CHANGES = "sync.log.changes";
+	private final static String LOCK_NOT_AVAILABLE = "55P03";
 
 	private DepartmentDAO() {}
 
@@ -35,113 +55,930 @@ public class DepartmentDAO {
 	/**
 	 * Обновляет записи отделов в базе данных на основе переданного множества.
 	 *
-	 * @param departments  множество отделов для обновления (ключ - DepartmentKey, значение - Department)
+	 * @param departments  множество отделов для обновления
 	 * @param connection  соединение с базой данных
 	 * @throws RuntimeException если произошла ошибка SQL
 	 */
-	public void updateAll(Map<DepartmentKey, Department> departments, Connection connection) {
+	public void updateAll(DepartmentStore departments, Connection connection) {
 		if (departments.isEmpty()) {
 			return;
 		}
 		logger.info("Обновление всех сущностей");
-		String sqlQuery = """
-                UPDATE departments SET description = ? WHERE depcode = ? AND depjob = ?
-                """;
-		try (var statement = connection.prepareStatement(sqlQuery)) {
-			for (var department : departments.entrySet()) {
-				statement.setString(1, department.getValue().getDescription());
-				statement.setString(2, department.getKey().getDepCode());
-				statement.setString(3, department.getKey().getDepJob());
-				statement.addBatch();
+		try (DepartmentBatchWriter writer = openBatchWriter(connection)) {
+			for (int id = departments.next(0); id >= 0; id = departments.next(id + 1)) {
+				writer.update(departments.getDepCode(id), departments.getDepJob(id), departments.getDescription(id));
 			}
-			statement.executeBatch();
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
 		}
 	}
 
 	/**
 	 * Удаляет записи отделов из базы данных на основе переданного множества.
 	 *
-	 * @param departments  множество отделов для удаления (ключ - DepartmentKey, значение - Department)
+	 * @param departments  множество отделов для удаления
 	 * @param connection  соединение с базой данных
 	 * @throws RuntimeException если произошла ошибка SQL
 	 */
-	public void deleteAll(Map<DepartmentKey, Department> departments, Connection connection) {
+	public void deleteAll(DepartmentStore departments, Connection connection) {
 		if (departments.isEmpty()) {
 			return;
 		}
 		logger.info("Удаление ненужных сущностей");
-		String sqlQuery = """
-                DELETE FROM departments WHERE depcode = ? AND depjob = ?
-                """;
-		try (var statement = connection.prepareStatement(sqlQuery)) {
-			for (var department : departments.entrySet()) {
-				statement.setString(1, department.getKey().getDepCode());
-				statement.setString(2, department.getKey().getDepJob());
-				statement.addBatch();
+		try (DepartmentBatchWriter writer = openBatchWriter(connection)) {
+			for (int id = departments.next(0); id >= 0; id = departments.next(id + 1)) {
+				writer.delete(departments.getDepCode(id), departments.getDepJob(id));
 			}
-			statement.executeBatch();
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
 		}
 	}
 
 	/**
 	 * Сохраняет новые записи отделов в базу данных.
 	 *
-	 * @param departments  множество новых отделов (ключ - DepartmentKey, значение - Department)
+	 * @param departments  множество новых отделов
 	 * @param connection  соединение с базой данных
 	 * @throws RuntimeException если произошла ошибка SQL
 	 */
-	public void saveAll(Map<DepartmentKey, Department> departments, Connection connection) {
+	public void saveAll(DepartmentStore departments, Connection connection) {
 		if (departments.isEmpty()) {
 			return;
 		}
 		logger.info("Сохранение новых сущностей!");
-		String sqlQuery = """
-                INSERT INTO departments (depcode, depjob, description) VALUES (?, ?, ?)
-                """;
-		try (var statement = connection.prepareStatement(sqlQuery)) {
-			for (var department : departments.entrySet()) {
-				statement.setString(1, department.getKey().getDepCode());
-				statement.setString(2, department.getKey().getDepJob());
-				statement.setString(3, department.getValue().getDescription());
-				statement.addBatch();
+		try (DepartmentBatchWriter writer = openBatchWriter(connection)) {
+			for (int id = departments.next(0); id >= 0; id = departments.next(id + 1)) {
+				writer.insert(departments.getDepCode(id), departments.getDepJob(id), departments.getDescription(id));
 			}
-			statement.executeBatch();
+		}
+	}
+
+	/**
+	 * Возвращает все отделы из базы данных.
+	 *
+	 * @return множество всех отделов
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public DepartmentStore getAll() {
+		try (Connection connection = ConnectionManager.openConnection()) {
+			return getAll(connection);
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
 	/**
-	 * Возвращает все отделы из базы данных в виде Map.
-	 * Ключ - составной ключ DepartmentKey, значение - сущность Department.
+	 * Возвращает все отделы из базы данных, используя соединение вызывающего кода.
+	 * Чтение выполняется в его транзакции и на его подготовленных запросах.
 	 *
+	 * @param connection  соединение с базой данных
 	 * @return множество всех отделов
 	 * @throws RuntimeException если произошла ошибка SQL
 	 */
-	public Map<DepartmentKey, Department> getAll() {
+	public DepartmentStore getAll(Connection connection) {
 		logger.info("Получение всех сущностей");
-		HashMap<DepartmentKey, Department> departments = new HashMap<>();
+		DepartmentStore departments = new DepartmentStore();
+		forEach(connection, departments::add);
+		return departments;
+	}
+
+	/**
+	 * Построчно передаёт все отделы из базы данных обработчику.
+	 * Чтение идёт через однонаправленный курсор (автокоммит выключен, размер выборки db.fetch.size),
+	 * поэтому в памяти одновременно находится не больше одной порции строк.
+	 *
+	 * @param consumer  обработчик записей
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public void forEach(DepartmentConsumer consumer) {
+		try (Connection connection = ConnectionManager.openConnection()) {
+			connection.setAutoCommit(false);
+			forEach(connection, consumer);
+			connection.commit();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Построчно передаёт все отделы обработчику, используя соединение вызывающего кода.
+	 * Курсор работает только при выключенном автокоммите; иначе драйвер читает результат целиком.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @param consumer    обработчик записей
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public void forEach(Connection connection, DepartmentConsumer consumer) {
+		logger.info("Потоковое чтение всех сущностей");
 		String sqlQuery = """
-                SELECT * FROM departments
+                SELECT depcode, depjob, description FROM departments
+                """;
+		long rows = 0;
+		try (var timer = Metrics.timer("db.read");
+			 var statement = connection.prepareStatement(sqlQuery,
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			statement.setFetchSize(PropertiesUtil.getInt(FETCH_SIZE, DEFAULT_FETCH_SIZE));
+			try (var resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					consumer.accept(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3));
+					rows++;
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Metrics.count("rows.db.read", rows);
+		}
+	}
+
+	/**
+	 * Открывает курсор по всем отделам, упорядоченным по ключу (depcode, depjob).
+	 * Сортировка выполняется в порядке COLLATE "C", который совпадает с DepartmentKey.compare.
+	 * Курсор работает в транзакции переданного соединения, автокоммит должен быть выключен.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @return читатель отделов в порядке ключей
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public DepartmentReader openOrderedCursor(Connection connection) {
+		return openOrderedCursor(connection, null, null);
+	}
+
+	/**
+	 * Открывает курсор по отделам с ключом больше заданного, упорядоченным по ключу (depcode, depjob)
+	 * в порядке COLLATE "C". Используется для продолжения прерванной синхронизации с точки восстановления.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @param afterCode   код отдела последнего обработанного ключа или null - с начала таблицы
+	 * @param afterJob    должность последнего обработанного ключа
+	 * @return читатель отделов в порядке ключей
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public DepartmentReader openOrderedCursor(Connection connection, String afterCode, String afterJob) {
+		logger.info("Чтение сущностей в порядке ключей");
+		String sqlQuery = afterCode == null ? """
+                SELECT depcode, depjob, description FROM departments
+                ORDER BY depcode COLLATE "C", depjob COLLATE "C"
+                """ : """
+                SELECT depcode, depjob, description FROM departments
+                WHERE depcode COLLATE "C" > ? OR (depcode = ? AND depjob COLLATE "C" > ?)
+                ORDER BY depcode COLLATE "C", depjob COLLATE "C"
                 """;
-		try (Connection connection = ConnectionManager.openConnection();
-			 var statement = connection.prepareStatement(sqlQuery)) {
-			var resultSet = statement.executeQuery();
+		try {
+			var statement = connection.prepareStatement(sqlQuery,
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			if (afterCode != null) {
+				statement.setString(1, afterCode);
+				statement.setString(2, afterCode);
+				statement.setString(3, afterJob);
+			}
+			statement.setFetchSize(PropertiesUtil.getInt(FETCH_SIZE, DEFAULT_FETCH_SIZE));
+			return new DepartmentCursor(statement);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Начинает на соединении транзакцию REPEATABLE READ и экспортирует её снимок данных
+	 * (pg_export_snapshot). Снимок можно импортировать в других соединениях, пока транзакция не завершена.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @return идентификатор снимка
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public String exportSnapshot(Connection connection) {
+		try {
+			connection.setAutoCommit(false);
+			connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			try (var statement = connection.prepareStatement("SELECT pg_export_snapshot()");
+				 var resultSet = statement.executeQuery()) {
+				resultSet.next();
+				return resultSet.getString(1);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Начинает на соединении транзакцию REPEATABLE READ со снимком данных другой транзакции,
+	 * так что все соединения видят одно и то же состояние таблицы.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @param snapshotId  идентификатор снимка, полученный exportSnapshot
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public void importSnapshot(Connection connection, String snapshotId) {
+		if (!snapshotId.matches("[0-9A-Fa-f-]+")) {
+			throw new IllegalArgumentException("Некорректный идентификатор снимка: " + snapshotId);
+		}
+		try {
+			connection.setAutoCommit(false);
+			connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			try (var statement = connection.createStatement()) {
+				// параметры в SET TRANSACTION SNAPSHOT не поддерживаются, идентификатор проверен выше
+				statement.execute("SET TRANSACTION SNAPSHOT '" + snapshotId + "'");
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Подбирает границы диапазонов depcode, делящих таблицу на части примерно равного размера.
+	 * Границы вычисляются на сервере по выборке TABLESAMPLE из примерно sampleRows строк,
+	 * в порядке COLLATE "C". Одинаковые границы объединяются, поэтому частей может получиться меньше.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @param parts       желаемое количество частей
+	 * @param sampleRows  примерный размер выборки
+	 * @return упорядоченные границы (не больше parts - 1)
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public List<String> sampleKeyBoundaries(Connection connection, int parts, int sampleRows) {
+		if (parts <= 1) {
+			return List.of();
+		}
+		Double[] fractions = new Double[parts - 1];
+		for (int i = 1; i < parts; i++) {
+			fractions[i - 1] = (double) i / parts;
+		}
+		String sqlQuery = """
+                SELECT percentile_disc(?::float8[]) WITHIN GROUP (ORDER BY depcode COLLATE "C")
+                FROM departments TABLESAMPLE SYSTEM (?::real)
+                """;
+		try (var statement = connection.prepareStatement(sqlQuery)) {
+			statement.setArray(1, connection.createArrayOf("float8", fractions));
+			statement.setDouble(2, samplePercent(connection, sampleRows));
+			try (var resultSet = statement.executeQuery()) {
+				List<String> boundaries = new ArrayList<>();
+				if (resultSet.next() && resultSet.getArray(1) != null) {
+					for (Object boundary : (Object[]) resultSet.getArray(1).getArray()) {
+						if (boundary != null && (boundaries.isEmpty() || !boundary.equals(boundaries.getLast()))) {
+							boundaries.add((String) boundary);
+						}
+					}
+				}
+				return boundaries;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Вычисляет процент строк для выборки по оценке размера таблицы из статистики;
+	 * если статистики ещё нет, используется вся таблица.
+	 */
+	private double samplePercent(Connection connection, int sampleRows) throws SQLException {
+		try (var statement = connection.prepareStatement(
+				"SELECT reltuples FROM pg_class WHERE oid = 'departments'::regclass");
+			 var resultSet = statement.executeQuery()) {
+			double rows = resultSet.next() ? resultSet.getDouble(1) : 0;
+			return rows <= sampleRows ? 100 : Math.max(0.01, 100.0 * sampleRows / rows);
+		}
+	}
+
+	/**
+	 * Построчно передаёт обработчику отделы из диапазона depcode в порядке ключа (depcode, depjob),
+	 * сравнивая и сортируя в порядке COLLATE "C". Курсор работает в транзакции переданного
+	 * соединения, автокоммит должен быть выключен.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @param from        нижняя граница depcode включительно или null
+	 * @param to          верхняя граница depcode не включительно или null
+	 * @param consumer    обработчик записей
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public void forEachInRange(Connection connection, String from, String to, DepartmentConsumer consumer) {
+		StringBuilder sqlQuery = new StringBuilder("SELECT depcode, depjob, description FROM departments WHERE true");
+		if (from != null) {
+			sqlQuery.append(" AND depcode COLLATE \"C\" >= ?");
+		}
+		if (to != null) {
+			sqlQuery.append(" AND depcode COLLATE \"C\" < ?");
+		}
+		sqlQuery.append(" ORDER BY depcode COLLATE \"C\", depjob COLLATE \"C\"");
+		long rows = 0;
+		try (var timer = Metrics.timer("db.read");
+			 var statement = connection.prepareStatement(sqlQuery.toString(),
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			int parameter = 1;
+			if (from != null) {
+				statement.setString(parameter++, from);
+			}
+			if (to != null) {
+				statement.setString(parameter, to);
+			}
+			statement.setFetchSize(PropertiesUtil.getInt(FETCH_SIZE, DEFAULT_FETCH_SIZE));
+			try (var resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					consumer.accept(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3));
+					rows++;
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Metrics.count("rows.db.read", rows);
+		}
+	}
+
+	/**
+	 * Создаёт пакетный писатель изменений в транзакции переданного соединения.
+	 * Размер пакета задаётся параметром db.batch.size, способ вставки - db.batch.insert
+	 * (batch - пакет JDBC, multirow - многострочные INSERT ... VALUES).
+	 *
+	 * @param connection  соединение с базой данных
+	 * @return писатель изменений
+	 */
+	public DepartmentBatchWriter openBatchWriter(Connection connection) {
+		return new DepartmentBatchWriter(connection,
+				PropertiesUtil.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE),
+				MULTI_ROW_INSERT.equalsIgnoreCase(PropertiesUtil.get(BATCH_INSERT, "batch")));
+	}
+
+	/**
+	 * Синхронизирует таблицу с источником записей средствами сервера.
+	 * Записи передаются во временную таблицу departments_stage командой COPY или, при unnest,
+	 * запросами INSERT ... SELECT FROM unnest(массивы) порциями по sync.unnest.chunk.size записей;
+	 * после этого удаление, обновление и вставка выполняются множественными запросами
+	 * в транзакции переданного соединения. Данные таблицы клиенту не передаются: при
+	 * sync.log.changes=true возвращаются и выводятся в журнал только ключи изменённых строк.
+	 *
+	 * @param source      источник записей (например, XML-файл)
+	 * @param connection  соединение с базой данных, автокоммит должен быть выключен
+	 * @param unnest      загружать временную таблицу массивами вместо COPY
+	 * @return количество применённых изменений
+	 * @throws RuntimeException если произошла ошибка SQL или в источнике есть дубликаты
+	 */
+	public ChangeCounts bulkSync(DepartmentReader source, Connection connection, boolean unnest) {
+		boolean logChanges = PropertiesUtil.getBoolean(LOG_CHANGES, false);
+		try {
+			loadStage(source, connection, unnest);
+			try (var timer = Metrics.timer("db.apply");
+				 var statement = connection.createStatement()) {
+				checkStageDuplicates(statement);
+				long deleted = apply(statement, """
+                        DELETE FROM departments d
+                        WHERE NOT EXISTS (SELECT 1 FROM departments_stage s
+                                          WHERE s.depcode = d.depcode AND s.depjob = d.depjob)
+                        """, "d", "Удалён", logChanges);
+				long updated = apply(statement, """
+                        UPDATE departments d SET description = s.description
+                        FROM departments_stage s
+                        WHERE d.depcode = s.depcode AND d.depjob = s.depjob
+                          AND d.description IS DISTINCT FROM s.description
+                        """, "d", "Обновлён", logChanges);
+				long inserted = apply(statement, """
+                        INSERT INTO departments AS d (depcode, depjob, description)
+                        SELECT depcode, depjob, description FROM departments_stage
+                        ON CONFLICT (depcode, depjob) DO NOTHING
+                        """, "d", "Добавлен", logChanges);
+				logger.info("Изменения применены: удалено {}, обновлено {}, добавлено {}", deleted, updated, inserted);
+				Metrics.count("rows.deleted", deleted);
+				Metrics.count("rows.updated", updated);
+				Metrics.count("rows.inserted", inserted);
+				return new ChangeCounts(deleted, updated, inserted);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Выполняет изменяющий запрос. При logChanges запрос дополняется RETURNING ключа,
+	 * и каждый изменённый ключ выводится в журнал.
+	 *
+	 * @return количество изменённых строк
+	 */
+	private long apply(Statement statement, String sql, String alias, String action, boolean logChanges)
+			throws SQLException {
+		if (!logChanges) {
+			return statement.executeUpdate(sql);
+		}
+		long rows = 0;
+		try (var resultSet = statement.executeQuery(sql + "RETURNING " + alias + ".depcode, " + alias + ".depjob")) {
 			while (resultSet.next()) {
-				String depCode = resultSet.getString("DepCode");
-				String depJob = resultSet.getString("DepJob");
-				String description = resultSet.getString("Description");
-				DepartmentKey key = new DepartmentKey(depCode, depJob);
-				Department department = new Department(description);
-				departments.put(key, department);
+				logger.info("{} отдел: {} {}", action, resultSet.getString(1), resultSet.getString(2));
+				rows++;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Создаёт временную таблицу departments_stage (удаляется при завершении транзакции)
+	 * и передаёт в неё записи источника командой COPY или, при unnest, запросами с массивами.
+	 */
+	private void loadStage(DepartmentReader source, Connection connection, boolean unnest) throws SQLException {
+		logger.info("Загрузка записей во временную таблицу через {}", unnest ? "unnest" : "COPY");
+		try (var statement = connection.createStatement()) {
+			statement.execute("""
+                    CREATE TEMP TABLE departments_stage (
+                        depcode text NOT NULL,
+                        depjob text NOT NULL,
+                        description text
+                    ) ON COMMIT DROP
+                    """);
+		}
+		long copied;
+		if (unnest) {
+			try (var timer = Metrics.timer("db.unnest.in")) {
+				copied = unnestIn(source, connection, "departments_stage",
+						PropertiesUtil.getInt(UNNEST_CHUNK_SIZE, DEFAULT_UNNEST_CHUNK_SIZE));
+			}
+		} else {
+			try (var timer = Metrics.timer("db.copy.in")) {
+				copied = copyIn(source, connection, "departments_stage");
+			}
+		}
+		logger.info("Загружено во временную таблицу: {}", copied);
+	}
+
+	/**
+	 * Собирает статистику временной таблицы и проверяет, что ключи в ней не повторяются.
+	 *
+	 * @throws RuntimeException если найден дубликат ключа
+	 */
+	private void checkStageDuplicates(Statement statement) throws SQLException {
+		statement.execute("ANALYZE departments_stage");
+		try (var duplicates = statement.executeQuery("""
+                SELECT depcode, depjob FROM departments_stage
+                GROUP BY depcode, depjob HAVING count(*) > 1 LIMIT 1
+                """)) {
+			if (duplicates.next()) {
+				String depCode = duplicates.getString(1);
+				String depJob = duplicates.getString(2);
+				logger.error("Обнаружен дубликат департамента: {} {}", depCode, depJob);
+				throw new RuntimeException("Обнаружен дубликат департамента: " + depCode + " " + depJob);
 			}
+		}
+	}
+
+	/**
+	 * Создаёт пустую теневую таблицу departments_shadow с теми же столбцами, значениями по умолчанию
+	 * и ограничениями NOT NULL, что у departments, но без остальных ограничений и индексов: они строятся
+	 * после заполнения (buildShadowIndexes). Все шаги замены выполняются в транзакции переданного
+	 * соединения, поэтому при ошибке теневая таблица исчезает при откате.
+	 *
+	 * @param connection  соединение с базой данных, автокоммит должен быть выключен
+	 * @throws RuntimeException если таблицу нельзя заменить (на неё ссылаются внешние ключи
+	 *                          или представления, в ней есть столбцы identity) или произошла ошибка SQL
+	 */
+	public void createShadowTable(Connection connection) {
+		try (var statement = connection.createStatement()) {
+			try (var resultSet = statement.executeQuery("""
+                    SELECT (SELECT count(*) FROM pg_constraint
+                            WHERE confrelid = 'departments'::regclass),
+                           (SELECT count(*) FROM pg_depend dep
+                            JOIN pg_rewrite r ON r.oid = dep.objid
+                            WHERE dep.classid = 'pg_rewrite'::regclass
+                              AND dep.refobjid = 'departments'::regclass
+                              AND r.ev_class <> 'departments'::regclass),
+                           (SELECT count(*) FROM pg_attribute
+                            WHERE attrelid = 'departments'::regclass AND attnum > 0
+                              AND NOT attisdropped AND attidentity <> '')
+                    """)) {
+				resultSet.next();
+				if (resultSet.getLong(1) > 0 || resultSet.getLong(2) > 0) {
+					throw new RuntimeException("На таблицу departments ссылаются внешние ключи или представления, "
+							+ "замена таблицы невозможна");
+				}
+				if (resultSet.getLong(3) > 0) {
+					throw new RuntimeException("Замена таблицы departments со столбцами identity не поддерживается");
+				}
+			}
+			statement.execute("""
+                    CREATE TABLE departments_shadow (LIKE departments
+                        INCLUDING DEFAULTS INCLUDING GENERATED INCLUDING STORAGE INCLUDING COMMENTS)
+                    """);
+			logger.info("Создана теневая таблица departments_shadow");
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
-		return departments;
+	}
+
+	/**
+	 * Заполняет теневую таблицу записями источника. Записи передаются командой COPY во временную
+	 * таблицу departments_stage и переносятся в теневую двумя запросами INSERT ... SELECT: строки
+	 * с ключами, которые уже есть в departments, сохраняют значения остальных столбцов (в том числе id),
+	 * новые получают значения по умолчанию. Количество изменений вычисляется сравнением с departments;
+	 * если создан журнал изменений departments_changes, изменённые ключи записываются в него,
+	 * поскольку триггеры теневой таблицы создаются только после заполнения.
+	 *
+	 * @param source      источник записей (например, XML-файл)
+	 * @param connection  соединение с базой данных, автокоммит должен быть выключен
+	 * @return количество изменений относительно текущей таблицы
+	 * @throws RuntimeException если произошла ошибка SQL или в источнике есть дубликаты
+	 */
+	public ChangeCounts fillShadowTable(DepartmentReader source, Connection connection) {
+		try {
+			loadStage(source, connection, false);
+			try (var timer = Metrics.timer("db.shadow.fill");
+				 var statement = connection.createStatement()) {
+				checkStageDuplicates(statement);
+				long deleted;
+				long updated;
+				long inserted;
+				try (var resultSet = statement.executeQuery("""
+                        SELECT count(*) FILTER (WHERE s.depcode IS NULL),
+                               count(*) FILTER (WHERE s.depcode IS NOT NULL AND d.depcode IS NOT NULL
+                                                  AND s.description IS DISTINCT FROM d.description),
+                               count(*) FILTER (WHERE d.depcode IS NULL),
+                               to_regclass('departments_changes') IS NOT NULL
+                        FROM departments_stage s
+                        FULL JOIN departments d ON d.depcode = s.depcode AND d.depjob = s.depjob
+                        """)) {
+					resultSet.next();
+					deleted = resultSet.getLong(1);
+					updated = resultSet.getLong(2);
+					inserted = resultSet.getLong(3);
+					if (resultSet.getBoolean(4)) {
+						statement.executeUpdate("""
+                                INSERT INTO departments_changes (depcode, depjob)
+                                SELECT coalesce(s.depcode, d.depcode), coalesce(s.depjob, d.depjob)
+                                FROM departments_stage s
+                                FULL JOIN departments d ON d.depcode = s.depcode AND d.depjob = s.depjob
+                                WHERE s.depcode IS NULL OR d.depcode IS NULL
+                                   OR s.description IS DISTINCT FROM d.description
+                                ON CONFLICT (depcode, depjob) DO UPDATE SET txid = pg_current_xact_id()
+                                """);
+					}
+				}
+				StringBuilder columns = new StringBuilder();
+				StringBuilder values = new StringBuilder();
+				for (String column : queryStrings(statement, """
+                        SELECT quote_ident(attname) FROM pg_attribute
+                        WHERE attrelid = 'departments'::regclass AND attnum > 0 AND NOT attisdropped
+                          AND attgenerated = '' AND lower(attname) NOT IN ('depcode', 'depjob', 'description')
+                        ORDER BY attnum
+                        """)) {
+					columns.append(column).append(", ");
+					values.append("d.").append(column).append(", ");
+				}
+				long kept = statement.executeUpdate("INSERT INTO departments_shadow (" + columns
+						+ "depcode, depjob, description) SELECT " + values + "s.depcode, s.depjob, s.description"
+						+ " FROM departments_stage s JOIN departments d ON d.depcode = s.depcode AND d.depjob = s.depjob");
+				long added = statement.executeUpdate("""
+                        INSERT INTO departments_shadow (depcode, depjob, description)
+                        SELECT s.depcode, s.depjob, s.description FROM departments_stage s
+                        WHERE NOT EXISTS (SELECT 1 FROM departments d
+                                          WHERE d.depcode = s.depcode AND d.depjob = s.depjob)
+                        """);
+				logger.info("Теневая таблица заполнена: строк {}, новых ключей {}", kept + added, added);
+				logger.info("Изменения относительно текущей таблицы: удалено {}, обновлено {}, добавлено {}",
+						deleted, updated, inserted);
+				Metrics.count("rows.deleted", deleted);
+				Metrics.count("rows.updated", updated);
+				Metrics.count("rows.inserted", inserted);
+				return new ChangeCounts(deleted, updated, inserted);
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Строит на заполненной теневой таблице ограничения и индексы departments (каждый индекс строится
+	 * одним проходом по готовым данным), создаёт её триггеры, выдаёт те же права и собирает статистику.
+	 * Ограничения и индексы получают временные имена с суффиксом _shadow, исходные имена
+	 * возвращаются при замене (swapShadowTable).
+	 *
+	 * @param connection  соединение с базой данных, автокоммит должен быть выключен
+	 * @throws RuntimeException если произошла ошибка SQL, например данные нарушают ограничение
+	 */
+	public void buildShadowIndexes(Connection connection) {
+		try (var timer = Metrics.timer("db.shadow.index");
+			 var statement = connection.createStatement()) {
+			List<String> ddl = new ArrayList<>();
+			ddl.addAll(queryStrings(statement, """
+                    SELECT 'ALTER TABLE departments_shadow ADD CONSTRAINT '
+                           || quote_ident(left(conname, 56) || '_shadow') || ' ' || pg_get_constraintdef(oid)
+                    FROM pg_constraint
+                    WHERE conrelid = 'departments'::regclass AND contype IN ('p', 'u', 'c', 'x', 'f')
+                    ORDER BY contype = 'f', conname
+                    """));
+			ddl.addAll(queryStrings(statement, """
+                    SELECT regexp_replace(pg_get_indexdef(i.indexrelid), 'INDEX \\S+ ON \\S+ ',
+                           'INDEX ' || quote_ident(left(c.relname, 56) || '_shadow') || ' ON departments_shadow ')
+                    FROM pg_index i
+                    JOIN pg_class c ON c.oid = i.indexrelid
+                    WHERE i.indrelid = 'departments'::regclass
+                      AND NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid
+                                                                      AND k.conrelid = i.indrelid)
+                    """));
+			ddl.addAll(queryStrings(statement, """
+                    SELECT regexp_replace(pg_get_triggerdef(oid), ' ON \\S+ ', ' ON departments_shadow ')
+                    FROM pg_trigger
+                    WHERE tgrelid = 'departments'::regclass AND NOT tgisinternal
+                    """));
+			ddl.addAll(queryStrings(statement, """
+                    SELECT 'GRANT ' || a.privilege_type || ' ON departments_shadow TO '
+                           || CASE WHEN a.grantee = 0 THEN 'PUBLIC' ELSE quote_ident(r.rolname) END
+                           || CASE WHEN a.is_grantable THEN ' WITH GRANT OPTION' ELSE '' END
+                    FROM pg_class c
+                    CROSS JOIN LATERAL aclexplode(c.relacl) a
+                    LEFT JOIN pg_roles r ON r.oid = a.grantee
+                    WHERE c.oid = 'departments'::regclass
+                    """));
+			for (String sql : ddl) {
+				logger.debug("Теневая таблица: {}", sql);
+				statement.execute(sql);
+			}
+			statement.execute("ANALYZE departments_shadow");
+			logger.info("Построены ограничения, индексы и триггеры теневой таблицы: {}", ddl.size());
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Заменяет departments теневой таблицей: берёт исключительную блокировку departments, передаёт
+	 * теневой таблице владение последовательностями столбцов, удаляет старую таблицу, переименовывает
+	 * теневую и возвращает ограничениям и индексам исходные имена. Блокировка держится только до
+	 * фиксации транзакции, которую выполняет вызывающий код; ожидание блокировки ограничено lockTimeoutMs,
+	 * чтобы очередь за ней не задерживала читателей таблицы.
+	 *
+	 * @param connection     соединение с базой данных, автокоммит должен быть выключен
+	 * @param lockTimeoutMs  наибольшее время ожидания блокировки, мс
+	 * @throws RuntimeException если блокировку не удалось получить или произошла ошибка SQL
+	 */
+	public void swapShadowTable(Connection connection, int lockTimeoutMs) {
+		try (var timer = Metrics.timer("db.shadow.swap");
+			 var statement = connection.createStatement()) {
+			try (var lockTimeout = connection.prepareStatement("SELECT set_config('lock_timeout', ?, true)")) {
+				lockTimeout.setString(1, lockTimeoutMs + "ms");
+				lockTimeout.execute();
+			}
+			try {
+				statement.execute("LOCK TABLE departments IN ACCESS EXCLUSIVE MODE");
+			} catch (SQLException e) {
+				if (LOCK_NOT_AVAILABLE.equals(e.getSQLState())) {
+					throw new RuntimeException("Не удалось за " + lockTimeoutMs
+							+ " мс получить блокировку таблицы departments для замены", e);
+				}
+				throw e;
+			}
+			List<String> ddl = new ArrayList<>(queryStrings(statement, """
+                    SELECT 'ALTER SEQUENCE ' || s.oid::regclass::text
+                           || ' OWNED BY departments_shadow.' || quote_ident(a.attname)
+                    FROM pg_depend dep
+                    JOIN pg_class s ON s.oid = dep.objid AND s.relkind = 'S'
+                    JOIN pg_attribute a ON a.attrelid = dep.refobjid AND a.attnum = dep.refobjsubid
+                    WHERE dep.classid = 'pg_class'::regclass AND dep.refobjid = 'departments'::regclass
+                      AND dep.deptype = 'a'
+                    """));
+			ddl.add("DROP TABLE departments");
+			ddl.add("ALTER TABLE departments_shadow RENAME TO departments");
+			for (String sql : ddl) {
+				logger.debug("Замена таблицы: {}", sql);
+				statement.execute(sql);
+			}
+			List<String> renames = new ArrayList<>(queryStrings(statement, """
+                    SELECT 'ALTER TABLE departments RENAME CONSTRAINT ' || quote_ident(conname)
+                           || ' TO ' || quote_ident(left(conname, -7))
+                    FROM pg_constraint
+                    WHERE conrelid = 'departments'::regclass AND conname LIKE '%\\_shadow'
+                    """));
+			renames.addAll(queryStrings(statement, """
+                    SELECT 'ALTER INDEX ' || quote_ident(c.relname) || ' RENAME TO ' || quote_ident(left(c.relname, -7))
+                    FROM pg_index i
+                    JOIN pg_class c ON c.oid = i.indexrelid
+                    WHERE i.indrelid = 'departments'::regclass AND c.relname LIKE '%\\_shadow'
+                      AND NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid
+                                                                      AND k.conrelid = i.indrelid)
+                    """));
+			for (String sql : renames) {
+				logger.debug("Замена таблицы: {}", sql);
+				statement.execute(sql);
+			}
+			logger.info("Таблица departments заменена теневой");
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Выполняет запрос и возвращает значения первого столбца всех строк.
+	 */
+	private List<String> queryStrings(Statement statement, String sql) throws SQLException {
+		List<String> values = new ArrayList<>();
+		try (var resultSet = statement.executeQuery(sql)) {
+			while (resultSet.next()) {
+				values.add(resultSet.getString(1));
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Построчно передаёт все отделы обработчику, читая таблицу командой COPY ... TO STDOUT.
+	 *
+	 * @param consumer  обработчик записей
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public void copyAll(DepartmentConsumer consumer) {
+		logger.info("Чтение всех сущностей через COPY");
+		long rows = 0;
+		try (var timer = Metrics.timer("db.read");
+			 Connection connection = ConnectionManager.openConnection()) {
+			CopyOut copyOut = connection.unwrap(PGConnection.class).getCopyAPI().copyOut("""
+                    COPY (SELECT depcode, depjob, description FROM departments) TO STDOUT
+                    """);
+			String[] fields = new String[3];
+			byte[] row;
+			while ((row = copyOut.readFromCopy()) != null) {
+				CopyTextCodec.decode(row, fields);
+				consumer.accept(fields[0], fields[1], fields[2]);
+				rows++;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Metrics.count("rows.db.read", rows);
+		}
+	}
+
+	/**
+	 * Вычисляет контрольную сумму таблицы на стороне сервера: количество строк и сумму
+	 * 64-битных хешей hashtextextended всех строк. Клиенту передаётся только результат.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @return контрольная сумма в виде "количество:сумма"
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public String checksum(Connection connection) {
+		String sqlQuery = """
+                SELECT count(*), coalesce(sum(hashtextextended(
+                    depcode || chr(31) || depjob || chr(31) || coalesce(description, chr(30)), 0)), 0)::text
+                FROM departments
+                """;
+		try (var timer = Metrics.timer("db.checksum");
+			 var statement = connection.prepareStatement(sqlQuery);
+			 var resultSet = statement.executeQuery()) {
+			resultSet.next();
+			return resultSet.getLong(1) + ":" + resultSet.getString(2);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Начинает на соединении транзакцию REPEATABLE READ и возвращает метку для следующего экспорта
+	 * изменений - границу xmin её снимка: все транзакции с меньшими идентификаторами уже завершены
+	 * и видны в снимке, а изменения транзакций, выполнявшихся во время чтения или начатых позже,
+	 * попадут в следующий экспорт. Изменения читаются в той же транзакции forEachChangeSince.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @return новая метка
+	 * @throws RuntimeException если журнал изменений не создан или произошла ошибка SQL
+	 */
+	public long beginChangeExport(Connection connection) {
+		try {
+			connection.setAutoCommit(false);
+			connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			try (var statement = connection.prepareStatement("""
+                    SELECT to_regclass('departments_changes') IS NOT NULL,
+                           pg_snapshot_xmin(pg_current_snapshot())::text
+                    """);
+				 var resultSet = statement.executeQuery()) {
+				resultSet.next();
+				if (!resultSet.getBoolean(1)) {
+					throw new RuntimeException("Журнал изменений departments_changes не создан, выполните changelog.sql");
+				}
+				return Long.parseLong(resultSet.getString(2));
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Передаёт получателю отделы, изменённые после метки, по журналу изменённых ключей departments_changes
+	 * (см. changelog.sql), в порядке ключа COLLATE "C". Для каждого ключа из журнала с идентификатором
+	 * транзакции не меньше метки строка таблицы передаётся как upsert, а её отсутствие - как delete.
+	 * Повторно переданные изменения безопасны: upsert и delete идемпотентны.
+	 * Вызывается в транзакции, начатой beginChangeExport.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @param since       метка предыдущего экспорта изменений, 0 - все изменения из журнала
+	 * @param consumer    получатель изменений
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public void forEachChangeSince(Connection connection, long since, DepartmentDeltaConsumer consumer) {
+		logger.info("Чтение изменений после метки {}", since);
+		String sqlQuery = """
+                SELECT c.depcode, c.depjob, d.depcode IS NOT NULL, d.description
+                FROM departments_changes c
+                LEFT JOIN departments d ON d.depcode = c.depcode AND d.depjob = c.depjob
+                WHERE c.txid >= ?::text::xid8
+                ORDER BY c.depcode COLLATE "C", c.depjob COLLATE "C"
+                """;
+		long upserts = 0;
+		long deletes = 0;
+		try (var timer = Metrics.timer("db.read");
+			 var statement = connection.prepareStatement(sqlQuery,
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			statement.setString(1, Long.toString(since));
+			statement.setFetchSize(PropertiesUtil.getInt(FETCH_SIZE, DEFAULT_FETCH_SIZE));
+			try (var resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					if (resultSet.getBoolean(3)) {
+						consumer.upsert(resultSet.getString(1), resultSet.getString(2), resultSet.getString(4));
+						upserts++;
+					} else {
+						consumer.delete(resultSet.getString(1), resultSet.getString(2));
+						deletes++;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Metrics.count("rows.db.read", upserts + deletes);
+		}
+		logger.info("Изменений после метки {}: добавлено или изменено {}, удалено {}", since, upserts, deletes);
+	}
+
+	/**
+	 * Возвращает размер данных таблицы на диске (pg_table_size, без индексов) - верхнюю оценку
+	 * объёма её строк при загрузке в память.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @return размер в байтах
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public long tableBytes(Connection connection) {
+		try (var statement = connection.prepareStatement("SELECT pg_table_size('departments'::regclass)");
+			 var resultSet = statement.executeQuery()) {
+			return resultSet.next() ? resultSet.getLong(1) : 0;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Передаёт записи источника в таблицу запросами INSERT ... SELECT FROM unnest(...)
+	 * с тремя текстовыми массивами по chunkSize записей; запрос подготавливается один раз.
+	 *
+	 * @return количество переданных строк
+	 */
+	private long unnestIn(DepartmentReader source, Connection connection, String table, int chunkSize)
+			throws SQLException {
+		int size = Math.max(1, chunkSize);
+		String[] depCodes = new String[size];
+		String[] depJobs = new String[size];
+		String[] descriptions = new String[size];
+		long rows = 0;
+		try (var statement = connection.prepareStatement("INSERT INTO " + table
+				+ " (depcode, depjob, description) SELECT * FROM unnest(?::text[], ?::text[], ?::text[])")) {
+			int pending = 0;
+			while (true) {
+				boolean hasNext = source.next();
+				if (hasNext) {
+					depCodes[pending] = source.getDepCode();
+					depJobs[pending] = source.getDepJob();
+					descriptions[pending] = source.getDescription();
+					pending++;
+				}
+				if (pending == size || (!hasNext && pending > 0)) {
+					statement.setArray(1, connection.createArrayOf("text", Arrays.copyOf(depCodes, pending)));
+					statement.setArray(2, connection.createArrayOf("text", Arrays.copyOf(depJobs, pending)));
+					statement.setArray(3, connection.createArrayOf("text", Arrays.copyOf(descriptions, pending)));
+					rows += statement.executeUpdate();
+					Metrics.count("db.batches", 1);
+					pending = 0;
+				}
+				if (!hasNext) {
+					return rows;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Передаёт записи источника в таблицу командой COPY ... FROM STDIN.
+	 *
+	 * @return количество переданных строк
+	 */
+	private long copyIn(DepartmentReader source, Connection connection, String table) throws SQLException {
+		CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+				.copyIn("COPY " + table + " (depcode, depjob, description) FROM STDIN");
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(COPY_BUFFER_SIZE + 1024);
+			while (source.next()) {
+				CopyTextCodec.encode(buffer, source.getDepCode(), source.getDepJob(), source.getDescription());
+				if (buffer.size() >= COPY_BUFFER_SIZE) {
+					copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+					buffer.reset();
+				}
+			}
+			if (buffer.size() > 0) {
+				copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+			}
+			return copyIn.endCopy();
+		} finally {
+			if (copyIn.isActive()) {
+				copyIn.cancelCopy();
+			}
+		}
 	}
 }
\ No newline at end of file
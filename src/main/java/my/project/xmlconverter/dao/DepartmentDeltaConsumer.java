@@ -0,0 +1,24 @@
+package my.project.xmlconverter.dao;
+
+/**
+ * Получатель изменений таблицы отделов, прочитанных из журнала изменений.
+ */
+public interface DepartmentDeltaConsumer {
+
+	/**
+	 * Отдел, добавленный или изменённый после метки, с текущими данными.
+	 *
+	 * @param depCode      код отдела
+	 * @param depJob       должность в отделе
+	 * @param description  описание отдела (может быть null)
+	 */
+	void upsert(String depCode, String depJob, String description);
+
+	/**
+	 * Отдел, удалённый после метки.
+	 *
+	 * @param depCode  код отдела
+	 * @param depJob   должность в отделе
+	 */
+	void delete(String depCode, String depJob);
+}
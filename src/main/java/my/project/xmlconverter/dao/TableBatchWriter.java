@@ -0,0 +1,173 @@
+package my.project.xmlconverter.dao;
+
+import my.project.xmlconverter.entities.TableMapping;
+import my.project.xmlconverter.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Пакетная запись изменений таблицы, описанной TableMapping, в рамках транзакции вызывающего кода.
+ * Работает так же, как DepartmentBatchWriter: вставки, обновления и удаления копятся в отдельных
+ * пакетах JDBC и отправляются, как только пакет достигает заданного размера. Порядок параметров
+ * каждого запроса вычисляется один раз при создании писателя.
+ */
+public class TableBatchWriter implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(TableBatchWriter.class);
+
+	private final Connection connection;
+	private final int batchSize;
+	private final String table;
+	private final Batch inserts;
+	private final Batch updates;
+	private final Batch deletes;
+
+	TableBatchWriter(TableMapping mapping, Connection connection, int batchSize) {
+		this.connection = connection;
+		this.batchSize = Math.max(1, batchSize);
+		this.table = mapping.getTable();
+		int columns = mapping.getColumnCount();
+		int keys = mapping.getKeyCount();
+		int[] all = new int[columns];
+		int[] valuesThenKey = new int[columns];
+		int[] key = new int[keys];
+		for (int i = 0; i < columns; i++) {
+			all[i] = i;
+			valuesThenKey[i] = i < columns - keys ? keys + i : i - (columns - keys);
+		}
+		for (int i = 0; i < keys; i++) {
+			key[i] = i;
+		}
+		this.inserts = new Batch("Вставка", "inserted", mapping.getInsertSql(), all);
+		this.updates = mapping.getUpdateSql() == null ? null
+				: new Batch("Обновление", "updated", mapping.getUpdateSql(), valuesThenKey);
+		this.deletes = new Batch("Удаление", "deleted", mapping.getDeleteSql(), key);
+	}
+
+	/**
+	 * Добавляет новую строку.
+	 *
+	 * @param row  значения всех столбцов
+	 */
+	public void insert(String[] row) {
+		inserts.add(row);
+	}
+
+	/**
+	 * Обновляет неключевые столбцы строки с тем же ключом.
+	 *
+	 * @param row  значения всех столбцов
+	 */
+	public void update(String[] row) {
+		if (updates == null) {
+			throw new IllegalStateException("В таблице " + table + " нет столбцов для обновления");
+		}
+		updates.add(row);
+	}
+
+	/**
+	 * Удаляет строку по ключу.
+	 *
+	 * @param row  строка, из которой берутся ключевые столбцы
+	 */
+	public void delete(String[] row) {
+		deletes.add(row);
+	}
+
+	/**
+	 * Отправляет неполные пакеты и закрывает запросы. Транзакцию не завершает.
+	 */
+	@Override
+	public void close() {
+		try {
+			deletes.close();
+			if (updates != null) {
+				updates.close();
+			}
+			inserts.close();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		log.info("Таблица {}: удалено {}, обновлено {}, добавлено {}", table,
+				deletes.total, updates == null ? 0 : updates.total, inserts.total);
+	}
+
+	/**
+	 * Пакет JDBC однотипных запросов; parameters - позиции значений строки в порядке параметров запроса.
+	 */
+	private final class Batch {
+
+		private final String name;
+		private final String metric;
+		private final String sql;
+		private final int[] parameters;
+		private PreparedStatement statement;
+		private int pending;
+		private long total;
+		private long nanos;
+		private int roundTrips;
+
+		Batch(String name, String metric, String sql, int[] parameters) {
+			this.name = name;
+			this.metric = metric;
+			this.sql = sql;
+			this.parameters = parameters;
+		}
+
+		void add(String[] row) {
+			try {
+				if (statement == null) {
+					statement = connection.prepareStatement(sql);
+				}
+				for (int i = 0; i < parameters.length; i++) {
+					String value = row[parameters[i]];
+					if (value == null) {
+						statement.setNull(i + 1, Types.OTHER);
+					} else {
+						statement.setObject(i + 1, value, Types.OTHER);
+					}
+				}
+				statement.addBatch();
+				total++;
+				if (++pending >= batchSize) {
+					flush();
+				}
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		void flush() throws SQLException {
+			if (pending == 0) {
+				return;
+			}
+			long start = System.nanoTime();
+			statement.executeBatch();
+			long elapsed = System.nanoTime() - start;
+			nanos += elapsed;
+			Metrics.addTime("db.write." + metric, elapsed);
+			Metrics.count("db.batches", 1);
+			roundTrips++;
+			pending = 0;
+		}
+
+		void close() throws SQLException {
+			flush();
+			if (statement != null) {
+				statement.close();
+				statement = null;
+			}
+			Metrics.count("rows." + metric, total);
+			if (total > 0) {
+				double seconds = nanos / 1_000_000_000.0;
+				log.info("{} ({}): {} строк за {} мс, пакетов {}, {} строк/с", name, table, total,
+						nanos / 1_000_000, roundTrips, seconds > 0 ? Math.round(total / seconds) : total);
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package my.project.xmlconverter.dao;
+
+import my.project.xmlconverter.entities.TableMapping;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.utils.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Data Access Object для таблицы, описанной TableMapping.
+ * Запросы берутся из описания готовыми, столбцы читаются и связываются по позиции в массиве строки,
+ * так что на каждую строку приходится только вызов getString или setObject для каждого столбца.
+ * Значения передаются серверу без указания типа (Types.OTHER), поэтому подходят столбцы любого типа,
+ * текстовое представление которого совпадает с текстом в XML.
+ */
+public class TableDAO {
+
+	private static final Logger log = LoggerFactory.getLogger(TableDAO.class);
+	private final static String FETCH_SIZE = "db.fetch.size";
+	private final static int DEFAULT_FETCH_SIZE = 1000;
+	private final static String BATCH_SIZE = "db.batch.size";
+	private final static int DEFAULT_BATCH_SIZE = 1000;
+
+	private final TableMapping mapping;
+
+	/**
+	 * @param mapping  описание таблицы
+	 */
+	public TableDAO(TableMapping mapping) {
+		this.mapping = mapping;
+	}
+
+	/**
+	 * Построчно передаёт все строки таблицы обработчику через однонаправленный курсор.
+	 * Курсор работает только при выключенном автокоммите; иначе драйвер читает результат целиком.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @param consumer    обработчик строк
+	 * @throws RuntimeException если произошла ошибка SQL
+	 */
+	public void forEach(Connection connection, TableRowConsumer consumer) {
+		log.info("Потоковое чтение таблицы {}", mapping.getTable());
+		int columns = mapping.getColumnCount();
+		long rows = 0;
+		try (var timer = Metrics.timer("db.read");
+			 var statement = connection.prepareStatement(mapping.getSelectSql(),
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			statement.setFetchSize(PropertiesUtil.getInt(FETCH_SIZE, DEFAULT_FETCH_SIZE));
+			try (var resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					String[] row = new String[columns];
+					for (int i = 0; i < columns; i++) {
+						row[i] = resultSet.getString(i + 1);
+					}
+					consumer.accept(row);
+					rows++;
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Metrics.count("rows.db.read", rows);
+		}
+	}
+
+	/**
+	 * Создаёт пакетный писатель изменений в транзакции переданного соединения.
+	 * Размер пакета задаётся параметром db.batch.size.
+	 *
+	 * @param connection  соединение с базой данных
+	 * @return писатель изменений
+	 */
+	public TableBatchWriter openBatchWriter(Connection connection) {
+		return new TableBatchWriter(mapping, connection, PropertiesUtil.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE));
+	}
+}
@@ -0,0 +1,16 @@
+package my.project.xmlconverter.dao;
+
+/**
+ * Обработчик строк таблицы универсального конвертера, получаемых построчно.
+ * Строка - массив значений в порядке столбцов описания TableMapping: сначала ключевые, затем остальные.
+ */
+@FunctionalInterface
+public interface TableRowConsumer {
+
+	/**
+	 * Обрабатывает одну строку. Массив принадлежит получателю и больше не изменяется источником.
+	 *
+	 * @param row  значения столбцов (значение может быть null)
+	 */
+	void accept(String[] row);
+}
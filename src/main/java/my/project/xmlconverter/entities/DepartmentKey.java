@@ -81,11 +81,54 @@ public class DepartmentKey {
 
 	/**
 	 * Возвращает хэш-код ключа на основе полей depCode и depJob.
+	 * Вычисляется без создания массива аргументов, в отличие от Objects.hash.
 	 *
 	 * @return хэш-код
 	 */
 	@Override
 	public int hashCode() {
-		return Objects.hash(DepCode, DepJob);
+		return 31 * Objects.hashCode(DepCode) + Objects.hashCode(DepJob);
+	}
+
+	/**
+	 * Сравнивает два ключа, заданных строками, в порядке кодовых точек Unicode.
+	 * Этот порядок совпадает с сортировкой PostgreSQL по COLLATE "C" для базы в кодировке UTF-8,
+	 * что позволяет сливать отсортированные данные из XML и из БД.
+	 *
+	 * @param depCode1 код первого отдела
+	 * @param depJob1  должность первого отдела
+	 * @param depCode2 код второго отдела
+	 * @param depJob2  должность второго отдела
+	 * @return отрицательное число, ноль или положительное число, если первый ключ меньше, равен или больше второго
+	 */
+	public static int compare(String depCode1, String depJob1, String depCode2, String depJob2) {
+		int result = compareCodePoints(depCode1, depCode2);
+		return result != 0 ? result : compareCodePoints(depJob1, depJob2);
+	}
+
+	/**
+	 * Сравнивает строки по кодовым точкам. В отличие от String.compareTo, символы вне BMP
+	 * (суррогатные пары) оказываются после всех символов BMP, как и при побайтовом сравнении UTF-8.
+	 */
+	private static int compareCodePoints(String first, String second) {
+		int length = Math.min(first.length(), second.length());
+		for (int i = 0; i < length; i++) {
+			char a = first.charAt(i);
+			char b = second.charAt(i);
+			if (a != b) {
+				if (Character.isSurrogate(a) || Character.isSurrogate(b)) {
+					return Integer.compare(shiftSurrogates(a), shiftSurrogates(b));
+				}
+				return a - b;
+			}
+		}
+		return first.length() - second.length();
+	}
+
+	private static int shiftSurrogates(char c) {
+		if (c >= 0xE000) {
+			return c - 0x800;
+		}
+		return c >= 0xD800 ? c + 0x2000 : c;
 	}
 }
\ No newline at end of file
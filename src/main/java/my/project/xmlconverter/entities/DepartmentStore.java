@@ -0,0 +1,608 @@
+package my.project.xmlconverter.entities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Компактное множество отделов с уникальным ключом (depCode, depJob).
+ * Заменяет Map&lt;DepartmentKey, Department&gt;: коды и должности хранятся в словарях
+ * и заменяются целыми номерами, а сами строки и описания - в массивах байт UTF-8.
+ * Поиск выполняется по индексу с открытой адресацией без создания объектов,
+ * строки создаются только при чтении полей записи.
+ * Записи нумеруются в порядке добавления; удалённые записи пропускаются при обходе:
+ * <pre>
+ * for (int id = store.next(0); id &gt;= 0; id = store.next(id + 1)) { ... }
+ * </pre>
+ * Класс не потокобезопасен.
+ */
+public class DepartmentStore {
+
+	private static final int NULL_DESCRIPTION = -1;
+
+	private final Dictionary codes;
+	private final Dictionary jobs;
+	private final Arena descriptions;
+	private int[] codeIds;
+	private int[] jobIds;
+	private int[] descriptionOffsets;
+	private int[] descriptionLengths;
+	private int count;
+	private int[] slots;
+	private final BitSet removed;
+	private int removedCount;
+
+	/**
+	 * Создаёт пустое множество.
+	 */
+	public DepartmentStore() {
+		this(16);
+	}
+
+	/**
+	 * Создаёт пустое множество, рассчитанное на заданное количество отделов.
+	 *
+	 * @param expectedSize  ожидаемое количество отделов
+	 */
+	public DepartmentStore(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		codes = new Dictionary(capacity / 4);
+		jobs = new Dictionary(capacity / 4);
+		descriptions = new Arena(Math.min(capacity, 1 << 16) * 32);
+		codeIds = new int[capacity];
+		jobIds = new int[capacity];
+		descriptionOffsets = new int[capacity];
+		descriptionLengths = new int[capacity];
+		slots = new int[tableSize(capacity)];
+		removed = new BitSet();
+	}
+
+	private DepartmentStore(DepartmentStore source) {
+		codes = new Dictionary(source.codes);
+		jobs = new Dictionary(source.jobs);
+		descriptions = new Arena(source.descriptions);
+		codeIds = source.codeIds.clone();
+		jobIds = source.jobIds.clone();
+		descriptionOffsets = source.descriptionOffsets.clone();
+		descriptionLengths = source.descriptionLengths.clone();
+		count = source.count;
+		slots = source.slots.clone();
+		removed = (BitSet) source.removed.clone();
+		removedCount = source.removedCount;
+	}
+
+	/**
+	 * Добавляет отдел, если отдела с таким ключом ещё нет.
+	 *
+	 * @param depCode      код отдела (не может быть null)
+	 * @param depJob       должность в отделе (не может быть null)
+	 * @param description  описание отдела
+	 * @return false, если отдел с таким ключом уже есть
+	 */
+	public boolean add(String depCode, String depJob, String description) {
+		int codeId = codes.intern(depCode);
+		int jobId = jobs.intern(depJob);
+		int slot = freeSlot(codeId, jobId);
+		if (slot < 0) {
+			return false;
+		}
+		int id = addRecord(codeId, jobId, slot);
+		if (description == null) {
+			descriptionLengths[id] = NULL_DESCRIPTION;
+		} else {
+			descriptionOffsets[id] = descriptions.append(description);
+			descriptionLengths[id] = descriptions.size - descriptionOffsets[id];
+		}
+		return true;
+	}
+
+	/**
+	 * Добавляет записи другого множества в порядке его обхода, копируя байты без создания строк.
+	 * Добавление останавливается на первой записи, ключ которой уже есть в этом множестве;
+	 * записи до неё остаются добавленными.
+	 *
+	 * @param other  другое множество
+	 * @return номер записи другого множества с повторяющимся ключом или -1, если добавлены все записи
+	 */
+	public int addAll(DepartmentStore other) {
+		for (int otherId = other.next(0); otherId >= 0; otherId = other.next(otherId + 1)) {
+			int codeId = codes.intern(other.codes, other.codeIds[otherId]);
+			int jobId = jobs.intern(other.jobs, other.jobIds[otherId]);
+			int slot = freeSlot(codeId, jobId);
+			if (slot < 0) {
+				return otherId;
+			}
+			int id = addRecord(codeId, jobId, slot);
+			int length = other.descriptionLengths[otherId];
+			descriptionLengths[id] = length;
+			if (length != NULL_DESCRIPTION) {
+				descriptionOffsets[id] = descriptions.append(other.descriptions, other.descriptionOffsets[otherId], length);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Находит свободную ячейку индекса для нового ключа.
+	 *
+	 * @return номер ячейки или -1, если ключ уже есть
+	 */
+	private int freeSlot(int codeId, int jobId) {
+		int mask = slots.length - 1;
+		int slot = hash(codeId, jobId) & mask;
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (codeIds[id] == codeId && jobIds[id] == jobId) {
+				if (!removed.get(id)) {
+					return -1;
+				}
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Добавляет запись с ключом в найденную ячейку индекса; описание заполняет вызывающий.
+	 *
+	 * @return номер новой записи
+	 */
+	private int addRecord(int codeId, int jobId, int slot) {
+		if (count == codeIds.length) {
+			growRecords();
+		}
+		int id = count++;
+		codeIds[id] = codeId;
+		jobIds[id] = jobId;
+		slots[slot] = id + 1;
+		if (count * 2L > slots.length) {
+			rehash(slots.length * 2);
+		}
+		return id;
+	}
+
+	/**
+	 * Ищет отдел по ключу.
+	 *
+	 * @param depCode  код отдела
+	 * @param depJob   должность в отделе
+	 * @return номер записи или -1, если отдела нет
+	 */
+	public int find(String depCode, String depJob) {
+		int codeId = codes.find(depCode);
+		if (codeId < 0) {
+			return -1;
+		}
+		int jobId = jobs.find(depJob);
+		return jobId < 0 ? -1 : find(codeId, jobId);
+	}
+
+	/**
+	 * Ищет отдел с тем же ключом, что у записи другого множества, сравнивая байты без создания строк.
+	 *
+	 * @param other    другое множество
+	 * @param otherId  номер записи в другом множестве
+	 * @return номер записи в этом множестве или -1, если отдела нет
+	 */
+	public int find(DepartmentStore other, int otherId) {
+		int codeId = codes.find(other.codes, other.codeIds[otherId]);
+		if (codeId < 0) {
+			return -1;
+		}
+		int jobId = jobs.find(other.jobs, other.jobIds[otherId]);
+		return jobId < 0 ? -1 : find(codeId, jobId);
+	}
+
+	private int find(int codeId, int jobId) {
+		int mask = slots.length - 1;
+		int slot = hash(codeId, jobId) & mask;
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (codeIds[id] == codeId && jobIds[id] == jobId) {
+				return removed.get(id) ? -1 : id;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Удаляет запись.
+	 *
+	 * @param id  номер записи
+	 * @return false, если запись уже была удалена
+	 */
+	public boolean remove(int id) {
+		if (removed.get(id)) {
+			return false;
+		}
+		removed.set(id);
+		removedCount++;
+		return true;
+	}
+
+	/**
+	 * Возвращает номер первой неудалённой записи, начиная с from.
+	 *
+	 * @param from  номер записи, с которого начинается поиск
+	 * @return номер записи или -1, если записей больше нет
+	 */
+	public int next(int from) {
+		int id = removed.nextClearBit(from);
+		return id < count ? id : -1;
+	}
+
+	/**
+	 * Возвращает количество отделов.
+	 */
+	public int size() {
+		return count - removedCount;
+	}
+
+	/**
+	 * Проверяет, пусто ли множество.
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Возвращает код отдела записи. Строка создаётся при каждом вызове.
+	 *
+	 * @param id  номер записи
+	 */
+	public String getDepCode(int id) {
+		return codes.get(codeIds[id]);
+	}
+
+	/**
+	 * Возвращает должность записи. Строка создаётся при каждом вызове.
+	 *
+	 * @param id  номер записи
+	 */
+	public String getDepJob(int id) {
+		return jobs.get(jobIds[id]);
+	}
+
+	/**
+	 * Возвращает описание записи. Строка создаётся при каждом вызове.
+	 *
+	 * @param id  номер записи
+	 */
+	public String getDescription(int id) {
+		int length = descriptionLengths[id];
+		return length == NULL_DESCRIPTION ? null : descriptions.get(descriptionOffsets[id], length);
+	}
+
+	/**
+	 * Сравнивает описания двух записей побайтно, не создавая строк.
+	 *
+	 * @param id       номер записи в этом множестве
+	 * @param other    другое множество
+	 * @param otherId  номер записи в другом множестве
+	 * @return true, если описания равны (в том числе оба null)
+	 */
+	public boolean descriptionEquals(int id, DepartmentStore other, int otherId) {
+		int length = descriptionLengths[id];
+		if (length != other.descriptionLengths[otherId]) {
+			return false;
+		}
+		return length == NULL_DESCRIPTION || descriptions.equals(descriptionOffsets[id], length,
+				other.descriptions, other.descriptionOffsets[otherId]);
+	}
+
+	/**
+	 * Создаёт независимую копию множества.
+	 */
+	public DepartmentStore copy() {
+		return new DepartmentStore(this);
+	}
+
+	private void growRecords() {
+		int capacity = codeIds.length * 2;
+		codeIds = Arrays.copyOf(codeIds, capacity);
+		jobIds = Arrays.copyOf(jobIds, capacity);
+		descriptionOffsets = Arrays.copyOf(descriptionOffsets, capacity);
+		descriptionLengths = Arrays.copyOf(descriptionLengths, capacity);
+	}
+
+	private void rehash(int size) {
+		int[] table = new int[size];
+		int mask = size - 1;
+		for (int id = 0; id < count; id++) {
+			if (removed.get(id)) {
+				continue;
+			}
+			int slot = hash(codeIds[id], jobIds[id]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id + 1;
+		}
+		slots = table;
+	}
+
+	private static int hash(int codeId, int jobId) {
+		return mix(codeId * 0x9E3779B1 + jobId);
+	}
+
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+	private static int tableSize(int capacity) {
+		return Integer.highestOneBit(Math.max(16, capacity) * 2 - 1) * 2;
+	}
+
+	/**
+	 * Растущий массив байт, в который строки записываются подряд в UTF-8.
+	 * Одиночные суррогаты заменяются на '?', как в String.getBytes.
+	 */
+	private static final class Arena {
+
+		private byte[] bytes;
+		private int size;
+
+		Arena(int capacity) {
+			bytes = new byte[Math.max(64, capacity)];
+		}
+
+		Arena(Arena source) {
+			bytes = Arrays.copyOf(source.bytes, source.size);
+			size = source.size;
+		}
+
+		/**
+		 * Дописывает строку без промежуточного массива.
+		 *
+		 * @return смещение начала строки
+		 */
+		int append(String value) {
+			int length = value.length();
+			ensureCapacity(length * 3L);
+			int start = size;
+			int position = size;
+			for (int i = 0; i < length; i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					bytes[position++] = (byte) c;
+				} else if (c < 0x800) {
+					bytes[position++] = (byte) (0xC0 | c >> 6);
+					bytes[position++] = (byte) (0x80 | c & 0x3F);
+				} else if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+					bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+					bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+					bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+				} else if (Character.isSurrogate(c)) {
+					bytes[position++] = '?';
+				} else {
+					bytes[position++] = (byte) (0xE0 | c >> 12);
+					bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+					bytes[position++] = (byte) (0x80 | c & 0x3F);
+				}
+			}
+			size = position;
+			return start;
+		}
+
+		/**
+		 * Дописывает байты другого массива.
+		 *
+		 * @return смещение начала строки
+		 */
+		int append(Arena other, int offset, int length) {
+			ensureCapacity(length);
+			int start = size;
+			System.arraycopy(other.bytes, offset, bytes, start, length);
+			size += length;
+			return start;
+		}
+
+		String get(int offset, int length) {
+			return new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+
+		boolean equals(int offset, int length, Arena other, int otherOffset) {
+			return Arrays.equals(bytes, offset, offset + length, other.bytes, otherOffset, otherOffset + length);
+		}
+
+		/**
+		 * Сравнивает байты с UTF-8 представлением строки, не кодируя её целиком.
+		 */
+		boolean equals(int offset, int length, String value) {
+			int position = offset;
+			int end = offset + length;
+			int valueLength = value.length();
+			for (int i = 0; i < valueLength; i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					if (position >= end || bytes[position++] != (byte) c) {
+						return false;
+					}
+				} else if (c < 0x800) {
+					if (position + 2 > end
+							|| bytes[position++] != (byte) (0xC0 | c >> 6)
+							|| bytes[position++] != (byte) (0x80 | c & 0x3F)) {
+						return false;
+					}
+				} else if (Character.isHighSurrogate(c) && i + 1 < valueLength
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					if (position + 4 > end
+							|| bytes[position++] != (byte) (0xF0 | codePoint >> 18)
+							|| bytes[position++] != (byte) (0x80 | codePoint >> 12 & 0x3F)
+							|| bytes[position++] != (byte) (0x80 | codePoint >> 6 & 0x3F)
+							|| bytes[position++] != (byte) (0x80 | codePoint & 0x3F)) {
+						return false;
+					}
+				} else if (Character.isSurrogate(c)) {
+					if (position >= end || bytes[position++] != '?') {
+						return false;
+					}
+				} else {
+					if (position + 3 > end
+							|| bytes[position++] != (byte) (0xE0 | c >> 12)
+							|| bytes[position++] != (byte) (0x80 | c >> 6 & 0x3F)
+							|| bytes[position++] != (byte) (0x80 | c & 0x3F)) {
+						return false;
+					}
+				}
+			}
+			return position == end;
+		}
+
+		private void ensureCapacity(long extra) {
+			long required = size + extra;
+			if (required <= bytes.length) {
+				return;
+			}
+			if (required > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Слишком большой объём данных отделов");
+			}
+			long capacity = Math.max(required, Math.min(bytes.length + (bytes.length >> 1), Integer.MAX_VALUE - 8L));
+			bytes = Arrays.copyOf(bytes, (int) capacity);
+		}
+	}
+
+	/**
+	 * Словарь строк: каждой различной строке сопоставляется номер в порядке добавления.
+	 * Строки хранятся в массиве байт, хеш берётся из String.hashCode (строка его кеширует)
+	 * и сохраняется, поэтому словари разных множеств можно сравнивать без создания строк.
+	 */
+	private static final class Dictionary {
+
+		private final Arena arena;
+		private int[] offsets;
+		private int[] lengths;
+		private int[] hashes;
+		private int size;
+		private int[] slots;
+
+		Dictionary(int capacity) {
+			int initial = Math.max(16, capacity);
+			arena = new Arena(Math.min(initial, 1 << 16) * 16);
+			offsets = new int[initial];
+			lengths = new int[initial];
+			hashes = new int[initial];
+			slots = new int[tableSize(initial)];
+		}
+
+		Dictionary(Dictionary source) {
+			arena = new Arena(source.arena);
+			offsets = source.offsets.clone();
+			lengths = source.lengths.clone();
+			hashes = source.hashes.clone();
+			size = source.size;
+			slots = source.slots.clone();
+		}
+
+		int find(String value) {
+			int hash = value.hashCode();
+			int mask = slots.length - 1;
+			int slot = mix(hash) & mask;
+			while (slots[slot] != 0) {
+				int id = slots[slot] - 1;
+				if (hashes[id] == hash && arena.equals(offsets[id], lengths[id], value)) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		int find(Dictionary other, int otherId) {
+			int hash = other.hashes[otherId];
+			int length = other.lengths[otherId];
+			int mask = slots.length - 1;
+			int slot = mix(hash) & mask;
+			while (slots[slot] != 0) {
+				int id = slots[slot] - 1;
+				if (hashes[id] == hash && lengths[id] == length
+						&& arena.equals(offsets[id], length, other.arena, other.offsets[otherId])) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		int intern(String value) {
+			int hash = value.hashCode();
+			int mask = slots.length - 1;
+			int slot = mix(hash) & mask;
+			while (slots[slot] != 0) {
+				int id = slots[slot] - 1;
+				if (hashes[id] == hash && arena.equals(offsets[id], lengths[id], value)) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			int id = addEntry(hash, slot);
+			offsets[id] = arena.append(value);
+			lengths[id] = arena.size - offsets[id];
+			return id;
+		}
+
+		int intern(Dictionary other, int otherId) {
+			int hash = other.hashes[otherId];
+			int length = other.lengths[otherId];
+			int mask = slots.length - 1;
+			int slot = mix(hash) & mask;
+			while (slots[slot] != 0) {
+				int id = slots[slot] - 1;
+				if (hashes[id] == hash && lengths[id] == length
+						&& arena.equals(offsets[id], length, other.arena, other.offsets[otherId])) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			int id = addEntry(hash, slot);
+			offsets[id] = arena.append(other.arena, other.offsets[otherId], length);
+			lengths[id] = length;
+			return id;
+		}
+
+		/**
+		 * Занимает номер для новой строки; смещение и длину заполняет вызывающий.
+		 */
+		private int addEntry(int hash, int slot) {
+			if (size == offsets.length) {
+				int capacity = size * 2;
+				offsets = Arrays.copyOf(offsets, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+				hashes = Arrays.copyOf(hashes, capacity);
+			}
+			int id = size++;
+			hashes[id] = hash;
+			slots[slot] = id + 1;
+			if (size * 2L > slots.length) {
+				rehash();
+			}
+			return id;
+		}
+
+		String get(int id) {
+			return arena.get(offsets[id], lengths[id]);
+		}
+
+		private void rehash() {
+			int[] table = new int[slots.length * 2];
+			int mask = table.length - 1;
+			for (int id = 0; id < size; id++) {
+				int slot = mix(hashes[id]) & mask;
+				while (table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = id + 1;
+			}
+			slots = table;
+		}
+	}
+}
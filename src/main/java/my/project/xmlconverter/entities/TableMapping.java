@@ -0,0 +1,274 @@
+package my.project.xmlconverter.entities;
+
+import my.project.xmlconverter.utils.PropertiesUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Описание соответствия таблицы БД и XML-документа для универсального конвертера.
+ * Задаётся в application.properties параметрами mapping.&lt;имя&gt;.*:
+ * - table - имя таблицы (по умолчанию совпадает с именем описания);
+ * - root - корневой элемент документа (по умолчанию имя таблицы);
+ * - row - элемент одной строки (по умолчанию row);
+ * - key - ключевые столбцы через запятую;
+ * - columns - остальные столбцы через запятую;
+ * - file - имя XML-файла в каталоге команды (по умолчанию &lt;имя&gt;.xml).
+ * Столбец записывается как "столбец" или "столбец:элемент", если имя элемента XML отличается от имени столбца.
+ * SQL-запросы и таблица поиска элементов строятся один раз при загрузке описания, описания кешируются.
+ * Строка таблицы представляется массивом строк: сначала ключевые столбцы, затем остальные, в порядке описания.
+ */
+public final class TableMapping {
+
+	private static final String TABLES = "mapping.tables";
+	private static final String PREFIX = "mapping.";
+	private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+	private static final Pattern ELEMENT = Pattern.compile("[A-Za-z_][A-Za-z0-9_.-]*");
+	private static final Map<String, TableMapping> CACHE = new ConcurrentHashMap<>();
+
+	private final String name;
+	private final String table;
+	private final String rootElement;
+	private final String rowElement;
+	private final String fileName;
+	private final String[] columns;
+	private final String[] elements;
+	private final int keyCount;
+	private final Map<String, Integer> elementIndex;
+	private final String selectSql;
+	private final String insertSql;
+	private final String updateSql;
+	private final String deleteSql;
+
+	private TableMapping(String name, String table, String rootElement, String rowElement, String fileName,
+						 List<String[]> keyColumns, List<String[]> valueColumns) {
+		this.name = name;
+		this.table = table;
+		this.rootElement = rootElement;
+		this.rowElement = rowElement;
+		this.fileName = fileName;
+		this.keyCount = keyColumns.size();
+		List<String[]> all = new ArrayList<>(keyColumns);
+		all.addAll(valueColumns);
+		this.columns = new String[all.size()];
+		this.elements = new String[all.size()];
+		Map<String, Integer> index = new HashMap<>();
+		for (int i = 0; i < all.size(); i++) {
+			columns[i] = all.get(i)[0];
+			elements[i] = all.get(i)[1];
+			if (index.put(elements[i], i) != null) {
+				throw new IllegalArgumentException("Описание " + name + ": элемент " + elements[i] + " указан дважды");
+			}
+		}
+		this.elementIndex = index;
+
+		String columnList = String.join(", ", columns);
+		String keyCondition = condition(0, keyCount);
+		this.selectSql = "SELECT " + columnList + " FROM " + table;
+		this.insertSql = "INSERT INTO " + table + " (" + columnList + ") VALUES ("
+				+ String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+		this.updateSql = valueColumns.isEmpty() ? null
+				: "UPDATE " + table + " SET " + assignments() + " WHERE " + keyCondition;
+		this.deleteSql = "DELETE FROM " + table + " WHERE " + keyCondition;
+	}
+
+	/**
+	 * Возвращает описания всех таблиц из параметра mapping.tables.
+	 *
+	 * @return описания в порядке перечисления
+	 * @throws IllegalArgumentException если параметр не задан или описание некорректно
+	 */
+	public static List<TableMapping> all() {
+		String names = PropertiesUtil.get(TABLES, "");
+		List<TableMapping> mappings = new ArrayList<>();
+		for (String name : names.split(",")) {
+			if (!name.isBlank()) {
+				mappings.add(get(name.trim()));
+			}
+		}
+		if (mappings.isEmpty()) {
+			throw new IllegalArgumentException("Не задан список таблиц " + TABLES);
+		}
+		return mappings;
+	}
+
+	/**
+	 * Возвращает описание таблицы по имени, загружая его при первом обращении.
+	 *
+	 * @param name  имя описания
+	 * @return описание таблицы
+	 * @throws IllegalArgumentException если описание некорректно
+	 */
+	public static TableMapping get(String name) {
+		return CACHE.computeIfAbsent(name, TableMapping::load);
+	}
+
+	private static TableMapping load(String name) {
+		String prefix = PREFIX + name + ".";
+		String table = identifier(name, PropertiesUtil.get(prefix + "table", name));
+		String root = element(name, PropertiesUtil.get(prefix + "root", table));
+		String row = element(name, PropertiesUtil.get(prefix + "row", "row"));
+		String file = PropertiesUtil.get(prefix + "file", name + ".xml");
+		List<String[]> keyColumns = columns(name, PropertiesUtil.get(prefix + "key", ""));
+		List<String[]> valueColumns = columns(name, PropertiesUtil.get(prefix + "columns", ""));
+		if (keyColumns.isEmpty()) {
+			throw new IllegalArgumentException("Описание " + name + ": не заданы ключевые столбцы " + prefix + "key");
+		}
+		return new TableMapping(name, table, root, row, file, keyColumns, valueColumns);
+	}
+
+	private static List<String[]> columns(String name, String value) {
+		List<String[]> result = new ArrayList<>();
+		for (String entry : value.split(",")) {
+			if (entry.isBlank()) {
+				continue;
+			}
+			String[] parts = entry.trim().split(":", 2);
+			String column = identifier(name, parts[0].trim());
+			String element = element(name, parts.length > 1 ? parts[1].trim() : column);
+			result.add(new String[]{column, element});
+		}
+		return result;
+	}
+
+	/**
+	 * Имена таблиц и столбцов подставляются в текст SQL, поэтому допускаются только простые идентификаторы.
+	 */
+	private static String identifier(String name, String value) {
+		if (!IDENTIFIER.matcher(value).matches()) {
+			throw new IllegalArgumentException("Описание " + name + ": некорректный идентификатор SQL: " + value);
+		}
+		return value;
+	}
+
+	private static String element(String name, String value) {
+		if (!ELEMENT.matcher(value).matches()) {
+			throw new IllegalArgumentException("Описание " + name + ": некорректное имя элемента XML: " + value);
+		}
+		return value;
+	}
+
+	private String condition(int from, int to) {
+		StringBuilder sql = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			sql.append(i == from ? "" : " AND ").append(columns[i]).append(" = ?");
+		}
+		return sql.toString();
+	}
+
+	private String assignments() {
+		StringBuilder sql = new StringBuilder();
+		for (int i = keyCount; i < columns.length; i++) {
+			sql.append(i == keyCount ? "" : ", ").append(columns[i]).append(" = ?");
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * Возвращает имя описания.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Возвращает имя таблицы.
+	 */
+	public String getTable() {
+		return table;
+	}
+
+	/**
+	 * Возвращает имя корневого элемента документа.
+	 */
+	public String getRootElement() {
+		return rootElement;
+	}
+
+	/**
+	 * Возвращает имя элемента строки.
+	 */
+	public String getRowElement() {
+		return rowElement;
+	}
+
+	/**
+	 * Возвращает имя XML-файла в каталоге команды.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Возвращает количество столбцов: ключевых и остальных.
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * Возвращает количество ключевых столбцов; они занимают начало массива строки.
+	 */
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * Возвращает имя столбца по позиции в массиве строки.
+	 */
+	public String getColumn(int index) {
+		return columns[index];
+	}
+
+	/**
+	 * Возвращает имя элемента XML по позиции в массиве строки.
+	 */
+	public String getElement(int index) {
+		return elements[index];
+	}
+
+	/**
+	 * Возвращает позицию столбца в массиве строки по имени элемента XML.
+	 *
+	 * @param element  имя элемента
+	 * @return позиция столбца или -1, если элемент не относится к строке
+	 */
+	public int indexOfElement(String element) {
+		Integer index = elementIndex.get(element);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * SELECT всех столбцов в порядке массива строки.
+	 */
+	public String getSelectSql() {
+		return selectSql;
+	}
+
+	/**
+	 * INSERT всех столбцов; параметры в порядке массива строки.
+	 */
+	public String getInsertSql() {
+		return insertSql;
+	}
+
+	/**
+	 * UPDATE неключевых столбцов по ключу: сначала неключевые значения, затем ключ;
+	 * null, если кроме ключа столбцов нет.
+	 */
+	public String getUpdateSql() {
+		return updateSql;
+	}
+
+	/**
+	 * DELETE по ключу; параметры - ключевые столбцы.
+	 */
+	public String getDeleteSql() {
+		return deleteSql;
+	}
+}
@@ -0,0 +1,269 @@
+package my.project.xmlconverter.services;
+
+import my.project.xmlconverter.dao.DepartmentBatchWriter;
+import my.project.xmlconverter.dao.DepartmentDAO;
+import my.project.xmlconverter.entities.DepartmentKey;
+import my.project.xmlconverter.utils.ConnectionManager;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.xml.DepartmentReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Синхронизация слиянием с фиксацией частями (sync.commit.every) и точкой восстановления.
+ * Записи файла в порядке ключа сливаются с курсором таблицы, как в режиме merge; после каждых
+ * commitEvery изменений транзакция фиксируется, и в файл точки восстановления записываются
+ * последний обработанный ключ (позиция в упорядоченном файле) и количество обработанных записей.
+ * Таблица читается одним курсором на отдельном соединении только для чтения, который не закрывается
+ * при фиксации частей: строки до текущего ключа им больше не читаются, а строки после него изменения
+ * синхронизации не затрагивают, поэтому снимок курсора остаётся верным. С ключа после точки
+ * восстановления курсор открывается только при продолжении прерванной синхронизации.
+ * При повторном запуске с тем же файлом записи до точки восстановления пропускаются. Повтор части,
+ * зафиксированной, но не отмеченной в точке восстановления, безопасен: такие изменения уже совпадают
+ * с файлом и не будут найдены снова. Последняя часть фиксируется вызывающим кодом, после чего
+ * точка восстановления удаляется (complete).
+ * Дубликаты ключей проверяются по всему файлу до первой фиксации, поэтому файл с дубликатами,
+ * как и в остальных режимах, отвергается без изменений в таблице.
+ */
+class CheckpointSync {
+
+	private static final Logger log = LoggerFactory.getLogger(CheckpointSync.class);
+
+	private final DepartmentDAO dao;
+	private final Path checkpointFile;
+	private final int commitEvery;
+
+	private String lastCode;
+	private String lastJob;
+	private long records;
+	private long changes;
+
+	/**
+	 * @param dao             DAO отделов
+	 * @param checkpointFile  путь к файлу точки восстановления
+	 * @param commitEvery     количество изменений в одной транзакции
+	 */
+	CheckpointSync(DepartmentDAO dao, Path checkpointFile, int commitEvery) {
+		this.dao = dao;
+		this.checkpointFile = checkpointFile;
+		this.commitEvery = commitEvery;
+	}
+
+	/**
+	 * Выполняет синхронизацию, фиксируя транзакцию переданного соединения после каждой части.
+	 * Последнюю часть не фиксирует.
+	 *
+	 * @param filename    путь к файлу
+	 * @param connection  соединение с базой данных (автокоммит выключен)
+	 * @throws RuntimeException если произошла ошибка синхронизации; зафиксированные части остаются в БД
+	 */
+	void run(String filename, Connection connection) {
+		Properties input = describe(filename);
+		restore(input);
+		SyncService.readSorted(filename, true, xml -> {
+			boolean hasXml = xml.next();
+			long skipped = 0;
+			while (hasXml && lastCode != null
+					&& DepartmentKey.compare(xml.getDepCode(), xml.getDepJob(), lastCode, lastJob) <= 0) {
+				hasXml = xml.next();
+				skipped++;
+			}
+			if (skipped > 0 && skipped != records) {
+				log.warn("Пропущено записей до точки восстановления: {}, ожидалось {}", skipped, records);
+			}
+			try (Connection readConnection = openReadConnection();
+				 DepartmentReader db = dao.openOrderedCursor(readConnection, lastCode, lastJob)) {
+				ChunkResult chunk = new ChunkResult(true, hasXml, db.next());
+				while (true) {
+					chunk = mergeChunk(xml, chunk.hasXml(), db, chunk.hasDb(), connection);
+					if (!chunk.limitReached()) {
+						return;
+					}
+					try (var timer = Metrics.timer("db.commit")) {
+						connection.commit();
+					} catch (SQLException e) {
+						throw new RuntimeException("Не удалось зафиксировать часть изменений", e);
+					}
+					save(input);
+					log.info("Зафиксировано изменений: {}, обработано записей файла: {}, последний ключ {} {}",
+							changes, records, lastCode, lastJob);
+				}
+			} catch (SQLException e) {
+				throw new RuntimeException("Ошибка соединения для чтения таблицы", e);
+			}
+		});
+	}
+
+	/**
+	 * Удаляет точку восстановления. Вызывается после фиксации последней части.
+	 */
+	void complete() {
+		try {
+			Files.deleteIfExists(checkpointFile);
+		} catch (IOException e) {
+			log.warn("Не удалось удалить точку восстановления {}: {}", checkpointFile, e.getMessage());
+		}
+	}
+
+	/**
+	 * Открывает соединение для курсора таблицы: автокоммит выключен (курсор читает порциями),
+	 * транзакция только для чтения и не фиксируется вместе с частями изменений.
+	 */
+	private static Connection openReadConnection() throws SQLException {
+		Connection connection = ConnectionManager.openConnection();
+		try {
+			connection.setAutoCommit(false);
+			connection.setReadOnly(true);
+			return connection;
+		} catch (SQLException e) {
+			connection.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Сливает записи файла с курсором таблицы, пока не наберётся commitEvery изменений
+	 * или не закончатся обе стороны. Ключ считается обработанным целиком,
+	 * поэтому часть всегда заканчивается на границе ключа.
+	 */
+	private ChunkResult mergeChunk(DepartmentReader xml, boolean hasXml, DepartmentReader db, boolean hasDb,
+								   Connection connection) {
+		int chunkChanges = 0;
+		try (var timer = Metrics.timer("merge");
+			 DepartmentBatchWriter writer = dao.openBatchWriter(connection)) {
+			while (hasXml || hasDb) {
+				if (chunkChanges >= commitEvery) {
+					return new ChunkResult(true, hasXml, hasDb);
+				}
+				int compare;
+				if (!hasXml) {
+					compare = 1;
+				} else if (!hasDb) {
+					compare = -1;
+				} else {
+					compare = DepartmentKey.compare(xml.getDepCode(), xml.getDepJob(), db.getDepCode(), db.getDepJob());
+				}
+				if (compare < 0) {
+					writer.insert(xml.getDepCode(), xml.getDepJob(), xml.getDescription());
+					chunkChanges++;
+					advance(xml.getDepCode(), xml.getDepJob(), 1);
+					hasXml = xml.next();
+				} else if (compare > 0) {
+					writer.delete(db.getDepCode(), db.getDepJob());
+					chunkChanges++;
+					advance(db.getDepCode(), db.getDepJob(), 0);
+					hasDb = db.next();
+				} else {
+					if (!Objects.equals(db.getDescription(), xml.getDescription())) {
+						writer.update(xml.getDepCode(), xml.getDepJob(), xml.getDescription());
+						chunkChanges++;
+					}
+					advance(xml.getDepCode(), xml.getDepJob(), 1);
+					hasXml = xml.next();
+					hasDb = db.next();
+				}
+			}
+			return new ChunkResult(false, false, false);
+		} finally {
+			changes += chunkChanges;
+		}
+	}
+
+	private void advance(String depCode, String depJob, int fileRecords) {
+		lastCode = depCode;
+		lastJob = depJob;
+		records += fileRecords;
+	}
+
+	/**
+	 * Загружает точку восстановления, если она относится к тому же файлу.
+	 */
+	private void restore(Properties input) {
+		if (!Files.isRegularFile(checkpointFile)) {
+			return;
+		}
+		Properties checkpoint = new Properties();
+		try (Reader reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+			checkpoint.load(reader);
+		} catch (IOException e) {
+			log.warn("Не удалось прочитать точку восстановления {}: {}", checkpointFile, e.getMessage());
+			return;
+		}
+		for (String name : input.stringPropertyNames()) {
+			if (!input.getProperty(name).equals(checkpoint.getProperty(name))) {
+				log.warn("Точка восстановления {} относится к другому файлу или файл изменился, "
+						+ "синхронизация начинается сначала", checkpointFile);
+				return;
+			}
+		}
+		String depCode = checkpoint.getProperty("depCode");
+		String depJob = checkpoint.getProperty("depJob");
+		if (depCode == null || depJob == null) {
+			return;
+		}
+		lastCode = depCode;
+		lastJob = depJob;
+		records = Long.parseLong(checkpoint.getProperty("records", "0"));
+		changes = Long.parseLong(checkpoint.getProperty("changes", "0"));
+		log.info("Продолжение синхронизации после ключа {} {}: ранее обработано записей {}, изменений {}",
+				lastCode, lastJob, records, changes);
+	}
+
+	/**
+	 * Атомарно заменяет файл точки восстановления.
+	 */
+	private void save(Properties input) {
+		Properties checkpoint = new Properties();
+		checkpoint.putAll(input);
+		checkpoint.setProperty("depCode", lastCode);
+		checkpoint.setProperty("depJob", lastJob);
+		checkpoint.setProperty("records", Long.toString(records));
+		checkpoint.setProperty("changes", Long.toString(changes));
+		try {
+			Path parent = checkpointFile.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			Path temp = Files.createTempFile(parent, checkpointFile.getFileName().toString(), ".tmp");
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				checkpoint.store(writer, "Точка восстановления синхронизации");
+			}
+			Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось сохранить точку восстановления " + checkpointFile, e);
+		}
+	}
+
+	/**
+	 * Описывает файл синхронизации: путь, размер и время изменения. Точка восстановления
+	 * используется, только если описание совпадает.
+	 */
+	private static Properties describe(String filename) {
+		Path file = Path.of(filename).toAbsolutePath();
+		Properties input = new Properties();
+		try {
+			input.setProperty("file", file.toString());
+			input.setProperty("size", Long.toString(Files.size(file)));
+			input.setProperty("modified", Long.toString(Files.getLastModifiedTime(file).toMillis()));
+		} catch (IOException e) {
+			throw new RuntimeException("Файл не существует: " + filename, e);
+		}
+		return input;
+	}
+
+	/**
+	 * Итог части: достигнут ли предел изменений и остались ли записи файла и таблицы.
+	 */
+	private record ChunkResult(boolean limitReached, boolean hasXml, boolean hasDb) {
+	}
+}
@@ -1,7 +1,15 @@
 package my.project.xmlconverter.services;
 
-import my.project.xmlconverter.entities.Department;
-import my.project.xmlconverter.entities.DepartmentKey;
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.utils.CompressionCodec;
+import my.project.xmlconverter.utils.DepartmentSnapshot;
+import my.project.xmlconverter.utils.DepartmentSnapshotReader;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.utils.PropertiesUtil;
+import my.project.xmlconverter.xml.DepartmentReader;
+import my.project.xmlconverter.xml.DepartmentSchema;
+import my.project.xmlconverter.xml.MappedDepartmentReader;
+import my.project.xmlconverter.xml.StaxDepartmentReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -9,56 +17,86 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.InputStream;
 
 /**
- * Сервис для преобразования между XML и объектами Department.
+ * Сервис для преобразования между XML и множеством отделов DepartmentStore.
  * Обеспечивает двустороннюю конвертацию:
- * - из Map<DepartmentKey, Department> в XML-документ;
- * - из XML-файла в Map<DepartmentKey, Department>.
+ * - из DepartmentStore в XML-документ;
+ * - из XML-файла в DepartmentStore.
+ * Чтение XML выполняется потоковым парсером (StAX), токенизатором по отображённому в память файлу
+ * (последовательно или параллельно по диапазонам файла) или через DOM, в зависимости от параметра sync.parser.
+ * Сжатые файлы (gzip, zstd) распаковываются на лету и всегда читаются через StAX или DOM:
+ * отображение в память для них невозможно.
+ * Двоичный снимок (DepartmentSnapshot) распознаётся по признаку формата и читается
+ * DepartmentSnapshotReader независимо от sync.parser, поэтому любой режим синхронизации принимает оба формата.
+ * При xml.validate документ проверяется по схеме DepartmentSchema в том же проходе, что и разбор:
+ * StAX передаёт события в ValidatorHandler, DOM проверяется построителем со схемой. Токенизаторы
+ * mmap и parallel схему не проверяют, поэтому при включённой проверке вместо них используется StAX.
  */
 public class ConvertService {
 
 	private static final Logger log = LoggerFactory.getLogger(ConvertService.class);
+	private static final String PARSER = "sync.parser";
+	private static final String DOM_PARSER = "dom";
+	private static final String MAPPED_PARSER = "mmap";
+	private static final String PARALLEL_PARSER = "parallel";
+	private static final String PARSE_THREADS = "sync.parse.threads";
+	private static final String MMAP_CHUNK_SIZE = "sync.mmap.chunk.mb";
+
+	/**
+	 * Фабрика создаётся один раз на процесс: поиск реализации JAXP при каждом newInstance
+	 * заметен при повторных синхронизациях в режиме serve. Используется встроенная реализация JDK
+	 * (newDefaultInstance), поэтому системные свойства, jaxp.properties и ServiceLoader не опрашиваются.
+	 * Фабрика не потокобезопасна, поэтому построители создаются под её монитором.
+	 */
+	private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newDefaultInstance();
+
+	/**
+	 * Фабрика построителей, проверяющих документ по схеме при разборе. Создаётся при первом
+	 * использовании, чтобы схема не компилировалась без необходимости.
+	 */
+	private static final class ValidatingFactory {
+		private static final DocumentBuilderFactory FACTORY = createValidatingFactory();
+	}
 
 	/**
 	 * Преобразует множество отделов в XML-документ.
 	 *
-	 * @param departments  множество отделов (ключ - DepartmentKey, значение - Department)
+	 * @param departments  множество отделов
 	 * @return XML-документ, содержащий данные об отделах
 	 * @throws RuntimeException если не удалось создать XML-документ
 	 */
-	public static Document convertDepartmentToXml(Map<DepartmentKey, Department> departments) {
+	public static Document convertDepartmentToXml(DepartmentStore departments) {
 		log.info("Конвертация сущности отдела в XML дерево");
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
 		DocumentBuilder docBuilder;
 		Document doc;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
+			docBuilder = newDocumentBuilder();
 			doc = docBuilder.newDocument();
 
 			Element rootElement = doc.createElement("departments");
 
-			for (var department : departments.entrySet()) {
+			for (int id = departments.next(0); id >= 0; id = departments.next(id + 1)) {
 				Element departmentElement = doc.createElement("department");
 
 				Element depCodeElement = doc.createElement("depCode");
-				depCodeElement.appendChild(doc.createTextNode(department.getKey().getDepCode()));
+				depCodeElement.appendChild(doc.createTextNode(departments.getDepCode(id)));
 				departmentElement.appendChild(depCodeElement);
 
 				Element depJobElement = doc.createElement("depJob");
-				depJobElement.appendChild(doc.createTextNode(department.getKey().getDepJob()));
+				depJobElement.appendChild(doc.createTextNode(departments.getDepJob(id)));
 				departmentElement.appendChild(depJobElement);
 
 				Element descriptionElement = doc.createElement("description");
-				descriptionElement.appendChild(doc.createTextNode(department.getValue().getDescription()));
+				descriptionElement.appendChild(doc.createTextNode(departments.getDescription(id)));
 				departmentElement.appendChild(descriptionElement);
 
 				rootElement.appendChild(departmentElement);
@@ -75,25 +113,128 @@ public class ConvertService {
 
 	/**
 	 * Преобразует XML-файл в множество отделов.
+	 * Способ разбора определяется параметром sync.parser: stax (по умолчанию), mmap, parallel или dom.
+	 * Двоичный снимок читается последовательно без разбора XML.
 	 *
 	 * @param filename  путь к XML-файлу
-	 * @return множество отделов (ключ - DepartmentKey, значение - Department)
+	 * @return множество отделов
 	 * @throws RuntimeException если файл не существует или содержит дубликаты отделов
 	 */
-	public static Map<DepartmentKey, Department> convertXmlToDepartments(String filename) {
-		log.info("Создание объектов из XML дерева");
-		Map<DepartmentKey, Department> departments = new HashMap<>();
-		try {
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+	public static DepartmentStore convertXmlToDepartments(String filename) {
+		File inputFile = new File(filename);
+		if (!inputFile.exists()) {
+			log.error("Файл {} не существует", filename);
+			throw new RuntimeException("Файл не существует: " + filename);
+		}
+		try (var timer = Metrics.timer("xml.parse")) {
+			if (DepartmentSnapshot.isSnapshot(filename)) {
+				return convertXmlToDepartmentsStreaming(filename);
+			}
+			String parser = PropertiesUtil.get(PARSER, "stax");
+			if (DOM_PARSER.equalsIgnoreCase(parser)) {
+				DepartmentStore departments = convertXmlToDepartmentsDom(inputFile);
+				Metrics.count("rows.xml.parsed", departments.size());
+				return departments;
+			}
+			if (PARALLEL_PARSER.equalsIgnoreCase(parser) && CompressionCodec.detect(filename) == CompressionCodec.NONE
+					&& !DepartmentSchema.isEnabled()) {
+				int threads = PropertiesUtil.getInt(PARSE_THREADS, 0);
+				if (threads <= 0) {
+					threads = Runtime.getRuntime().availableProcessors();
+				}
+				return new ParallelXmlParser(filename, threads, mmapChunkSize()).parse();
+			}
+			return convertXmlToDepartmentsStreaming(filename);
+		}
+	}
 
-			File inputFile = new File(filename);
-			if (!inputFile.exists()) {
-				log.error("Файл {} не существует", filename);
-				throw new RuntimeException("Файл не существует: " + filename);
+	/**
+	 * Открывает потоковое чтение отделов из XML-файла.
+	 * При sync.parser=mmap и parallel файл отображается в память окнами по sync.mmap.chunk.mb мегабайт
+	 * и разбирается специализированным токенизатором, иначе, а также для сжатого файла и при проверке
+	 * по схеме (xml.validate), используется StAX.
+	 * Для двоичного снимка возвращается DepartmentSnapshotReader, выдающий записи в порядке ключа.
+	 *
+	 * @param filename  путь к XML-файлу
+	 * @return читатель отделов
+	 * @throws RuntimeException если файл не существует
+	 */
+	public static DepartmentReader openXmlReader(String filename) {
+		if (DepartmentSnapshot.isSnapshot(filename)) {
+			return DepartmentSnapshotReader.open(filename);
+		}
+		String parser = PropertiesUtil.get(PARSER, "stax");
+		if ((MAPPED_PARSER.equalsIgnoreCase(parser) || PARALLEL_PARSER.equalsIgnoreCase(parser))
+				&& CompressionCodec.detect(filename) == CompressionCodec.NONE) {
+			if (!DepartmentSchema.isEnabled()) {
+				return new MappedDepartmentReader(filename, mmapChunkSize());
 			}
+			log.info("При xml.validate=true файл проверяется по схеме при разборе StAX вместо sync.parser={}", parser);
+		}
+		return StaxDepartmentReader.open(filename);
+	}
 
-			Document doc = dBuilder.parse(inputFile);
+	private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+		synchronized (DOCUMENT_BUILDER_FACTORY) {
+			return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+		}
+	}
+
+	private static DocumentBuilder newValidatingDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilder builder;
+		synchronized (ValidatingFactory.FACTORY) {
+			builder = ValidatingFactory.FACTORY.newDocumentBuilder();
+		}
+		builder.setErrorHandler(DepartmentSchema.ERROR_HANDLER);
+		return builder;
+	}
+
+	private static DocumentBuilderFactory createValidatingFactory() {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newDefaultInstance();
+		factory.setNamespaceAware(true);
+		factory.setSchema(DepartmentSchema.get());
+		return factory;
+	}
+
+	private static int mmapChunkSize() {
+		return PropertiesUtil.getInt(MMAP_CHUNK_SIZE, 64) * 1024 * 1024;
+	}
+
+	/**
+	 * Преобразует XML-файл в множество отделов потоковым чтением за один проход.
+	 *
+	 * @param filename  путь к XML-файлу
+	 * @return множество отделов
+	 * @throws RuntimeException если файл не удалось разобрать или он содержит дубликаты отделов
+	 */
+	public static DepartmentStore convertXmlToDepartmentsStreaming(String filename) {
+		log.info("Потоковое создание объектов из XML");
+		DepartmentStore departments = new DepartmentStore();
+		try (DepartmentReader reader = openXmlReader(filename)) {
+			while (reader.next()) {
+				putUnique(departments, reader.getDepCode(), reader.getDepJob(), reader.getDescription());
+			}
+		}
+		log.info("Объекты успешно созданы!");
+		return departments;
+	}
+
+	/**
+	 * Преобразует XML-файл в множество отделов через построение DOM-дерева.
+	 * При xml.validate документ проверяется по схеме построителем во время разбора.
+	 *
+	 * @param inputFile  XML-файл
+	 * @return множество отделов
+	 * @throws RuntimeException если файл не удалось разобрать, он не соответствует схеме,
+	 *                          в отделе нет обязательного поля или есть дубликаты отделов
+	 */
+	private static DepartmentStore convertXmlToDepartmentsDom(File inputFile) {
+		log.info("Создание объектов из XML дерева");
+		DepartmentStore departments = new DepartmentStore();
+		try (InputStream in = CompressionCodec.openInput(inputFile.getPath())) {
+			DocumentBuilder dBuilder = DepartmentSchema.isEnabled() ? newValidatingDocumentBuilder() : newDocumentBuilder();
+
+			Document doc = dBuilder.parse(in, inputFile.toURI().toString());
 			doc.getDocumentElement().normalize();
 
 			NodeList nList = doc.getElementsByTagName("department");
@@ -103,23 +244,46 @@ public class ConvertService {
 
 				if (nNode.getNodeType() == Node.ELEMENT_NODE) {
 					Element eElement = (Element) nNode;
-					String depCode = eElement.getElementsByTagName("depCode").item(0).getTextContent();
-					String depJob = eElement.getElementsByTagName("depJob").item(0).getTextContent();
-					String description = eElement.getElementsByTagName("description").item(0).getTextContent();
-					DepartmentKey key = new DepartmentKey(depCode, depJob);
-					Department department = new Department(description);
-					if (!departments.containsKey(key)) {
-						departments.put(key, department);
-					} else {
-						log.error("Обнаружен дубликат департамента: {} {}", depCode, depJob);
-						throw new RuntimeException("Обнаружен дубликат департамента: " + depCode + " " + depJob);
-					}
+					String depCode = field(eElement, "depCode");
+					String depJob = field(eElement, "depJob");
+					String description = field(eElement, "description");
+					putUnique(departments, depCode, depJob, description);
 				}
 			}
 			log.info("Объекты успешно созданы!");
+		} catch (SAXParseException e) {
+			log.error("Ошибка разбора XML в строке {}: {}", e.getLineNumber(), e.getMessage());
+			throw new RuntimeException("Ошибка разбора XML в строке " + e.getLineNumber() + ": " + e.getMessage(), e);
 		} catch (IOException | ParserConfigurationException | SAXException e) {
 			log.error("Ошибка чтения из файла!");
+			throw new RuntimeException("Не удалось прочитать XML-файл " + inputFile, e);
 		}
 		return departments;
 	}
+
+	/**
+	 * Возвращает текст первого элемента поля среди потомков department.
+	 *
+	 * @throws RuntimeException если поля нет
+	 */
+	private static String field(Element department, String name) {
+		Node node = department.getElementsByTagName(name).item(0);
+		if (node == null) {
+			throw new RuntimeException("Элемент department не содержит обязательных полей depCode, depJob и description: "
+					+ "нет поля " + name);
+		}
+		return node.getTextContent();
+	}
+
+	/**
+	 * Добавляет отдел в множество, проверяя отсутствие дубликата по ключу.
+	 *
+	 * @throws RuntimeException если отдел с таким ключом уже есть
+	 */
+	private static void putUnique(DepartmentStore departments, String depCode, String depJob, String description) {
+		if (!departments.add(depCode, depJob, description)) {
+			log.error("Обнаружен дубликат департамента: {} {}", depCode, depJob);
+			throw new RuntimeException("Обнаружен дубликат департамента: " + depCode + " " + depJob);
+		}
+	}
 }
\ No newline at end of file
@@ -1,22 +1,65 @@
 package my.project.xmlconverter.services;
 
 import my.project.xmlconverter.dao.DepartmentDAO;
+import my.project.xmlconverter.utils.CompressionCodec;
+import my.project.xmlconverter.utils.ConnectionManager;
+import my.project.xmlconverter.utils.DepartmentSnapshot;
+import my.project.xmlconverter.utils.DepartmentSnapshotWriter;
+import my.project.xmlconverter.utils.MemoryBudget;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.utils.PropertiesUtil;
+import my.project.xmlconverter.xml.DepartmentChangeXmlWriter;
+import my.project.xmlconverter.xml.DepartmentReader;
+import my.project.xmlconverter.xml.DepartmentXmlWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
 
 /**
  * Сервис для экспорта данных из базы данных в XML-файл.
+ * Способ экспорта задаётся параметром export.mode:
+ * - stream - потоковая запись (XMLStreamWriter) строк из курсора БД (по умолчанию);
+ * - copy - потоковая запись строк, прочитанных командой COPY ... TO STDOUT;
+ * - parallel - параллельное чтение диапазонов ключа на нескольких соединениях с общим снимком данных,
+ *   документ упорядочен по ключу;
+ * - dom - построение DOM-дерева всей таблицы.
+ * Файл с расширением .gz или .zst сжимается соответствующим форматом на отдельном потоке.
+ * Если задан бюджет памяти (memory.budget.mb) и DOM-дерево таблицы по оценке в него не помещается,
+ * режим dom заменяется потоковым.
+ * Файл с расширением .dsnap записывается двоичным снимком (DepartmentSnapshot) независимо от export.mode.
+ * Экспорт изменений (exportChanges) записывает только отделы, изменённые после метки предыдущего
+ * экспорта изменений, по журналу изменённых ключей, который ведёт триггер (changelog.sql).
  */
 public class ExportService {
 
 	private final static DepartmentDAO dao = DepartmentDAO.getInstance();
 	private static final Logger log = LoggerFactory.getLogger(ExportService.class);
 
+	private static final String MODE = "export.mode";
+	private static final String INDENT = "export.indent";
+	private static final String COMPRESSION_LEVEL = "export.compression.level";
+	private static final String PARALLEL_THREADS = "export.parallel.threads";
+
+	/**
+	 * Оценка памяти режима dom на байт таблицы: множество отделов и DOM-дерево с узлами на каждое поле.
+	 */
+	private static final int DOM_FACTOR = 12;
+
+	/**
+	 * Фабрика создаётся один раз на процесс и используется повторно в режиме serve;
+	 * встроенная реализация JDK выбирается без поиска через ServiceLoader.
+	 * Трансформеры создаются под её монитором, так как фабрика не потокобезопасна.
+	 */
+	private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newDefaultInstance();
+
 	/**
 	 * Экспортирует все отделы из базы данных в XML-файл.
 	 *
@@ -25,19 +68,184 @@ public class ExportService {
 	 */
 	public void export(String fileName) {
 		log.info("Начало экспорта данных в файл {}", fileName);
+		String mode = PropertiesUtil.get(MODE, "stream");
+		if ("dom".equals(mode) && !domFitsMemoryBudget()) {
+			mode = "stream";
+		}
+		if (DepartmentSnapshot.isSnapshotName(fileName)) {
+			mode = "snapshot";
+		}
+		try (var timer = Metrics.timer("export")) {
+			switch (mode) {
+				case "snapshot" -> exportSnapshot(fileName);
+				case "stream" -> exportStreaming(fileName, false);
+				case "copy" -> exportStreaming(fileName, true);
+				case "parallel" -> exportParallel(fileName);
+				case "dom" -> exportDom(fileName);
+				default -> throw new IllegalArgumentException("Неизвестный режим экспорта: " + mode);
+			}
+		}
+		log.info("Экспорт успешно завершен, файл сохранен: {}", fileName);
+		System.out.println("XML файл сохранен в " + fileName);
+	}
+
+	/**
+	 * Экспортирует отделы, добавленные, изменённые и удалённые после метки, в документ изменений
+	 * и выводит новую метку для следующего запуска.
+	 *
+	 * @param fileName  путь к файлу для сохранения
+	 * @param since     метка предыдущего экспорта изменений, 0 - все изменения из журнала
+	 * @return новая метка
+	 * @throws RuntimeException если метка некорректна, журнал изменений не создан
+	 *                          или не удалось записать файл
+	 */
+	public long exportChanges(String fileName, String since) {
+		long sinceToken;
+		try {
+			sinceToken = Long.parseLong(since);
+		} catch (NumberFormatException e) {
+			sinceToken = -1;
+		}
+		if (sinceToken < 0) {
+			throw new IllegalArgumentException("Некорректная метка изменений: " + since);
+		}
+		log.info("Начало экспорта изменений после метки {} в файл {}", sinceToken, fileName);
+		long until;
+		try (var timer = Metrics.timer("export");
+			 Connection connection = ConnectionManager.openConnection()) {
+			until = dao.beginChangeExport(connection);
+			try (DepartmentChangeXmlWriter writer = new DepartmentChangeXmlWriter(openOutput(fileName),
+					PropertiesUtil.getBoolean(INDENT, true), Long.toString(sinceToken), Long.toString(until))) {
+				dao.forEachChangeSince(connection, sinceToken, writer);
+				Metrics.count("rows.exported", writer.getUpserts() + writer.getDeletes());
+			}
+			connection.commit();
+		} catch (IOException e) {
+			log.error("Ошибка записи в файл: {}", e.getMessage());
+			throw new RuntimeException("Не удалось экспортировать изменения в XML", e);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		log.info("Экспорт изменений завершен, файл сохранен: {}, новая метка {}", fileName, until);
+		System.out.println("XML файл изменений сохранен в " + fileName);
+		System.out.println("Новая метка изменений: " + until);
+		return until;
+	}
+
+	/**
+	 * Потоковый экспорт: каждая прочитанная строка сразу записывается в файл.
+	 *
+	 * @param copy  читать таблицу командой COPY вместо курсора
+	 */
+	private void exportStreaming(String fileName, boolean copy) {
+		boolean indent = PropertiesUtil.getBoolean(INDENT, true);
+		try (DepartmentXmlWriter writer = new DepartmentXmlWriter(openOutput(fileName), indent)) {
+			if (copy) {
+				dao.copyAll(writer);
+			} else {
+				dao.forEach(writer);
+			}
+			log.info("Записано отделов: {}", writer.getCount());
+			Metrics.count("rows.exported", writer.getCount());
+		} catch (IOException e) {
+			log.error("Ошибка записи в файл: {}", e.getMessage());
+			throw new RuntimeException("Не удалось экспортировать данные в XML", e);
+		}
+	}
+
+	/**
+	 * Экспорт в двоичный снимок: таблица читается курсором в порядке ключа и записывается блоками.
+	 */
+	private void exportSnapshot(String fileName) {
+		try (Connection connection = ConnectionManager.openConnection();
+			 DepartmentSnapshotWriter writer = new DepartmentSnapshotWriter(fileName)) {
+			connection.setAutoCommit(false);
+			try (DepartmentReader reader = dao.openOrderedCursor(connection)) {
+				while (reader.next()) {
+					writer.accept(reader.getDepCode(), reader.getDepJob(), reader.getDescription());
+				}
+			}
+			connection.commit();
+			log.info("Записано отделов: {}", writer.getCount());
+			Metrics.count("rows.exported", writer.getCount());
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Параллельный экспорт: диапазоны ключа читаются на export.parallel.threads соединениях
+	 * и дописываются в документ в порядке ключа.
+	 */
+	private void exportParallel(String fileName) {
+		boolean indent = PropertiesUtil.getBoolean(INDENT, true);
+		ParallelExport export = new ParallelExport(dao, PropertiesUtil.getInt(PARALLEL_THREADS, 3), indent);
+		try (DepartmentXmlWriter writer = new DepartmentXmlWriter(openOutput(fileName), indent)) {
+			export.run(writer);
+			log.info("Записано отделов: {}", writer.getCount());
+			Metrics.count("rows.exported", writer.getCount());
+		} catch (IOException e) {
+			log.error("Ошибка записи в файл: {}", e.getMessage());
+			throw new RuntimeException("Не удалось экспортировать данные в XML", e);
+		}
+	}
+
+	/**
+	 * Экспорт через построение DOM-дерева всей таблицы.
+	 */
+	private void exportDom(String fileName) {
 		try {
-			TransformerFactory transformerFactory = TransformerFactory.newInstance();
-			Transformer transformer = transformerFactory.newTransformer();
-			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-			var doc = ConvertService.convertDepartmentToXml(dao.getAll());
+			Transformer transformer;
+			synchronized (TRANSFORMER_FACTORY) {
+				transformer = TRANSFORMER_FACTORY.newTransformer();
+			}
+			transformer.setOutputProperty(OutputKeys.INDENT,
+					PropertiesUtil.getBoolean(INDENT, true) ? "yes" : "no");
+			var departments = dao.getAll();
+			Document doc;
+			try (var timer = Metrics.timer("xml.build")) {
+				doc = ConvertService.convertDepartmentToXml(departments);
+			}
 			DOMSource source = new DOMSource(doc);
-			StreamResult result = new StreamResult(new File(fileName));
-			transformer.transform(source, result);
-			log.info("Экспорт успешно завершен, файл сохранен: {}", fileName);
-			System.out.println("XML файл сохранен в " + fileName);
+			try (var timer = Metrics.timer("xml.write");
+				 OutputStream out = openOutput(fileName)) {
+				transformer.transform(source, new StreamResult(out));
+			}
+			Metrics.count("rows.exported", departments.size());
 		} catch (TransformerException e) {
 			log.error("Ошибка трансформации XML: {}", e.getMessage());
 			throw new RuntimeException("Не удалось экспортировать данные в XML", e);
+		} catch (IOException e) {
+			log.error("Ошибка записи в файл: {}", e.getMessage());
+			throw new RuntimeException("Не удалось экспортировать данные в XML", e);
+		}
+	}
+
+	/**
+	 * Проверяет, помещается ли DOM-дерево таблицы в бюджет памяти.
+	 */
+	private boolean domFitsMemoryBudget() {
+		if (!MemoryBudget.isLimited()) {
+			return true;
 		}
+		long required;
+		try (Connection connection = ConnectionManager.openConnection()) {
+			required = dao.tableBytes(connection) * DOM_FACTOR;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+		if (required <= MemoryBudget.bytes()) {
+			return true;
+		}
+		log.warn("Режиму dom нужно около {} МБ памяти при бюджете {} МБ, экспорт будет выполнен режимом stream",
+				required >> 20, MemoryBudget.bytes() >> 20);
+		return false;
+	}
+
+	/**
+	 * Открывает файл для записи, сжимая его по расширению имени (.gz, .zst).
+	 */
+	private OutputStream openOutput(String fileName) throws IOException {
+		return CompressionCodec.openOutput(fileName, PropertiesUtil.getInt(COMPRESSION_LEVEL, -1));
 	}
-}
\ No newline at end of file
+}
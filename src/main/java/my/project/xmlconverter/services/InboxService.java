@@ -0,0 +1,307 @@
+package my.project.xmlconverter.services;
+
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.utils.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Режим службы: синхронизация файлов, появляющихся во входящем каталоге.
+ * Каталог отслеживается через WatchService; файл, имя которого подходит под serve.pattern,
+ * синхронизируется, когда его размер и время изменения не меняются serve.settle.ms миллисекунд.
+ * Одновременно выполняется не больше serve.concurrency синхронизаций, файлы ждут своей очереди
+ * в порядке появления. После синхронизации файл переносится в подкаталог processed или failed.
+ * Процесс и его прогретые JIT-компилятором классы, фабрики JAXP и пул соединений живут между файлами;
+ * для каждого файла в журнал выводится время обработки в сравнении с первым (холодным) файлом.
+ */
+public class InboxService implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(InboxService.class);
+
+	private static final String CONCURRENCY = "serve.concurrency";
+	private static final String SETTLE_MS = "serve.settle.ms";
+	private static final String PATTERN = "serve.pattern";
+	private static final String POOL_ENABLED = "db.pool.enabled";
+	private static final String PROCESSED = "processed";
+	private static final String FAILED = "failed";
+
+	private final SyncService syncService;
+	private final Path inbox;
+	private final Path processed;
+	private final Path failed;
+	private final PathMatcher matcher;
+	private final long settleMillis;
+	private final Semaphore permits;
+	private final Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+	private final Map<Path, Stamp> pending = new HashMap<>();
+	private final Latency latency = new Latency();
+	private final CountDownLatch terminated = new CountDownLatch(1);
+	private volatile WatchService watcher;
+	private volatile boolean stopped;
+
+	/**
+	 * @param syncService  сервис синхронизации
+	 * @param inbox        входящий каталог
+	 */
+	public InboxService(SyncService syncService, Path inbox) {
+		this.syncService = syncService;
+		this.inbox = inbox.toAbsolutePath();
+		this.processed = this.inbox.resolve(PROCESSED);
+		this.failed = this.inbox.resolve(FAILED);
+		this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + PropertiesUtil.get(PATTERN, "*.{xml,gz,zst,dsnap}"));
+		this.settleMillis = Math.max(0, PropertiesUtil.getInt(SETTLE_MS, 1000));
+		this.permits = new Semaphore(Math.max(1, PropertiesUtil.getInt(CONCURRENCY, 1)), true);
+	}
+
+	/**
+	 * Отслеживает каталог до вызова close. Файлы, уже лежащие в каталоге, обрабатываются при запуске.
+	 * Перед возвратом дожидается завершения начатых синхронизаций.
+	 *
+	 * @throws RuntimeException если каталог не удалось отслеживать
+	 */
+	public void run() {
+		try {
+			String pool = PropertiesUtil.get(POOL_ENABLED);
+			if (pool == null || pool.isBlank()) {
+				// между файлами соединения берутся из пула, если пул не настроен явно
+				System.setProperty(POOL_ENABLED, "true");
+			}
+			Files.createDirectories(processed);
+			Files.createDirectories(failed);
+			watcher = FileSystems.getDefault().newWatchService();
+			inbox.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			log.info("Ожидание файлов в каталоге {}, запуск занял {} мс", inbox,
+					ManagementFactory.getRuntimeMXBean().getUptime());
+			System.out.println("Ожидание файлов в каталоге " + inbox);
+			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				scan();
+				while (!stopped) {
+					WatchKey key = watcher.poll(Math.max(100, settleMillis), TimeUnit.MILLISECONDS);
+					if (key != null) {
+						for (WatchEvent<?> event : key.pollEvents()) {
+							if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+								scan();
+							} else {
+								offer(inbox.resolve((Path) event.context()));
+							}
+						}
+						key.reset();
+					}
+					submitSettled(executor);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// close() во время ожидания событий
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось отслеживать каталог " + inbox, e);
+		} finally {
+			latency.logSummary();
+			terminated.countDown();
+		}
+	}
+
+	/**
+	 * Прекращает отслеживание каталога и дожидается завершения начатых синхронизаций.
+	 */
+	@Override
+	public void close() {
+		stopped = true;
+		try {
+			WatchService current = watcher;
+			if (current != null) {
+				current.close();
+			}
+			terminated.await();
+		} catch (IOException e) {
+			log.warn("Не удалось закрыть отслеживание каталога: {}", e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Добавляет в ожидание все подходящие файлы каталога.
+	 */
+	private void scan() throws IOException {
+		try (Stream<Path> files = Files.list(inbox)) {
+			files.sorted().forEach(this::offer);
+		}
+	}
+
+	/**
+	 * Запоминает размер и время изменения файла; отсчёт ожидания начинается заново при каждом изменении.
+	 */
+	private void offer(Path file) {
+		if (!matcher.matches(file.getFileName()) || inProgress.contains(file)) {
+			return;
+		}
+		Stamp stamp = Stamp.of(file);
+		if (stamp != null && !stamp.sameFile(pending.get(file))) {
+			pending.put(file, stamp);
+		}
+	}
+
+	/**
+	 * Отправляет на синхронизацию файлы, которые не менялись serve.settle.ms миллисекунд.
+	 */
+	private void submitSettled(ExecutorService executor) {
+		long now = System.nanoTime();
+		for (Iterator<Map.Entry<Path, Stamp>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Path, Stamp> entry = it.next();
+			Path file = entry.getKey();
+			Stamp current = Stamp.of(file);
+			if (current == null) {
+				it.remove();
+			} else if (!current.sameFile(entry.getValue())) {
+				entry.setValue(current);
+			} else if (now - entry.getValue().seenAt >= TimeUnit.MILLISECONDS.toNanos(settleMillis)) {
+				it.remove();
+				inProgress.add(file);
+				long queuedAt = System.nanoTime();
+				executor.submit(() -> process(file, queuedAt));
+			}
+		}
+	}
+
+	/**
+	 * Синхронизирует файл, когда освободится место, формирует отчёт о запуске по показателям
+	 * только этого файла (собственный контекст Metrics.begin) и переносит файл.
+	 */
+	private void process(Path file, long queuedAt) {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			inProgress.remove(file);
+			return;
+		}
+		if (stopped) {
+			// файлы, не начатые до остановки, останутся в каталоге до следующего запуска
+			permits.release();
+			inProgress.remove(file);
+			return;
+		}
+		long start = System.nanoTime();
+		boolean success = false;
+		Metrics.Run run = Metrics.begin();
+		try {
+			syncService.sync(file.toString());
+			success = true;
+		} catch (RuntimeException e) {
+			log.error("Ошибка синхронизации файла {}: {}", file, e.getMessage());
+		} finally {
+			Metrics.report("sync", success);
+			run.close();
+			permits.release();
+			long end = System.nanoTime();
+			latency.record(file, success, end - start, start - queuedAt);
+			move(file, success ? processed : failed);
+			inProgress.remove(file);
+		}
+	}
+
+	private void move(Path file, Path directory) {
+		try {
+			Path target = directory.resolve(file.getFileName());
+			if (Files.exists(target)) {
+				target = directory.resolve(System.currentTimeMillis() + "-" + file.getFileName());
+			}
+			Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.error("Не удалось перенести файл {} в {}: {}", file, directory, e.getMessage());
+		}
+	}
+
+	/**
+	 * Размер и время изменения файла в момент наблюдения.
+	 */
+	private record Stamp(long size, long modified, long seenAt) {
+
+		static Stamp of(Path file) {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				if (!attributes.isRegularFile()) {
+					return null;
+				}
+				return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis(), System.nanoTime());
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		boolean sameFile(Stamp other) {
+			return other != null && size == other.size && modified == other.modified;
+		}
+	}
+
+	/**
+	 * Статистика времени обработки успешно синхронизированных файлов: первый файл выполняется
+	 * на холодной JVM, остальные - на прогретой; ускорение считается относительно первого файла.
+	 */
+	private static final class Latency {
+
+		private long coldNanos = -1;
+		private long warmCount;
+		private long warmNanos;
+
+		synchronized void record(Path file, boolean success, long nanos, long waitNanos) {
+			String result = success ? "успешно" : "с ошибкой";
+			if (!success) {
+				// неудачные файлы не учитываются в статистике: ошибка может прервать синхронизацию в начале
+				log.info("Файл {} обработан {} за {} мс, ожидание очереди {} мс",
+						file.getFileName(), result, nanos / 1_000_000, waitNanos / 1_000_000);
+			} else if (coldNanos < 0) {
+				coldNanos = nanos;
+				log.info("Файл {} обработан {} за {} мс (первый файл, холодная JVM), ожидание очереди {} мс",
+						file.getFileName(), result, nanos / 1_000_000, waitNanos / 1_000_000);
+			} else {
+				warmCount++;
+				warmNanos += nanos;
+				log.info("Файл {} обработан {} за {} мс, ожидание очереди {} мс; первый файл {} мс, "
+								+ "среднее на прогретой JVM {} мс, ускорение {}", file.getFileName(), result,
+						nanos / 1_000_000, waitNanos / 1_000_000, coldNanos / 1_000_000,
+						warmNanos / warmCount / 1_000_000, speedup());
+			}
+			System.out.println("Файл " + file.getFileName() + " обработан " + result + " за " + nanos / 1_000_000 + " мс");
+		}
+
+		synchronized void logSummary() {
+			if (coldNanos < 0) {
+				return;
+			}
+			log.info("Обработано файлов: {}; первый файл {} мс, среднее на прогретой JVM {} мс, ускорение {}",
+					warmCount + 1, coldNanos / 1_000_000,
+					warmCount == 0 ? "-" : warmNanos / warmCount / 1_000_000, warmCount == 0 ? "-" : speedup());
+		}
+
+		private String speedup() {
+			return String.format("%.1fx", (double) coldNanos * warmCount / warmNanos);
+		}
+	}
+}
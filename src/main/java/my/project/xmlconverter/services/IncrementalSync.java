@@ -0,0 +1,206 @@
+package my.project.xmlconverter.services;
+
+import my.project.xmlconverter.dao.DepartmentBatchWriter;
+import my.project.xmlconverter.dao.DepartmentDAO;
+import my.project.xmlconverter.utils.DepartmentHashIndex;
+import my.project.xmlconverter.utils.MemoryBudget;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.xml.DepartmentReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Инкрементальная синхронизация по индексу хешей, сохранённому после прошлого запуска.
+ * XML сравнивается с индексом, а не с таблицей: в БД отправляются только добавленные,
+ * изменённые (по хешу описания) и исчезнувшие записи. Индекс используется, только если
+ * его контрольная сумма совпадает с текущей контрольной суммой таблицы; иначе, а также при
+ * совпадении хешей разных ключей, выполняется полная синхронизация. Новый индекс
+ * сохраняется после фиксации транзакции.
+ */
+class IncrementalSync {
+
+	private static final Logger log = LoggerFactory.getLogger(IncrementalSync.class);
+
+	/**
+	 * Доля бюджета памяти для хешей добавленных ключей.
+	 */
+	private static final double ADDED_SHARE = 0.5;
+
+	/**
+	 * Примерный расход кучи на хеш добавленного ключа в HashSet: узел, объект Long и ячейка таблицы.
+	 */
+	private static final int ADDED_ENTRY_BYTES = 64;
+
+	private final DepartmentDAO dao;
+	private final Path indexFile;
+	private final BiConsumer<String, Connection> fullSync;
+	private Path pendingIndex;
+	private boolean invalidate;
+
+	/**
+	 * @param dao        DAO отделов
+	 * @param indexFile  путь к файлу индекса
+	 * @param fullSync   полная синхронизация, выполняемая, если индекс нельзя использовать
+	 */
+	IncrementalSync(DepartmentDAO dao, Path indexFile, BiConsumer<String, Connection> fullSync) {
+		this.dao = dao;
+		this.indexFile = indexFile;
+		this.fullSync = fullSync;
+	}
+
+	/**
+	 * Выполняет синхронизацию в транзакции переданного соединения и готовит новый индекс.
+	 * Транзакцию не завершает.
+	 *
+	 * @param filename    путь к XML-файлу
+	 * @param connection  соединение с базой данных
+	 * @throws RuntimeException если произошла ошибка синхронизации
+	 */
+	void run(String filename, Connection connection) {
+		DepartmentHashIndex index = DepartmentHashIndex.open(indexFile);
+		if (index == null) {
+			log.info("Индекс {} не найден, выполняется полная синхронизация", indexFile);
+		} else if (!index.getChecksum().equals(dao.checksum(connection))) {
+			log.warn("Таблица изменена в обход синхронизации, индекс {} не используется", indexFile);
+		} else {
+			try (DepartmentHashIndex.Builder builder = new DepartmentHashIndex.Builder()) {
+				if (applyChanges(filename, connection, index, builder)) {
+					prepareIndex(builder, connection);
+					return;
+				}
+			}
+		}
+		fullSync.accept(filename, connection);
+		try (DepartmentHashIndex.Builder builder = new DepartmentHashIndex.Builder();
+			 var timer = Metrics.timer("index.build");
+			 DepartmentReader reader = ConvertService.openXmlReader(filename)) {
+			while (reader.next()) {
+				builder.add(reader.getDepCode(), reader.getDepJob(), reader.getDescription());
+			}
+			prepareIndex(builder, connection);
+		}
+	}
+
+	/**
+	 * Заменяет файл индекса подготовленным. Вызывается после фиксации транзакции.
+	 */
+	void publish() {
+		try {
+			if (pendingIndex != null) {
+				Files.move(pendingIndex, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				log.info("Индекс сохранён в {}", indexFile);
+				pendingIndex = null;
+			} else if (invalidate) {
+				Files.deleteIfExists(indexFile);
+			}
+		} catch (IOException e) {
+			log.error("Не удалось сохранить индекс {}: {}", indexFile, e.getMessage());
+			discard();
+		}
+	}
+
+	/**
+	 * Удаляет подготовленный индекс. Вызывается при откате транзакции.
+	 */
+	void discard() {
+		if (pendingIndex != null) {
+			try {
+				Files.deleteIfExists(pendingIndex);
+			} catch (IOException e) {
+				log.warn("Не удалось удалить временный файл {}: {}", pendingIndex, e.getMessage());
+			}
+			pendingIndex = null;
+		}
+	}
+
+	/**
+	 * Сравнивает XML с индексом и применяет найденные изменения. Добавления и обновления отправляются
+	 * пакетами по мере обнаружения, удаления - после чтения XML. В памяти остаются только отметки
+	 * найденных записей индекса (бит на запись) и хеши добавленных ключей; если хеши не помещаются
+	 * в свою долю бюджета памяти, выполняется полная синхронизация режимом merge, которая уже
+	 * отправленные изменения учтёт как совпадающие записи.
+	 *
+	 * @return false, если хеши разных ключей совпали, добавленных записей слишком много для бюджета
+	 * или нужна полная синхронизация по другой причине
+	 */
+	private boolean applyChanges(String filename, Connection connection, DepartmentHashIndex index,
+								 DepartmentHashIndex.Builder builder) {
+		BitSet seen = new BitSet(index.size());
+		Set<Long> added = new HashSet<>();
+		long maxAdded = MemoryBudget.share(ADDED_SHARE) / ADDED_ENTRY_BYTES;
+		try (DepartmentBatchWriter writer = dao.openBatchWriter(connection)) {
+			try (var timer = Metrics.timer("diff");
+				 DepartmentReader reader = ConvertService.openXmlReader(filename)) {
+				while (reader.next()) {
+					String depCode = reader.getDepCode();
+					String depJob = reader.getDepJob();
+					String description = reader.getDescription();
+					long keyHash = builder.add(depCode, depJob, description);
+					int position = index.find(depCode, depJob);
+					if (position == DepartmentHashIndex.COLLISION) {
+						log.warn("Совпадение хешей ключей, выполняется полная синхронизация");
+						return false;
+					}
+					if (position == DepartmentHashIndex.NOT_FOUND) {
+						if (!added.add(keyHash)) {
+							// дубликат или совпадение хешей: полная синхронизация разберётся точно
+							return false;
+						}
+						if (added.size() > maxAdded) {
+							log.warn("Добавленных записей больше {}, для бюджета памяти выполняется полная синхронизация",
+									maxAdded);
+							return false;
+						}
+						writer.insert(depCode, depJob, description);
+					} else {
+						if (seen.get(position)) {
+							log.error("Обнаружен дубликат департамента: {} {}", depCode, depJob);
+							throw new RuntimeException("Обнаружен дубликат департамента: " + depCode + " " + depJob);
+						}
+						seen.set(position);
+						if (index.getDescriptionHash(position) != DepartmentHashIndex.descriptionHash(description)) {
+							writer.update(depCode, depJob, description);
+						}
+					}
+				}
+			}
+			for (int i = seen.nextClearBit(0); i < index.size(); i = seen.nextClearBit(i + 1)) {
+				writer.delete(index.getDepCode(i), index.getDepJob(i));
+			}
+			log.info("Изменения по индексу: добавлено {}, изменено {}, удалено {}",
+					writer.getInserted(), writer.getUpdated(), writer.getDeleted());
+		}
+		return true;
+	}
+
+	/**
+	 * Записывает новый индекс с контрольной суммой таблицы после изменений во временный файл.
+	 */
+	private void prepareIndex(DepartmentHashIndex.Builder builder, Connection connection) {
+		String checksum = dao.checksum(connection);
+		try {
+			Path parent = indexFile.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			Path temp = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+			if (builder.write(temp, checksum)) {
+				pendingIndex = temp;
+			} else {
+				Files.deleteIfExists(temp);
+				invalidate = true;
+			}
+		} catch (IOException e) {
+			log.error("Не удалось подготовить индекс {}: {}", indexFile, e.getMessage());
+			invalidate = true;
+		}
+	}
+}
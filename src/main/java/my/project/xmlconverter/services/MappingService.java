@@ -0,0 +1,260 @@
+package my.project.xmlconverter.services;
+
+import my.project.xmlconverter.dao.TableBatchWriter;
+import my.project.xmlconverter.dao.TableDAO;
+import my.project.xmlconverter.entities.TableMapping;
+import my.project.xmlconverter.utils.CompressionCodec;
+import my.project.xmlconverter.utils.ConnectionManager;
+import my.project.xmlconverter.utils.MemoryBudget;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.utils.PropertiesUtil;
+import my.project.xmlconverter.xml.TableXmlReader;
+import my.project.xmlconverter.xml.TableXmlWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * Экспорт и синхронизация набора таблиц по описаниям TableMapping (параметр mapping.tables).
+ * Каждой таблице соответствует свой XML-файл в каталоге команды. Таблицы независимы и обрабатываются
+ * параллельно на mapping.threads потоках, каждая на своём соединении и в своей транзакции:
+ * ошибка одной таблицы откатывает только её изменения, остальные таблицы завершаются.
+ * Синхронизация таблицы устроена как режим memory для отделов: строки XML загружаются в память,
+ * таблица читается курсором, и изменения сразу уходят в пакеты TableBatchWriter.
+ * При заданном бюджете памяти (memory.budget.mb) каждая одновременно синхронизируемая таблица
+ * получает равную долю бюджета; таблица, XML которой по оценке в неё не помещается, не синхронизируется.
+ */
+public class MappingService {
+
+	private static final Logger log = LoggerFactory.getLogger(MappingService.class);
+
+	private static final String THREADS = "mapping.threads";
+	private static final String INDENT = "export.indent";
+	private static final String COMPRESSION_LEVEL = "export.compression.level";
+
+	/**
+	 * Оценка памяти строк XML в памяти на байт текста: строки Java хранят кириллицу по два байта на символ.
+	 */
+	private static final int XML_FACTOR = 2;
+
+	/**
+	 * Экспортирует все описанные таблицы в XML-файлы каталога.
+	 *
+	 * @param directory  каталог для файлов (создаётся при необходимости)
+	 * @throws RuntimeException если экспорт хотя бы одной таблицы завершился ошибкой
+	 */
+	public void export(String directory) {
+		Path dir = Path.of(directory);
+		try {
+			Files.createDirectories(dir);
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось создать каталог " + dir, e);
+		}
+		runAll("Экспорт", dir, this::exportTable);
+		System.out.println("XML файлы сохранены в " + dir);
+	}
+
+	/**
+	 * Синхронизирует все описанные таблицы с XML-файлами каталога.
+	 *
+	 * @param directory  каталог с файлами
+	 * @throws RuntimeException если синхронизация хотя бы одной таблицы завершилась ошибкой
+	 */
+	public void sync(String directory) {
+		runAll("Синхронизация", Path.of(directory), this::syncTable);
+		System.out.println("Синхронизация успешно завершена!");
+	}
+
+	/**
+	 * Выполняет действие для каждой таблицы на пуле потоков и дожидается всех таблиц.
+	 */
+	private void runAll(String action, Path dir, BiConsumer<TableMapping, Path> task) {
+		List<TableMapping> mappings = TableMapping.all();
+		int threads = threads(mappings);
+		log.info("{} таблиц: {}, потоков {}", action, mappings.size(), threads);
+		Map<String, Future<?>> futures = new LinkedHashMap<>();
+		try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+			for (TableMapping mapping : mappings) {
+				futures.put(mapping.getName(), executor.submit(() -> {
+					try (var timer = Metrics.timer("table." + mapping.getName())) {
+						task.accept(mapping, dir.resolve(mapping.getFileName()));
+					}
+				}));
+			}
+			List<String> failed = new ArrayList<>();
+			for (Map.Entry<String, Future<?>> entry : futures.entrySet()) {
+				try {
+					entry.getValue().get();
+				} catch (ExecutionException e) {
+					log.error("{} таблицы {} завершилась ошибкой: {}", action, entry.getKey(), e.getCause().getMessage());
+					failed.add(entry.getKey());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(action + " прервана", e);
+				}
+			}
+			if (!failed.isEmpty()) {
+				throw new RuntimeException(action + " не выполнена для таблиц: " + String.join(", ", failed));
+			}
+		}
+	}
+
+	private static int threads(List<TableMapping> mappings) {
+		return Math.max(1, Math.min(PropertiesUtil.getInt(THREADS, 4), mappings.size()));
+	}
+
+	/**
+	 * Потоковый экспорт одной таблицы: строки курсора сразу записываются в файл.
+	 */
+	private void exportTable(TableMapping mapping, Path file) {
+		log.info("Экспорт таблицы {} в файл {}", mapping.getTable(), file);
+		TableDAO dao = new TableDAO(mapping);
+		try (Connection connection = ConnectionManager.openConnection();
+			 TableXmlWriter writer = new TableXmlWriter(mapping, CompressionCodec.openOutput(file.toString(),
+					 PropertiesUtil.getInt(COMPRESSION_LEVEL, -1)), PropertiesUtil.getBoolean(INDENT, true))) {
+			connection.setAutoCommit(false);
+			dao.forEach(connection, writer);
+			connection.commit();
+			log.info("Таблица {}: записано строк {}", mapping.getTable(), writer.getCount());
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось создать файл " + file, e);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Синхронизация одной таблицы в отдельной транзакции.
+	 */
+	private void syncTable(TableMapping mapping, Path file) {
+		log.info("Синхронизация таблицы {} с файлом {}", mapping.getTable(), file);
+		checkMemoryBudget(mapping, file);
+		Map<RowKey, String[]> xmlRows = readXml(mapping, file);
+		TableDAO dao = new TableDAO(mapping);
+		int keyCount = mapping.getKeyCount();
+		try (Connection connection = ConnectionManager.openConnection()) {
+			connection.setAutoCommit(false);
+			try {
+				try (var timer = Metrics.timer("merge");
+					 TableBatchWriter writer = dao.openBatchWriter(connection)) {
+					dao.forEach(connection, dbRow -> {
+						String[] xmlRow = xmlRows.remove(new RowKey(dbRow, keyCount));
+						if (xmlRow == null) {
+							writer.delete(dbRow);
+						} else if (!valuesEqual(dbRow, xmlRow, keyCount)) {
+							writer.update(xmlRow);
+						}
+					});
+					for (String[] row : xmlRows.values()) {
+						writer.insert(row);
+					}
+				}
+				try (var timer = Metrics.timer("db.commit")) {
+					connection.commit();
+				}
+				log.info("Таблица {} синхронизирована", mapping.getTable());
+			} catch (RuntimeException e) {
+				connection.rollback();
+				log.info("Откат транзакции таблицы {}", mapping.getTable());
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Проверяет, что строки XML таблицы по оценке помещаются в её долю бюджета памяти.
+	 *
+	 * @throws RuntimeException если не помещаются
+	 */
+	private static void checkMemoryBudget(TableMapping mapping, Path file) {
+		if (!MemoryBudget.isLimited()) {
+			return;
+		}
+		long share = MemoryBudget.share(1.0 / threads(TableMapping.all()));
+		long required = MemoryBudget.estimateXmlBytes(file.toString()) * XML_FACTOR;
+		if (required > share) {
+			log.error("Таблице {} нужно около {} МБ памяти при доле бюджета {} МБ", mapping.getTable(),
+					required >> 20, share >> 20);
+			throw new RuntimeException("Файл " + file + " не помещается в бюджет памяти: нужно около "
+					+ (required >> 20) + " МБ, доступно " + (share >> 20) + " МБ. Увеличьте memory.budget.mb"
+					+ " или уменьшите mapping.threads");
+		}
+	}
+
+	/**
+	 * Загружает строки XML в память в порядке документа, проверяя отсутствие дубликатов ключа.
+	 */
+	private static Map<RowKey, String[]> readXml(TableMapping mapping, Path file) {
+		Map<RowKey, String[]> rows = new LinkedHashMap<>();
+		try (var timer = Metrics.timer("xml.parse");
+			 TableXmlReader reader = TableXmlReader.open(mapping, file.toString())) {
+			while (reader.next()) {
+				String[] row = reader.getRow();
+				if (rows.putIfAbsent(new RowKey(row, mapping.getKeyCount()), row) != null) {
+					String key = String.join(" ", Arrays.copyOf(row, mapping.getKeyCount()));
+					log.error("Обнаружен дубликат строки таблицы {}: {}", mapping.getTable(), key);
+					throw new RuntimeException("Обнаружен дубликат строки таблицы " + mapping.getTable() + ": " + key);
+				}
+			}
+		}
+		return rows;
+	}
+
+	private static boolean valuesEqual(String[] dbRow, String[] xmlRow, int from) {
+		for (int i = from; i < dbRow.length; i++) {
+			if (!Objects.equals(dbRow[i], xmlRow[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Ключ строки - первые keyCount значений массива строки, без копирования.
+	 */
+	private static final class RowKey {
+
+		private final String[] row;
+		private final int keyCount;
+		private final int hash;
+
+		RowKey(String[] row, int keyCount) {
+			this.row = row;
+			this.keyCount = keyCount;
+			int h = 1;
+			for (int i = 0; i < keyCount; i++) {
+				h = 31 * h + Objects.hashCode(row[i]);
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof RowKey other && hash == other.hash
+					&& Arrays.equals(row, 0, keyCount, other.row, 0, other.keyCount);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package my.project.xmlconverter.services;
+
+import my.project.xmlconverter.dao.DepartmentDAO;
+import my.project.xmlconverter.utils.ConnectionManager;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.xml.DepartmentXmlWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Параллельный экспорт по диапазонам ключа.
+ * Координирующее соединение открывает транзакцию REPEATABLE READ, экспортирует её снимок
+ * (pg_export_snapshot) и делит таблицу на диапазоны depcode по выборке строк. Рабочие потоки
+ * импортируют снимок на своих соединениях, поэтому все видят одно состояние таблицы, разбирают
+ * диапазоны по очереди и записывают каждый во временный файл-фрагмент в порядке ключа.
+ * Фрагменты дописываются в документ в порядке диапазонов по мере готовности, так что
+ * документ упорядочен по (depcode, depjob) в порядке COLLATE "C" и не зависит от числа потоков.
+ * Используется threads + 1 соединение; при пуле соединений количество рабочих потоков ограничивается
+ * размером пула за вычетом координирующего соединения.
+ */
+class ParallelExport {
+
+	private static final Logger log = LoggerFactory.getLogger(ParallelExport.class);
+	private static final int PARTITIONS_PER_THREAD = 4;
+	private static final int SAMPLE_ROWS = 100_000;
+
+	private final DepartmentDAO dao;
+	private final int threads;
+	private final boolean indent;
+
+	/**
+	 * @param dao      DAO отделов
+	 * @param threads  количество рабочих потоков и их соединений
+	 * @param indent   форматировать ли документ отступами
+	 * @throws RuntimeException если в пуле соединений нет места хотя бы для одного рабочего потока
+	 */
+	ParallelExport(DepartmentDAO dao, int threads, boolean indent) {
+		this.dao = dao;
+		this.threads = fitPool(Math.max(1, threads));
+		this.indent = indent;
+	}
+
+	/**
+	 * Ограничивает количество рабочих потоков размером пула: координирующее соединение держится
+	 * всё время экспорта, и поток сверх пула ждал бы соединения до тайм-аута Hikari.
+	 */
+	private static int fitPool(int threads) {
+		int available = ConnectionManager.maxConnections() - 1;
+		if (available < 1) {
+			throw new RuntimeException("Для export.mode=parallel нужно не меньше двух соединений в пуле, "
+					+ "увеличьте db.pool.size");
+		}
+		if (threads > available) {
+			log.warn("export.parallel.threads={} не помещается в пул из {} соединений, используется потоков: {}",
+					threads, available + 1, available);
+			return available;
+		}
+		return threads;
+	}
+
+	/**
+	 * Экспортирует таблицу в документ.
+	 *
+	 * @param writer  писатель документа
+	 * @throws RuntimeException если чтение диапазона или запись завершились ошибкой
+	 */
+	void run(DepartmentXmlWriter writer) {
+		try (Connection coordinator = ConnectionManager.openConnection()) {
+			String snapshot = dao.exportSnapshot(coordinator);
+			List<String> boundaries = dao.sampleKeyBoundaries(coordinator, threads * PARTITIONS_PER_THREAD, SAMPLE_ROWS);
+			int partitions = boundaries.size() + 1;
+			log.info("Параллельный экспорт: {} диапазонов, {} потоков, снимок {}", partitions, threads, snapshot);
+
+			List<CompletableFuture<Fragment>> fragments = new ArrayList<>();
+			for (int i = 0; i < partitions; i++) {
+				fragments.add(new CompletableFuture<>());
+			}
+			WorkQueue queue = new WorkQueue(snapshot, boundaries, fragments);
+			try (ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, partitions))) {
+				for (int i = 0; i < Math.min(threads, partitions); i++) {
+					executor.submit(() -> work(queue));
+				}
+				try {
+					for (CompletableFuture<Fragment> future : fragments) {
+						Fragment fragment = future.get();
+						writer.appendFragment(fragment.file(), fragment.count());
+						delete(fragment.file());
+					}
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof RuntimeException runtime ? runtime : new RuntimeException(e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Экспорт прерван", e);
+				} finally {
+					queue.fail(new IllegalStateException("Экспорт остановлен"));
+				}
+			} finally {
+				for (CompletableFuture<Fragment> future : fragments) {
+					if (future.isDone() && !future.isCompletedExceptionally()) {
+						delete(future.join().file());
+					}
+				}
+			}
+			coordinator.commit();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Рабочий поток: импортирует снимок и записывает диапазоны во фрагменты, пока они не закончатся.
+	 */
+	private void work(WorkQueue queue) {
+		try (Connection connection = ConnectionManager.openConnection()) {
+			dao.importSnapshot(connection, queue.snapshot);
+			int partition;
+			while ((partition = queue.next.getAndIncrement()) < queue.fragments.size()) {
+				CompletableFuture<Fragment> future = queue.fragments.get(partition);
+				if (future.isDone()) {
+					return;
+				}
+				Fragment fragment = writeFragment(connection, queue.from(partition), queue.to(partition));
+				if (!future.complete(fragment)) {
+					delete(fragment.file());
+				}
+			}
+			connection.commit();
+		} catch (Throwable e) {
+			log.error("Ошибка экспорта диапазона: {}", e.getMessage());
+			queue.fail(e);
+		}
+	}
+
+	private Fragment writeFragment(Connection connection, String from, String to) throws IOException {
+		Path file = Files.createTempFile("departments-part", ".xml");
+		try (var timer = Metrics.timer("export.partition");
+			 DepartmentXmlWriter fragment = DepartmentXmlWriter.fragment(
+					 new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024), indent)) {
+			dao.forEachInRange(connection, from, to, fragment);
+			return new Fragment(file, fragment.getCount());
+		} catch (IOException | RuntimeException e) {
+			delete(file);
+			throw e;
+		}
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("Не удалось удалить временный файл {}: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * Фрагмент документа во временном файле.
+	 */
+	private record Fragment(Path file, long count) {
+	}
+
+	/**
+	 * Общее состояние рабочих потоков: снимок, границы диапазонов, номер следующего диапазона
+	 * и результаты по диапазонам.
+	 */
+	private static final class WorkQueue {
+
+		private final String snapshot;
+		private final List<String> boundaries;
+		private final List<CompletableFuture<Fragment>> fragments;
+		private final AtomicInteger next = new AtomicInteger();
+
+		WorkQueue(String snapshot, List<String> boundaries, List<CompletableFuture<Fragment>> fragments) {
+			this.snapshot = snapshot;
+			this.boundaries = boundaries;
+			this.fragments = fragments;
+		}
+
+		String from(int partition) {
+			return partition == 0 ? null : boundaries.get(partition - 1);
+		}
+
+		String to(int partition) {
+			return partition == boundaries.size() ? null : boundaries.get(partition);
+		}
+
+		/**
+		 * Завершает ошибкой все ещё не готовые диапазоны, чтобы координатор и остальные потоки остановились.
+		 */
+		void fail(Throwable e) {
+			for (CompletableFuture<Fragment> future : fragments) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+}
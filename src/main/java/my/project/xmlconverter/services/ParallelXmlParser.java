@@ -0,0 +1,188 @@
+package my.project.xmlconverter.services;
+
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.xml.MappedDepartmentReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Параллельный разбор XML-файла в множество отделов.
+ * Файл делится на диапазоны байт, каждый из которых заканчивается сразу после закрывающего
+ * тега department, и диапазоны разбираются MappedDepartmentReader на пуле потоков, каждый
+ * в своё множество. Множества объединяются в порядке диапазонов по мере готовности, поэтому
+ * порядок записей тот же, что при последовательном разборе. Дубликаты внутри диапазона находит
+ * DepartmentStore.add, дубликаты из разных диапазонов - объединение, так что проверка точна
+ * и на границах диапазонов.
+ * Если диапазон не удалось разобрать или найден дубликат, файл разбирается заново последовательно:
+ * ошибка и её сообщение будут такими же, как без параллельного разбора.
+ */
+class ParallelXmlParser {
+
+	private static final Logger log = LoggerFactory.getLogger(ParallelXmlParser.class);
+	private static final byte[] DEPARTMENT_END = "</department>".getBytes(StandardCharsets.US_ASCII);
+	private static final int MIN_RANGE_SIZE = 1024 * 1024;
+	private static final int RANGES_PER_THREAD = 4;
+	private static final int SCAN_WINDOW = 64 * 1024;
+
+	private final String filename;
+	private final int threads;
+	private final int chunkSize;
+
+	/**
+	 * @param filename   путь к XML-файлу
+	 * @param threads    количество потоков разбора
+	 * @param chunkSize  размер окна отображения файла в память в байтах
+	 */
+	ParallelXmlParser(String filename, int threads, int chunkSize) {
+		this.filename = filename;
+		this.threads = Math.max(1, threads);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Разбирает файл.
+	 *
+	 * @return множество отделов
+	 * @throws RuntimeException если файл не удалось разобрать или он содержит дубликаты отделов
+	 */
+	DepartmentStore parse() {
+		long[] bounds = split();
+		if (bounds.length <= 2) {
+			return ConvertService.convertXmlToDepartmentsStreaming(filename);
+		}
+		log.info("Параллельный разбор XML: {} диапазонов, {} потоков", bounds.length - 1, threads);
+		DepartmentStore departments = null;
+		try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+			List<Future<DepartmentStore>> ranges = new ArrayList<>();
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				long start = bounds[i];
+				long end = i + 2 == bounds.length ? -1 : bounds[i + 1];
+				ranges.add(executor.submit(() -> parseRange(start, end)));
+			}
+			try {
+				for (Future<DepartmentStore> range : ranges) {
+					DepartmentStore part = range.get();
+					if (part == null || departments != null && departments.addAll(part) >= 0) {
+						log.info("Параллельный разбор обнаружил дубликат отдела");
+						departments = null;
+						break;
+					}
+					if (departments == null) {
+						departments = part;
+					}
+				}
+			} catch (ExecutionException e) {
+				log.info("Параллельный разбор не удался: {}", e.getCause().getMessage());
+				departments = null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Разбор XML прерван", e);
+			} finally {
+				if (departments == null) {
+					executor.shutdownNow();
+				}
+			}
+		}
+		if (departments == null) {
+			log.info("Файл {} разбирается последовательно", filename);
+			return ConvertService.convertXmlToDepartmentsStreaming(filename);
+		}
+		Metrics.count("rows.xml.parsed", departments.size());
+		Metrics.count("bytes.read", bounds[bounds.length - 1]);
+		return departments;
+	}
+
+	/**
+	 * Разбирает диапазон в отдельное множество.
+	 *
+	 * @return множество отделов диапазона или null, если в диапазоне есть дубликат
+	 */
+	private DepartmentStore parseRange(long start, long end) {
+		DepartmentStore departments = new DepartmentStore();
+		try (MappedDepartmentReader reader = new MappedDepartmentReader(filename, chunkSize, start, end)) {
+			while (reader.next()) {
+				if (Thread.currentThread().isInterrupted()
+						|| !departments.add(reader.getDepCode(), reader.getDepJob(), reader.getDescription())) {
+					return null;
+				}
+			}
+		}
+		return departments;
+	}
+
+	/**
+	 * Делит файл на диапазоны по границам после закрывающего тега department.
+	 *
+	 * @return границы диапазонов, начиная с 0 и заканчивая размером файла
+	 */
+	private long[] split() {
+		try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long count = Math.min((long) threads * RANGES_PER_THREAD, size / MIN_RANGE_SIZE);
+			List<Long> bounds = new ArrayList<>();
+			bounds.add(0L);
+			for (long i = 1; i < count; i++) {
+				long from = Math.max(size * i / count, bounds.getLast());
+				long boundary = findBoundary(channel, from, size);
+				if (boundary >= size) {
+					break;
+				}
+				if (boundary > bounds.getLast()) {
+					bounds.add(boundary);
+				}
+			}
+			bounds.add(size);
+			return bounds.stream().mapToLong(Long::longValue).toArray();
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось открыть файл: " + filename, e);
+		}
+	}
+
+	/**
+	 * Ищет первое вхождение закрывающего тега department, начиная с from.
+	 *
+	 * @return позиция сразу после тега или size, если тег не найден
+	 */
+	private static long findBoundary(FileChannel channel, long from, long size) throws IOException {
+		long start = from;
+		while (start < size) {
+			long length = Math.min(SCAN_WINDOW, size - start);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			int last = (int) length - DEPARTMENT_END.length;
+			for (int i = 0; i <= last; i++) {
+				if (window.get(i) == '<' && matches(window, i)) {
+					return start + i + DEPARTMENT_END.length;
+				}
+			}
+			if (start + length >= size) {
+				break;
+			}
+			// следующее окно перекрывает текущее, чтобы не пропустить тег на стыке
+			start += Math.max(1, last + 1);
+		}
+		return size;
+	}
+
+	private static boolean matches(MappedByteBuffer window, int at) {
+		for (int i = 1; i < DEPARTMENT_END.length; i++) {
+			if (window.get(at + i) != DEPARTMENT_END[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
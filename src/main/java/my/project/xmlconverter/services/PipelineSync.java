@@ -0,0 +1,202 @@
+package my.project.xmlconverter.services;
+
+import my.project.xmlconverter.dao.DepartmentBatchWriter;
+import my.project.xmlconverter.dao.DepartmentChangeSink;
+import my.project.xmlconverter.dao.DepartmentDAO;
+import my.project.xmlconverter.entities.DepartmentStore;
+import my.project.xmlconverter.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Конвейерная синхронизация.
+ * Чтение таблицы и разбор XML выполняются одновременно на виртуальных потоках,
+ * затем сравнение передаёт найденные изменения порциями через ограниченную очередь
+ * потоку записи, который отправляет их в БД, пока сравнение ещё продолжается.
+ * Время каждого этапа выводится в журнал.
+ */
+class PipelineSync {
+
+	private static final Logger log = LoggerFactory.getLogger(PipelineSync.class);
+	private static final List<Change> END = List.of();
+
+	private final DepartmentDAO dao;
+	private final int batchSize;
+	private final int queueCapacity;
+
+	PipelineSync(DepartmentDAO dao, int batchSize, int queueCapacity) {
+		this.dao = dao;
+		this.batchSize = Math.max(1, batchSize);
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	/**
+	 * Выполняет синхронизацию в транзакции переданного соединения. Транзакцию не завершает.
+	 *
+	 * @param filename    путь к XML-файлу
+	 * @param connection  соединение с базой данных
+	 * @throws RuntimeException если один из этапов завершился ошибкой
+	 */
+	void run(String filename, Connection connection) {
+		long start = System.nanoTime();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<DepartmentStore> dbLoad = executor.submit(
+					() -> timed("чтение БД", "pipeline.db.load", () -> dao.getAll(connection)));
+			Future<DepartmentStore> xmlLoad = executor.submit(
+					() -> timed("разбор XML", "pipeline.xml.load", () -> ConvertService.convertXmlToDepartments(filename)));
+			DepartmentStore dbDep;
+			DepartmentStore xmlDep;
+			try {
+				dbDep = await(dbLoad);
+				xmlDep = await(xmlLoad);
+			} catch (RuntimeException e) {
+				dbLoad.cancel(true);
+				xmlLoad.cancel(true);
+				throw e;
+			}
+
+			BlockingQueue<List<Change>> queue = new ArrayBlockingQueue<>(queueCapacity);
+			Future<Long> writer = executor.submit(() -> timed("запись в БД", "pipeline.write", () -> write(queue, connection)));
+			QueueSink sink = new QueueSink(queue, writer);
+			long diffStart = System.nanoTime();
+			try {
+				SyncService.diff(dbDep, xmlDep, sink);
+				sink.finish();
+			} catch (RuntimeException e) {
+				writer.cancel(true);
+				throw e;
+			}
+			long diffNanos = System.nanoTime() - diffStart;
+			Metrics.addTime("pipeline.diff", diffNanos);
+			log.info("Этап \"сравнение\": {} мс", TimeUnit.NANOSECONDS.toMillis(diffNanos));
+			long written = await(writer);
+			log.info("Конвейер завершён за {} мс, записано изменений: {}",
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), written);
+		}
+	}
+
+	/**
+	 * Поток записи: забирает порции изменений из очереди до маркера конца.
+	 */
+	private long write(BlockingQueue<List<Change>> queue, Connection connection) throws InterruptedException {
+		long count = 0;
+		try (DepartmentBatchWriter writer = dao.openBatchWriter(connection)) {
+			List<Change> batch;
+			while ((batch = queue.take()) != END) {
+				for (Change change : batch) {
+					switch (change.type()) {
+						case INSERT -> writer.insert(change.depCode(), change.depJob(), change.description());
+						case UPDATE -> writer.update(change.depCode(), change.depJob(), change.description());
+						case DELETE -> writer.delete(change.depCode(), change.depJob());
+					}
+				}
+				count += batch.size();
+			}
+		}
+		return count;
+	}
+
+	private static <T> T timed(String stage, String metric, Callable<T> action) throws Exception {
+		long start = System.nanoTime();
+		try {
+			return action.call();
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			Metrics.addTime(metric, elapsed);
+			log.info("Этап \"{}\": {} мс", stage, TimeUnit.NANOSECONDS.toMillis(elapsed));
+		}
+	}
+
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Синхронизация прервана", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new RuntimeException("Ошибка этапа синхронизации", e.getCause());
+		}
+	}
+
+	private enum ChangeType {
+		INSERT, UPDATE, DELETE
+	}
+
+	private record Change(ChangeType type, String depCode, String depJob, String description) {
+	}
+
+	/**
+	 * Собирает изменения в порции и передаёт их в очередь.
+	 * Если поток записи завершился с ошибкой, сравнение прекращается с этой ошибкой.
+	 */
+	private final class QueueSink implements DepartmentChangeSink {
+
+		private final BlockingQueue<List<Change>> queue;
+		private final Future<Long> writer;
+		private List<Change> batch = new ArrayList<>(batchSize);
+
+		QueueSink(BlockingQueue<List<Change>> queue, Future<Long> writer) {
+			this.queue = queue;
+			this.writer = writer;
+		}
+
+		@Override
+		public void insert(String depCode, String depJob, String description) {
+			add(new Change(ChangeType.INSERT, depCode, depJob, description));
+		}
+
+		@Override
+		public void update(String depCode, String depJob, String description) {
+			add(new Change(ChangeType.UPDATE, depCode, depJob, description));
+		}
+
+		@Override
+		public void delete(String depCode, String depJob) {
+			add(new Change(ChangeType.DELETE, depCode, depJob, null));
+		}
+
+		void finish() {
+			if (!batch.isEmpty()) {
+				offer(batch);
+			}
+			offer(END);
+		}
+
+		private void add(Change change) {
+			batch.add(change);
+			if (batch.size() >= batchSize) {
+				offer(batch);
+				batch = new ArrayList<>(batchSize);
+			}
+		}
+
+		private void offer(List<Change> changes) {
+			try {
+				while (!queue.offer(changes, 100, TimeUnit.MILLISECONDS)) {
+					if (writer.isDone()) {
+						await(writer);
+						throw new IllegalStateException("Поток записи завершился раньше времени");
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Синхронизация прервана", e);
+			}
+		}
+	}
+}
@@ -1,27 +1,80 @@
 package my.project.xmlconverter.services;
 
+import my.project.xmlconverter.dao.DepartmentBatchWriter;
+import my.project.xmlconverter.dao.DepartmentChangeSink;
 import my.project.xmlconverter.dao.DepartmentDAO;
-import my.project.xmlconverter.entities.Department;
 import my.project.xmlconverter.entities.DepartmentKey;
+import my.project.xmlconverter.entities.DepartmentStore;
 import my.project.xmlconverter.utils.ConnectionManager;
+import my.project.xmlconverter.utils.DepartmentSnapshot;
+import my.project.xmlconverter.utils.DepartmentSnapshotReader;
+import my.project.xmlconverter.utils.ExternalDepartmentSorter;
+import my.project.xmlconverter.utils.MemoryBudget;
+import my.project.xmlconverter.utils.Metrics;
+import my.project.xmlconverter.utils.PropertiesUtil;
+import my.project.xmlconverter.xml.DepartmentReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Сервис для синхронизации данных между базой данных и XML-файлом.
  * Выполняет сравнение данных и применяет изменения (вставка, обновление, удаление)
  * в рамках транзакции.
+ * Режим сравнения задаётся параметром sync.mode:
+ * - memory - обе стороны загружаются в память целиком (по умолчанию);
+ * - merge - слияние отсортированных потоков из БД и XML с ограниченным потреблением памяти;
+ * - copy - загрузка XML командой COPY во временную таблицу и сравнение на стороне сервера;
+ * - unnest - то же, но временная таблица заполняется запросами с массивами (unnest) вместо COPY;
+ * - pipeline - параллельная загрузка БД и XML, запись изменений одновременно со сравнением;
+ * - incremental - сравнение XML с индексом хешей прошлого запуска (sync.index.file)
+ *   без чтения таблицы, с полной синхронизацией слиянием, если индекс нельзя использовать;
+ * - swap - загрузка XML в новую теневую таблицу, построение её индексов и замена ею departments
+ *   переименованием в короткой блокировке, без построчных изменений действующей таблицы.
+ * При sync.commit.every больше 0 синхронизация выполняется слиянием с фиксацией транзакции после
+ * каждых sync.commit.every изменений и точкой восстановления (sync.checkpoint.file), с которой
+ * продолжается повторный запуск; по умолчанию все изменения применяются одной транзакцией.
+ * При sync.dry.run=true изменения вычисляются и отправляются в БД, но транзакция откатывается: фиксация
+ * частями не выполняется, swap заменяется режимом copy, индекс incremental не сохраняется.
+ * Если задан бюджет памяти (memory.budget.mb), режимы memory и pipeline, которым по оценке
+ * не хватит бюджета, заменяются режимом merge, а буфер сортировки слияния ограничивается долей бюджета.
  */
 public class SyncService {
 
 	private final DepartmentDAO dao = DepartmentDAO.getInstance();
 	private static final Logger log = LoggerFactory.getLogger(SyncService.class);
 
+	private static final String MODE = "sync.mode";
+	private static final String SORT_BUFFER_SIZE = "sync.sort.buffer.size";
+	private static final int DEFAULT_SORT_BUFFER_SIZE = 100_000;
+	private static final String BATCH_SIZE = "db.batch.size";
+	private static final String PIPELINE_QUEUE_SIZE = "sync.pipeline.queue.size";
+	private static final String INDEX_FILE = "sync.index.file";
+	private static final String PARSER = "sync.parser";
+	private static final String COMMIT_EVERY = "sync.commit.every";
+	private static final String CHECKPOINT_FILE = "sync.checkpoint.file";
+	private static final String SWAP_LOCK_TIMEOUT = "sync.swap.lock.timeout.ms";
+	private static final int DEFAULT_SWAP_LOCK_TIMEOUT = 5000;
+	private static final String DRY_RUN = "sync.dry.run";
+
+	/**
+	 * Доля бюджета памяти для буфера сортировки и буферов чтения порций в режиме merge;
+	 * остальное остаётся пакетам DAO и разбору XML.
+	 */
+	private static final double SORT_SHARE = 0.5;
+
+	/**
+	 * Оценка памяти режимов memory и pipeline на байт XML: множества XML и изменений
+	 * занимают не больше исходного текста каждое, DOM-дерево - около десяти байт на байт текста.
+	 */
+	private static final int XML_FACTOR = 2;
+	private static final int DOM_FACTOR = 10;
+
 	/**
 	 * Синхронизирует данные между базой данных и XML-файлом.
 	 * - Удаляет из БД записи, которых нет в XML.
@@ -33,33 +86,66 @@ public class SyncService {
 	 */
 	public void sync(String filename) {
 		log.info("Начало синхронизации с файлом {}", filename);
+		String mode = PropertiesUtil.get(MODE, "memory");
 		Connection connection = ConnectionManager.openConnection();
-		try {
+		IncrementalSync incremental = null;
+		CheckpointSync checkpoint = null;
+		int commitEvery = PropertiesUtil.getInt(COMMIT_EVERY, 0);
+		boolean dryRun = PropertiesUtil.getBoolean(DRY_RUN, false);
+		if (dryRun) {
+			if (commitEvery > 0) {
+				log.info("При sync.dry.run=true фиксация частями (sync.commit.every) не выполняется");
+				commitEvery = 0;
+			}
+			if ("swap".equals(mode)) {
+				log.info("При sync.dry.run=true режим swap заменяется режимом copy");
+				mode = "copy";
+			}
+		}
+		try (var timer = Metrics.timer("sync")) {
 			connection.setAutoCommit(false);
-			Map<DepartmentKey, Department> dbDep = dao.getAll();
-			Map<DepartmentKey, Department> xmlDep = ConvertService.convertXmlToDepartments(filename);
-
-			Map<DepartmentKey, Department> depToInsert = new HashMap<>();
-			Map<DepartmentKey, Department> depToUpdate = new HashMap<>();
-
-			for (var department : xmlDep.entrySet()) {
-				if (dbDep.containsKey(department.getKey())) {
-					Department dbDepartment = dbDep.get(department.getKey());
-					Department xmlDepartment = xmlDep.get(department.getKey());
-					if (!dbDepartment.getDescription().equals(xmlDepartment.getDescription())) {
-						depToUpdate.put(department.getKey(), xmlDepartment);
+			if (commitEvery > 0) {
+				if (!"merge".equals(mode)) {
+					log.info("При sync.commit.every={} синхронизация выполняется слиянием частями вместо режима {}",
+							commitEvery, mode);
+				}
+				checkpoint = new CheckpointSync(dao,
+						Path.of(PropertiesUtil.get(CHECKPOINT_FILE, "departments.checkpoint")), commitEvery);
+				checkpoint.run(filename, connection);
+			} else {
+				mode = fitMemoryBudget(mode, filename, connection);
+				switch (mode) {
+					case "memory" -> syncInMemory(filename, connection);
+					case "merge" -> syncMerge(filename, connection);
+					case "copy" -> syncCopy(filename, connection, false);
+					case "unnest" -> syncCopy(filename, connection, true);
+					case "swap" -> syncSwap(filename, connection);
+					case "pipeline" -> new PipelineSync(dao, PropertiesUtil.getInt(BATCH_SIZE, 1000),
+							PropertiesUtil.getInt(PIPELINE_QUEUE_SIZE, 16)).run(filename, connection);
+					case "incremental" -> {
+						incremental = new IncrementalSync(dao,
+								Path.of(PropertiesUtil.get(INDEX_FILE, "departments.idx")), this::syncMerge);
+						incremental.run(filename, connection);
 					}
-					dbDep.remove(department.getKey());
-				} else {
-					depToInsert.put(department.getKey(), department.getValue());
+					default -> throw new IllegalArgumentException("Неизвестный режим синхронизации: " + mode);
 				}
 			}
 
-			dao.deleteAll(dbDep, connection);
-			dao.updateAll(depToUpdate, connection);
-			dao.saveAll(depToInsert, connection);
-
-			connection.commit();
+			if (dryRun) {
+				connection.rollback();
+				log.info("Пробная синхронизация (sync.dry.run=true), изменения отменены");
+				System.out.println("Пробная синхронизация завершена, изменения отменены");
+				return;
+			}
+			try (var commitTimer = Metrics.timer("db.commit")) {
+				connection.commit();
+			}
+			if (incremental != null) {
+				incremental.publish();
+			}
+			if (checkpoint != null) {
+				checkpoint.complete();
+			}
 			log.info("Транзакция успешно завершена!");
 			System.out.println("Синхронизация успешно завершена!");
 		} catch (SQLException e) {
@@ -73,6 +159,9 @@ public class SyncService {
 			}
 			throw new RuntimeException("Ошибка синхронизации", e);
 		} finally {
+			if (incremental != null) {
+				incremental.discard();
+			}
 			try {
 				if (connection != null) {
 					connection.close();
@@ -83,4 +172,200 @@ public class SyncService {
 			}
 		}
 	}
+
+	/**
+	 * Заменяет режим, загружающий обе стороны в память, режимом merge, если по оценке
+	 * таблица и XML не помещаются в бюджет памяти. Таблица оценивается по размеру на сервере.
+	 *
+	 * @return режим, которым будет выполнена синхронизация
+	 */
+	private String fitMemoryBudget(String mode, String filename, Connection connection) {
+		if (!MemoryBudget.isLimited() || !("memory".equals(mode) || "pipeline".equals(mode))) {
+			return mode;
+		}
+		long xmlBytes = MemoryBudget.estimateXmlBytes(filename);
+		int factor = "dom".equalsIgnoreCase(PropertiesUtil.get(PARSER, "stax")) ? XML_FACTOR + DOM_FACTOR : XML_FACTOR;
+		long required = xmlBytes * factor + dao.tableBytes(connection);
+		if (required <= MemoryBudget.bytes()) {
+			return mode;
+		}
+		log.warn("Режиму {} нужно около {} МБ памяти при бюджете {} МБ, синхронизация будет выполнена режимом merge",
+				mode, required >> 20, MemoryBudget.bytes() >> 20);
+		return "merge";
+	}
+
+	/**
+	 * Синхронизация со сравнением полностью загруженных в память данных БД и XML.
+	 */
+	private void syncInMemory(String filename, Connection connection) {
+		DepartmentStore dbDep = dao.getAll(connection);
+		DepartmentStore xmlDep = ConvertService.convertXmlToDepartments(filename);
+
+		DepartmentStore depToInsert = new DepartmentStore();
+		DepartmentStore depToUpdate = new DepartmentStore();
+
+		try (var timer = Metrics.timer("diff")) {
+			for (int id = xmlDep.next(0); id >= 0; id = xmlDep.next(id + 1)) {
+				int dbId = dbDep.find(xmlDep, id);
+				if (dbId >= 0) {
+					if (!dbDep.descriptionEquals(dbId, xmlDep, id)) {
+						depToUpdate.add(xmlDep.getDepCode(id), xmlDep.getDepJob(id), xmlDep.getDescription(id));
+					}
+					dbDep.remove(dbId);
+				} else {
+					depToInsert.add(xmlDep.getDepCode(id), xmlDep.getDepJob(id), xmlDep.getDescription(id));
+				}
+			}
+		}
+
+		dao.deleteAll(dbDep, connection);
+		dao.updateAll(depToUpdate, connection);
+		dao.saveAll(depToInsert, connection);
+	}
+
+	/**
+	 * Сравнивает данные БД и XML и передаёт найденные изменения получателю.
+	 * Совпавшие записи удаляются из dbDep, оставшиеся в нём после прохода по XML
+	 * передаются как удаления. Ключи и описания сравниваются побайтно, строки создаются
+	 * только для найденных изменений.
+	 *
+	 * @param dbDep   отделы из БД (изменяется)
+	 * @param xmlDep  отделы из XML
+	 * @param sink    получатель изменений
+	 */
+	public static void diff(DepartmentStore dbDep, DepartmentStore xmlDep, DepartmentChangeSink sink) {
+		for (int id = xmlDep.next(0); id >= 0; id = xmlDep.next(id + 1)) {
+			int dbId = dbDep.find(xmlDep, id);
+			if (dbId < 0) {
+				sink.insert(xmlDep.getDepCode(id), xmlDep.getDepJob(id), xmlDep.getDescription(id));
+			} else {
+				if (!dbDep.descriptionEquals(dbId, xmlDep, id)) {
+					sink.update(xmlDep.getDepCode(id), xmlDep.getDepJob(id), xmlDep.getDescription(id));
+				}
+				dbDep.remove(dbId);
+			}
+		}
+		for (int id = dbDep.next(0); id >= 0; id = dbDep.next(id + 1)) {
+			sink.delete(dbDep.getDepCode(id), dbDep.getDepJob(id));
+		}
+	}
+
+	/**
+	 * Синхронизация слиянием: XML сортируется внешней сортировкой, таблица читается курсором
+	 * в том же порядке ключей, а найденные изменения сразу уходят в пакеты DAO.
+	 * В памяти находятся только буфер сортировки и текущие пакеты; при заданном бюджете памяти
+	 * буфер сортировки сбрасывается на диск и по достижении своей доли бюджета.
+	 * Двоичный снимок уже упорядочен по ключу и сливается с курсором без сортировки.
+	 */
+	private void syncMerge(String filename, Connection connection) {
+		readSorted(filename, xml -> merge(xml, connection));
+	}
+
+	/**
+	 * Передаёт действию записи файла в порядке ключа без повторов: XML сортируется внешней сортировкой
+	 * (временные файлы удаляются после действия), двоичный снимок читается как есть.
+	 *
+	 * @param filename  путь к файлу
+	 * @param action    действие над упорядоченными записями
+	 */
+	static void readSorted(String filename, Consumer<DepartmentReader> action) {
+		readSorted(filename, false, action);
+	}
+
+	/**
+	 * Передаёт действию записи файла в порядке ключа без повторов. При verifyFirst отсутствие повторов
+	 * ключей (а для снимка - и его целостность) проверяется до выдачи первой записи, а не по ходу чтения:
+	 * так действие, фиксирующее изменения частями, не начнёт применять файл, который будет отвергнут.
+	 *
+	 * @param filename     путь к файлу
+	 * @param verifyFirst  проверить файл целиком до вызова действия
+	 * @param action       действие над упорядоченными записями
+	 */
+	static void readSorted(String filename, boolean verifyFirst, Consumer<DepartmentReader> action) {
+		if (DepartmentSnapshot.isSnapshot(filename)) {
+			if (verifyFirst) {
+				DepartmentSnapshotReader.verify(filename);
+			}
+			try (DepartmentReader snapshot = DepartmentSnapshotReader.open(filename)) {
+				action.accept(snapshot);
+			}
+			return;
+		}
+		int bufferSize = PropertiesUtil.getInt(SORT_BUFFER_SIZE, DEFAULT_SORT_BUFFER_SIZE);
+		try (ExternalDepartmentSorter sorter = new ExternalDepartmentSorter(bufferSize, MemoryBudget.share(SORT_SHARE))) {
+			try (var timer = Metrics.timer("xml.sort");
+				 DepartmentReader reader = ConvertService.openXmlReader(filename)) {
+				while (reader.next()) {
+					sorter.accept(reader.getDepCode(), reader.getDepJob(), reader.getDescription());
+				}
+			}
+			try (DepartmentReader xml = verifyFirst ? sorter.sortedVerified() : sorter.sorted()) {
+				action.accept(xml);
+			}
+		}
+	}
+
+	/**
+	 * Сливает записи, упорядоченные по ключу без повторов, с курсором таблицы в том же порядке.
+	 */
+	private void merge(DepartmentReader xml, Connection connection) {
+		try (var timer = Metrics.timer("merge");
+			 DepartmentReader db = dao.openOrderedCursor(connection);
+			 DepartmentBatchWriter writer = dao.openBatchWriter(connection)) {
+			boolean hasXml = xml.next();
+			boolean hasDb = db.next();
+			while (hasXml || hasDb) {
+				int compare;
+				if (!hasXml) {
+					compare = 1;
+				} else if (!hasDb) {
+					compare = -1;
+				} else {
+					compare = DepartmentKey.compare(xml.getDepCode(), xml.getDepJob(), db.getDepCode(), db.getDepJob());
+				}
+				if (compare < 0) {
+					writer.insert(xml.getDepCode(), xml.getDepJob(), xml.getDescription());
+					hasXml = xml.next();
+				} else if (compare > 0) {
+					writer.delete(db.getDepCode(), db.getDepJob());
+					hasDb = db.next();
+				} else {
+					if (!Objects.equals(db.getDescription(), xml.getDescription())) {
+						writer.update(xml.getDepCode(), xml.getDepJob(), xml.getDescription());
+					}
+					hasXml = xml.next();
+					hasDb = db.next();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Синхронизация на стороне сервера: записи XML потоково передаются во временную таблицу
+	 * (командой COPY или запросами с массивами), изменения вычисляются и применяются
+	 * множественными запросами на стороне сервера. Таблица в приложение не читается.
+	 *
+	 * @param unnest  заполнять временную таблицу запросами с unnest вместо COPY
+	 */
+	private void syncCopy(String filename, Connection connection, boolean unnest) {
+		try (DepartmentReader reader = ConvertService.openXmlReader(filename)) {
+			dao.bulkSync(reader, connection, unnest);
+		}
+	}
+
+	/**
+	 * Синхронизация заменой таблицы: записи XML загружаются в теневую таблицу, созданную без индексов,
+	 * после загрузки на ней строятся ограничения и индексы, и она заменяет departments переименованием.
+	 * Действующая таблица до замены только читается, поэтому читатели не ждут блокировок строк и не
+	 * остаётся мёртвых строк от построчных удалений и обновлений; исключительная блокировка берётся
+	 * лишь на переименование и держится до фиксации транзакции.
+	 */
+	private void syncSwap(String filename, Connection connection) {
+		dao.createShadowTable(connection);
+		try (DepartmentReader reader = ConvertService.openXmlReader(filename)) {
+			dao.fillShadowTable(reader, connection);
+		}
+		dao.buildShadowIndexes(connection);
+		dao.swapShadowTable(connection, PropertiesUtil.getInt(SWAP_LOCK_TIMEOUT, DEFAULT_SWAP_LOCK_TIMEOUT));
+	}
 }
\ No newline at end of file
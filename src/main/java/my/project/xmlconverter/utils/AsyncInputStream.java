@@ -0,0 +1,147 @@
+package my.project.xmlconverter.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Поток чтения, читающий исходный поток заранее на отдельном потоке выполнения.
+ * Фоновый поток читает исходный поток (например, распаковывающий) блоками и передаёт их
+ * через ограниченную очередь, так что распаковка идёт одновременно с разбором XML.
+ * Ошибка чтения фонового потока передаётся читающему, когда он доходит до места ошибки.
+ */
+public class AsyncInputStream extends InputStream {
+
+	private static final int BLOCK_SIZE = 256 * 1024;
+	private static final int QUEUE_SIZE = 4;
+
+	private final InputStream in;
+	private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUE_SIZE + 1);
+	private final Thread thread;
+	private Block block;
+	private int position;
+	private boolean closed;
+
+	/**
+	 * @param in    исходный поток (закрывается при закрытии)
+	 * @param name  имя фонового потока
+	 */
+	public AsyncInputStream(InputStream in, String name) {
+		this.in = in;
+		this.thread = Thread.ofPlatform().name(name).daemon().start(this::fill);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureData()) {
+			return -1;
+		}
+		return block.bytes[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (!ensureData()) {
+			return -1;
+		}
+		int n = Math.min(length, block.length - position);
+		System.arraycopy(block.bytes, position, buffer, offset, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return block == null || block.length < 0 ? 0 : block.length - position;
+	}
+
+	/**
+	 * Останавливает фоновый поток и закрывает исходный поток.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		in.close();
+	}
+
+	/**
+	 * Берёт следующий блок, если текущий прочитан.
+	 *
+	 * @return false в конце потока
+	 */
+	private boolean ensureData() throws IOException {
+		if (closed) {
+			throw new IOException("Поток закрыт");
+		}
+		while (true) {
+			if (block != null) {
+				if (block.error != null) {
+					throw new IOException(block.error.getMessage(), block.error);
+				}
+				if (block.length < 0) {
+					return false;
+				}
+				if (position < block.length) {
+					return true;
+				}
+				free.offer(block.bytes);
+			}
+			try {
+				block = full.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Чтение прервано");
+			}
+			position = 0;
+		}
+	}
+
+	/**
+	 * Фоновый поток: читает исходный поток блоками до конца, ошибки или закрытия.
+	 */
+	private void fill() {
+		try {
+			while (true) {
+				byte[] bytes = free.poll();
+				if (bytes == null) {
+					bytes = new byte[BLOCK_SIZE];
+				}
+				int length = in.readNBytes(bytes, 0, bytes.length);
+				if (length == 0) {
+					full.put(new Block(bytes, -1, null));
+					return;
+				}
+				full.put(new Block(bytes, length, null));
+			}
+		} catch (InterruptedException e) {
+			// поток закрыт читающим
+		} catch (Throwable e) {
+			try {
+				full.put(new Block(null, -1, e));
+			} catch (InterruptedException ignored) {
+				// поток закрыт читающим
+			}
+		}
+	}
+
+	/**
+	 * Блок прочитанных байт; длина -1 обозначает конец потока, error - ошибку чтения.
+	 */
+	private record Block(byte[] bytes, int length, Throwable error) {
+	}
+}
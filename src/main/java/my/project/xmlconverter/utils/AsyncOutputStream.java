@@ -0,0 +1,150 @@
+package my.project.xmlconverter.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Поток записи, передающий данные исходному потоку на отдельном потоке выполнения.
+ * Записанные байты собираются в блоки, заполненные блоки через ограниченную очередь
+ * передаются фоновому потоку, который пишет их в исходный поток (например, сжимающий).
+ * Так сжатие не задерживает формирование XML, а память ограничена несколькими блоками.
+ * Ошибка фонового потока передаётся пишущему при следующей передаче блока или при закрытии.
+ */
+public class AsyncOutputStream extends OutputStream {
+
+	private static final int BLOCK_SIZE = 256 * 1024;
+	private static final int QUEUE_SIZE = 4;
+	private static final Block END = new Block(new byte[0], 0);
+
+	private final OutputStream out;
+	private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUE_SIZE + 1);
+	private final Thread thread;
+	private volatile Throwable error;
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int position;
+	private boolean closed;
+
+	/**
+	 * @param out   исходный поток (закрывается фоновым потоком при закрытии)
+	 * @param name  имя фонового потока
+	 */
+	public AsyncOutputStream(OutputStream out, String name) {
+		this.out = out;
+		this.thread = Thread.ofPlatform().name(name).daemon().start(this::drain);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (position == block.length) {
+			handOff();
+		}
+		block[position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (position == block.length) {
+				handOff();
+			}
+			int n = Math.min(length, block.length - position);
+			System.arraycopy(buffer, offset, block, position, n);
+			position += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Передаёт накопленные байты фоновому потоку, не дожидаясь их записи.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (position > 0) {
+			handOff();
+		}
+	}
+
+	/**
+	 * Передаёт оставшиеся байты, дожидается их записи и закрытия исходного потока.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (position > 0 && error == null) {
+				full.put(new Block(block, position));
+			}
+			full.put(END);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Запись прервана");
+		}
+		checkError();
+	}
+
+	private void handOff() throws IOException {
+		checkError();
+		try {
+			full.put(new Block(block, position));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Запись прервана");
+		}
+		byte[] next = free.poll();
+		block = next != null ? next : new byte[BLOCK_SIZE];
+		position = 0;
+	}
+
+	private void checkError() throws IOException {
+		Throwable e = error;
+		if (e instanceof IOException io) {
+			throw new IOException(io.getMessage(), io);
+		}
+		if (e != null) {
+			throw new IOException("Ошибка фоновой записи: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Фоновый поток: пишет блоки в исходный поток, после ошибки только освобождает очередь.
+	 */
+	private void drain() {
+		try {
+			while (true) {
+				Block chunk = full.take();
+				if (chunk == END) {
+					break;
+				}
+				if (error == null) {
+					try {
+						out.write(chunk.bytes, 0, chunk.length);
+					} catch (Throwable e) {
+						error = e;
+					}
+				}
+				free.offer(chunk.bytes);
+			}
+		} catch (InterruptedException e) {
+			error = e;
+		}
+		try {
+			out.close();
+		} catch (Throwable e) {
+			if (error == null) {
+				error = e;
+			}
+		}
+	}
+
+	private record Block(byte[] bytes, int length) {
+	}
+}
@@ -0,0 +1,156 @@
+package my.project.xmlconverter.utils;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Сжатие XML-файлов.
+ * При записи формат определяется по расширению имени файла (.gz, .zst), при чтении - по первым
+ * байтам файла, поэтому сжатый файл читается и без соответствующего расширения.
+ * Сжатие и распаковка выполняются на отдельном потоке (AsyncOutputStream, AsyncInputStream),
+ * параллельно с формированием и разбором XML.
+ * Счётчики Metrics bytes.read и bytes.written учитывают байты файла, то есть сжатые данные.
+ */
+public enum CompressionCodec {
+
+	/**
+	 * Без сжатия.
+	 */
+	NONE(""),
+
+	/**
+	 * gzip (java.util.zip).
+	 */
+	GZIP(".gz"),
+
+	/**
+	 * Zstandard (zstd-jni).
+	 */
+	ZSTD(".zst");
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String extension;
+
+	CompressionCodec(String extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * Определяет формат по расширению имени файла.
+	 *
+	 * @param filename  имя файла
+	 * @return формат сжатия или NONE
+	 */
+	public static CompressionCodec forFileName(String filename) {
+		String name = filename.toLowerCase(Locale.ROOT);
+		for (CompressionCodec codec : values()) {
+			if (codec != NONE && name.endsWith(codec.extension)) {
+				return codec;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Определяет формат по первым байтам файла.
+	 *
+	 * @param filename  путь к файлу
+	 * @return формат сжатия или NONE, в том числе если файл не существует или короче заголовка
+	 */
+	public static CompressionCodec detect(String filename) {
+		byte[] header = new byte[4];
+		int length;
+		try (InputStream in = new FileInputStream(filename)) {
+			length = in.readNBytes(header, 0, header.length);
+		} catch (IOException e) {
+			return NONE;
+		}
+		if (length >= 2 && header[0] == (byte) 0x1F && header[1] == (byte) 0x8B) {
+			return GZIP;
+		}
+		if (length == 4 && header[0] == (byte) 0x28 && header[1] == (byte) 0xB5
+				&& header[2] == (byte) 0x2F && header[3] == (byte) 0xFD) {
+			return ZSTD;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Открывает файл для чтения с распаковкой, если файл сжат.
+	 *
+	 * @param filename  путь к файлу
+	 * @return буферизованный поток распакованных данных
+	 * @throws IOException если файл не удалось открыть
+	 */
+	public static InputStream openInput(String filename) throws IOException {
+		CompressionCodec codec = detect(filename);
+		InputStream file = new BufferedInputStream(
+				new CountingInputStream(new FileInputStream(filename), "bytes.read"), BUFFER_SIZE);
+		if (codec == NONE) {
+			return file;
+		}
+		try {
+			return new AsyncInputStream(codec.decompress(file), "xml-decompress");
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Открывает файл для записи со сжатием, выбранным по расширению имени.
+	 *
+	 * @param filename  путь к файлу
+	 * @param level     уровень сжатия или -1 для уровня по умолчанию
+	 * @return буферизованный поток записи; сжатие выполняется на отдельном потоке
+	 * @throws IOException если файл не удалось создать
+	 */
+	public static OutputStream openOutput(String filename, int level) throws IOException {
+		CompressionCodec codec = forFileName(filename);
+		OutputStream file = new BufferedOutputStream(
+				new CountingOutputStream(new FileOutputStream(filename), "bytes.written"), BUFFER_SIZE);
+		if (codec == NONE) {
+			return file;
+		}
+		try {
+			return new AsyncOutputStream(codec.compress(file, level), "xml-compress");
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	private InputStream decompress(InputStream in) throws IOException {
+		return switch (this) {
+			case NONE -> in;
+			case GZIP -> new GZIPInputStream(in, BUFFER_SIZE);
+			case ZSTD -> new ZstdInputStream(in);
+		};
+	}
+
+	private OutputStream compress(OutputStream out, int level) throws IOException {
+		return switch (this) {
+			case NONE -> out;
+			case GZIP -> new GZIPOutputStream(out, BUFFER_SIZE) {
+				{
+					if (level >= 0) {
+						def.setLevel(level);
+					}
+				}
+			};
+			case ZSTD -> level >= 0 ? new ZstdOutputStream(out, level) : new ZstdOutputStream(out);
+		};
+	}
+}
@@ -1,34 +1,118 @@
 package my.project.xmlconverter.utils;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
 /**
  * Утилита для управления соединениями с базой данных.
  * Обеспечивает создание и настройку соединений.
+ * При db.pool.enabled=true соединения берутся из пула ограниченного размера
+ * с проверкой соединений и закрытием простаивающих; закрытие такого соединения возвращает его в пул.
  */
 public final class ConnectionManager {
 
 	private static final String DB_URL = "db.url";
 	private static final String DB_USER = "db.username";
 	private static final String DB_PASSWORD = "db.password";
+	private static final String DB_REWRITE_BATCHED_INSERTS = "db.reWriteBatchedInserts";
+	private static final String DB_PREPARE_THRESHOLD = "db.prepareThreshold";
+	private static final String POOL_ENABLED = "db.pool.enabled";
+	private static final String POOL_SIZE = "db.pool.size";
+	private static final String POOL_MIN_IDLE = "db.pool.minIdle";
+	private static final String POOL_IDLE_TIMEOUT = "db.pool.idleTimeoutMs";
+	private static final String POOL_MAX_LIFETIME = "db.pool.maxLifetimeMs";
+	private static final String POOL_VALIDATION_TIMEOUT = "db.pool.validationTimeoutMs";
+
+	private static volatile HikariDataSource dataSource;
 
 	private ConnectionManager() {}
 
 	/**
-	 * Открывает новое соединение с базой данных
+	 * Открывает соединение с базой данных: новое или из пула, в зависимости от db.pool.enabled.
+	 * При db.reWriteBatchedInserts=true драйвер PostgreSQL объединяет пакеты INSERT в многострочные запросы.
 	 * @return объект Connection
 	 */
 	public static Connection openConnection() {
 		try {
-			return DriverManager.getConnection(
-					PropertiesUtil.get(DB_URL),
-					PropertiesUtil.get(DB_USER),
-					PropertiesUtil.get(DB_PASSWORD));
+			if (PropertiesUtil.getBoolean(POOL_ENABLED, false)) {
+				return getDataSource().getConnection();
+			}
+			return DriverManager.getConnection(PropertiesUtil.get(DB_URL), driverProperties());
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Возвращает, сколько соединений может быть открыто одновременно: размер пула при db.pool.enabled=true,
+	 * без пула - без ограничения. Параллельные операции не должны занимать больше, иначе лишние потоки
+	 * ждут соединения из пула до тайм-аута.
+	 *
+	 * @return наибольшее количество одновременных соединений
+	 */
+	public static int maxConnections() {
+		if (PropertiesUtil.getBoolean(POOL_ENABLED, false)) {
+			return Math.max(1, PropertiesUtil.getInt(POOL_SIZE, 4));
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Закрывает пул соединений, если он был создан
+	 */
+	public static synchronized void shutdown() {
+		if (dataSource != null) {
+			dataSource.close();
+			dataSource = null;
+		}
+	}
+
+	private static HikariDataSource getDataSource() {
+		HikariDataSource result = dataSource;
+		if (result == null) {
+			synchronized (ConnectionManager.class) {
+				result = dataSource;
+				if (result == null) {
+					result = createDataSource();
+					dataSource = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static HikariDataSource createDataSource() {
+		HikariConfig config = new HikariConfig();
+		config.setPoolName("xml-converter");
+		config.setJdbcUrl(PropertiesUtil.get(DB_URL));
+		config.setUsername(PropertiesUtil.get(DB_USER));
+		config.setPassword(PropertiesUtil.get(DB_PASSWORD));
+		int size = maxConnections();
+		config.setMaximumPoolSize(size);
+		config.setMinimumIdle(Math.min(size, PropertiesUtil.getInt(POOL_MIN_IDLE, 1)));
+		config.setIdleTimeout(PropertiesUtil.getInt(POOL_IDLE_TIMEOUT, 600_000));
+		config.setMaxLifetime(PropertiesUtil.getInt(POOL_MAX_LIFETIME, 1_800_000));
+		config.setValidationTimeout(PropertiesUtil.getInt(POOL_VALIDATION_TIMEOUT, 5_000));
+		driverProperties().forEach((key, value) -> config.addDataSourceProperty((String) key, value));
+		return new HikariDataSource(config);
+	}
+
+	/**
+	 * Параметры драйвера PostgreSQL, общие для прямых и пуловых соединений.
+	 * prepareThreshold задаёт, после скольких выполнений запрос становится серверным подготовленным.
+	 */
+	private static Properties driverProperties() {
+		Properties info = new Properties();
+		info.setProperty("user", PropertiesUtil.get(DB_USER));
+		info.setProperty("password", PropertiesUtil.get(DB_PASSWORD));
+		info.setProperty("reWriteBatchedInserts",
+				String.valueOf(PropertiesUtil.getBoolean(DB_REWRITE_BATCHED_INSERTS, false)));
+		info.setProperty("prepareThreshold", String.valueOf(PropertiesUtil.getInt(DB_PREPARE_THRESHOLD, 5)));
+		return info;
+	}
 }
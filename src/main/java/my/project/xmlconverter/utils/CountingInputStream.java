@@ -0,0 +1,55 @@
+package my.project.xmlconverter.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Поток чтения, добавляющий количество прочитанных байт к счётчику Metrics при закрытии.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private final String counter;
+	private long bytes;
+
+	/**
+	 * @param in       исходный поток
+	 * @param counter  имя счётчика в Metrics
+	 */
+	public CountingInputStream(InputStream in, String counter) {
+		super(in);
+		this.counter = counter;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			bytes++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = in.read(buffer, offset, length);
+		if (read > 0) {
+			bytes += read;
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		bytes += skipped;
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		Metrics.count(counter, bytes);
+		bytes = 0;
+		super.close();
+	}
+}
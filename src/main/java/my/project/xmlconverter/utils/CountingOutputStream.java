@@ -0,0 +1,42 @@
+package my.project.xmlconverter.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Поток записи, добавляющий количество записанных байт к счётчику Metrics при закрытии.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+	private final String counter;
+	private long bytes;
+
+	/**
+	 * @param out      исходный поток
+	 * @param counter  имя счётчика в Metrics
+	 */
+	public CountingOutputStream(OutputStream out, String counter) {
+		super(out);
+		this.counter = counter;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		bytes++;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		out.write(buffer, offset, length);
+		bytes += length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		Metrics.count(counter, bytes);
+		bytes = 0;
+		super.close();
+	}
+}
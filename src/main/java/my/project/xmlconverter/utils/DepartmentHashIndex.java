@@ -0,0 +1,362 @@
+package my.project.xmlconverter.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Индекс хешей отделов, сохранённый после синхронизации.
+ * Файл состоит из заголовка (признак формата, количество записей, контрольная сумма таблицы),
+ * отсортированных по хешу ключа записей фиксированной длины (хеш ключа, хеш описания, смещение ключа)
+ * и области с самими ключами в UTF-8. Файл отображается в память, поиск выполняется двоичным поиском.
+ * Хеши 64-битные; совпадение хешей разных ключей обнаруживается сравнением ключей.
+ */
+public final class DepartmentHashIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(DepartmentHashIndex.class);
+
+	/**
+	 * Признак формата файла: "DHI1".
+	 */
+	private static final int MAGIC = 0x44484931;
+	private static final int ENTRY_SIZE = 24;
+
+	/**
+	 * Результат поиска: ключа нет в индексе.
+	 */
+	public static final int NOT_FOUND = -1;
+
+	/**
+	 * Результат поиска: хеш ключа совпал с хешем другого ключа.
+	 */
+	public static final int COLLISION = -2;
+
+	private final ByteBuffer buffer;
+	private final int size;
+	private final String checksum;
+	private final int entriesStart;
+	private final int blobStart;
+
+	private DepartmentHashIndex(ByteBuffer buffer) {
+		this.buffer = buffer;
+		if (buffer.limit() < 10 || buffer.getInt(0) != MAGIC) {
+			throw new IllegalStateException("Неизвестный формат файла индекса");
+		}
+		this.size = buffer.getInt(4);
+		int checksumLength = Short.toUnsignedInt(buffer.getShort(8));
+		if (size < 0 || 10L + checksumLength > buffer.limit()) {
+			throw new IllegalStateException("Файл индекса повреждён");
+		}
+		byte[] checksumBytes = new byte[checksumLength];
+		buffer.get(10, checksumBytes);
+		this.checksum = new String(checksumBytes, StandardCharsets.UTF_8);
+		this.entriesStart = 10 + checksumLength;
+		long blob = entriesStart + (long) size * ENTRY_SIZE;
+		if (blob > buffer.limit()) {
+			throw new IllegalStateException("Файл индекса повреждён");
+		}
+		this.blobStart = (int) blob;
+	}
+
+	/**
+	 * Открывает файл индекса.
+	 *
+	 * @param file  путь к файлу
+	 * @return индекс или null, если файла нет или он не может быть прочитан
+	 */
+	public static DepartmentHashIndex open(Path file) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				log.warn("Файл индекса {} слишком большой", file);
+				return null;
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new DepartmentHashIndex(mapped);
+		} catch (IOException | IllegalStateException e) {
+			log.warn("Не удалось прочитать индекс {}: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Возвращает контрольную сумму таблицы, сохранённую вместе с индексом.
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Возвращает количество записей в индексе.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Ищет отдел в индексе.
+	 *
+	 * @param depCode  код отдела
+	 * @param depJob   должность в отделе
+	 * @return номер записи, NOT_FOUND или COLLISION
+	 */
+	public int find(String depCode, String depJob) {
+		long hash = keyHash(depCode, depJob);
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long middleHash = buffer.getLong(entriesStart + middle * ENTRY_SIZE);
+			if (middleHash < hash) {
+				low = middle + 1;
+			} else if (middleHash > hash) {
+				high = middle - 1;
+			} else {
+				return depCode.equals(getDepCode(middle)) && depJob.equals(getDepJob(middle)) ? middle : COLLISION;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Возвращает хеш описания записи.
+	 *
+	 * @param position  номер записи
+	 */
+	public long getDescriptionHash(int position) {
+		return buffer.getLong(entriesStart + position * ENTRY_SIZE + 8);
+	}
+
+	/**
+	 * Возвращает код отдела записи.
+	 *
+	 * @param position  номер записи
+	 */
+	public String getDepCode(int position) {
+		return readString(keyOffset(position));
+	}
+
+	/**
+	 * Возвращает должность записи.
+	 *
+	 * @param position  номер записи
+	 */
+	public String getDepJob(int position) {
+		int offset = keyOffset(position);
+		return readString(offset + 4 + buffer.getInt(offset));
+	}
+
+	private int keyOffset(int position) {
+		return blobStart + (int) buffer.getLong(entriesStart + position * ENTRY_SIZE + 16);
+	}
+
+	private String readString(int offset) {
+		byte[] bytes = new byte[buffer.getInt(offset)];
+		buffer.get(offset + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Вычисляет 64-битный хеш ключа отдела.
+	 */
+	public static long keyHash(String depCode, String depJob) {
+		return mix(feed(feed(0xcbf29ce484222325L, depCode), depJob));
+	}
+
+	/**
+	 * Вычисляет 64-битный хеш описания отдела.
+	 */
+	public static long descriptionHash(String description) {
+		return mix(feed(0x84222325cbf29ce4L, description));
+	}
+
+	/**
+	 * FNV-1a по длине и символам строки; длина -1 обозначает null.
+	 */
+	private static long feed(long hash, String value) {
+		int length = value == null ? -1 : value.length();
+		hash = (hash ^ length) * 0x100000001b3L;
+		for (int i = 0; i < length; i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Финальное перемешивание битов (fmix64 из MurmurHash3).
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Построитель нового индекса. Ключи сразу записываются во временный файл,
+	 * в памяти хранятся только хеши и смещения (24 байта на запись).
+	 */
+	public static final class Builder implements AutoCloseable {
+
+		private final Path keys;
+		private final DataOutputStream keysOut;
+		private long keysSize;
+		private long[] keyHashes = new long[1024];
+		private long[] descriptionHashes = new long[1024];
+		private long[] offsets = new long[1024];
+		private int size;
+
+		/**
+		 * Создаёт построитель с временным файлом для ключей.
+		 */
+		public Builder() {
+			try {
+				keys = Files.createTempFile("departments-keys", ".bin");
+				keysOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(keys), 64 * 1024));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Не удалось создать временный файл индекса", e);
+			}
+		}
+
+		/**
+		 * Добавляет отдел.
+		 *
+		 * @return хеш ключа отдела
+		 */
+		public long add(String depCode, String depJob, String description) {
+			if (size == keyHashes.length) {
+				int capacity = size * 2;
+				keyHashes = Arrays.copyOf(keyHashes, capacity);
+				descriptionHashes = Arrays.copyOf(descriptionHashes, capacity);
+				offsets = Arrays.copyOf(offsets, capacity);
+			}
+			long keyHash = keyHash(depCode, depJob);
+			keyHashes[size] = keyHash;
+			descriptionHashes[size] = descriptionHash(description);
+			offsets[size] = keysSize;
+			size++;
+			try {
+				keysSize += writeString(depCode) + writeString(depJob);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Не удалось записать временный файл индекса", e);
+			}
+			return keyHash;
+		}
+
+		/**
+		 * Записывает индекс в файл.
+		 *
+		 * @param file      путь к файлу индекса
+		 * @param checksum  контрольная сумма таблицы после синхронизации
+		 * @return false, если хеши двух ключей совпали и индекс не может быть построен
+		 */
+		public boolean write(Path file, String checksum) {
+			sort(0, size - 1);
+			for (int i = 1; i < size; i++) {
+				if (keyHashes[i] == keyHashes[i - 1]) {
+					log.warn("Совпадение хешей ключей, индекс не будет сохранён");
+					return false;
+				}
+			}
+			try {
+				keysOut.flush();
+				if (keysSize > Integer.MAX_VALUE - 10L - checksum.length() * 3L - (long) size * ENTRY_SIZE) {
+					log.warn("Индекс слишком большой и не будет сохранён");
+					return false;
+				}
+				try (DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024))) {
+					out.writeInt(MAGIC);
+					out.writeInt(size);
+					out.writeUTF(checksum);
+					for (int i = 0; i < size; i++) {
+						out.writeLong(keyHashes[i]);
+						out.writeLong(descriptionHashes[i]);
+						out.writeLong(offsets[i]);
+					}
+					Files.copy(keys, out);
+				}
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException("Не удалось записать индекс " + file, e);
+			}
+		}
+
+		/**
+		 * Удаляет временный файл ключей.
+		 */
+		@Override
+		public void close() {
+			try {
+				keysOut.close();
+				Files.deleteIfExists(keys);
+			} catch (IOException e) {
+				log.warn("Не удалось удалить временный файл {}: {}", keys, e.getMessage());
+			}
+		}
+
+		private int writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			keysOut.writeInt(bytes.length);
+			keysOut.write(bytes);
+			return 4 + bytes.length;
+		}
+
+		/**
+		 * Быстрая сортировка параллельных массивов по хешу ключа.
+		 */
+		private void sort(int low, int high) {
+			while (low < high) {
+				long pivot = keyHashes[(low + high) >>> 1];
+				int i = low;
+				int j = high;
+				while (i <= j) {
+					while (keyHashes[i] < pivot) {
+						i++;
+					}
+					while (keyHashes[j] > pivot) {
+						j--;
+					}
+					if (i <= j) {
+						swap(i++, j--);
+					}
+				}
+				if (j - low < high - i) {
+					sort(low, j);
+					low = i;
+				} else {
+					sort(i, high);
+					high = j;
+				}
+			}
+		}
+
+		private void swap(int i, int j) {
+			long keyHash = keyHashes[i];
+			keyHashes[i] = keyHashes[j];
+			keyHashes[j] = keyHash;
+			long descriptionHash = descriptionHashes[i];
+			descriptionHashes[i] = descriptionHashes[j];
+			descriptionHashes[j] = descriptionHash;
+			long offset = offsets[i];
+			offsets[i] = offsets[j];
+			offsets[j] = offset;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package my.project.xmlconverter.utils;
+
+import my.project.xmlconverter.entities.Department;
+import my.project.xmlconverter.entities.DepartmentKey;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Двоичный снимок таблицы отделов - компактная альтернатива XML для обмена между системами.
+ * Файл состоит из заголовка (признак формата "DSN1"), блоков записей, разреженного индекса и концевика:
+ * <pre>
+ * заголовок: MAGIC
+ * блок:      количество записей, длина данных, CRC32 данных, данные
+ * запись:    depCode, depJob, description - длина UTF-8 (int, -1 для null) и байты
+ * конец:     END_OF_BLOCKS
+ * индекс:    на каждый блок - смещение блока и ключ его первой записи
+ * концевик:  смещение индекса, количество блоков, количество записей, CRC32 индекса, MAGIC
+ * </pre>
+ * Записи упорядочены по ключу DepartmentKey (порядок COLLATE "C") без повторов, поэтому снимок
+ * можно сливать с курсором БД без сортировки. Последовательное чтение (DepartmentSnapshotReader)
+ * проверяет контрольную сумму каждого блока; для поиска отдельного ключа (find) индекс читается
+ * из концевика и читается только один блок.
+ * Формат выбирается по расширению .dsnap при записи и по признаку формата при чтении.
+ */
+public final class DepartmentSnapshot implements AutoCloseable {
+
+	/**
+	 * Признак формата файла: "DSN1".
+	 */
+	static final int MAGIC = 0x44534E31;
+
+	/**
+	 * Количество записей, обозначающее конец блоков.
+	 */
+	static final int END_OF_BLOCKS = -1;
+
+	/**
+	 * Размер заголовка блока: количество записей, длина данных и CRC32.
+	 */
+	static final int BLOCK_HEADER_SIZE = 12;
+
+	/**
+	 * Размер концевика: смещение индекса, количество блоков, количество записей, CRC32 индекса и MAGIC.
+	 */
+	static final int FOOTER_SIZE = 28;
+
+	/**
+	 * Расширение имени файла снимка.
+	 */
+	public static final String EXTENSION = ".dsnap";
+
+	private final FileChannel channel;
+	private final long[] blockOffsets;
+	private final String[] firstCodes;
+	private final String[] firstJobs;
+	private final long size;
+
+	private DepartmentSnapshot(FileChannel channel) throws IOException {
+		this.channel = channel;
+		long fileSize = channel.size();
+		if (fileSize < 4 + 4 + FOOTER_SIZE) {
+			throw new IllegalStateException("Файл снимка повреждён");
+		}
+		ByteBuffer footer = readFully(fileSize - FOOTER_SIZE, FOOTER_SIZE);
+		long indexOffset = footer.getLong();
+		int blocks = footer.getInt();
+		this.size = footer.getLong();
+		int indexCrc = footer.getInt();
+		if (footer.getInt() != MAGIC || indexOffset < 4 || indexOffset > fileSize - FOOTER_SIZE || blocks < 0) {
+			throw new IllegalStateException("Файл снимка повреждён");
+		}
+		ByteBuffer index = readFully(indexOffset, (int) (fileSize - FOOTER_SIZE - indexOffset));
+		if (crc(index.array(), 0, index.limit()) != indexCrc) {
+			throw new IllegalStateException("Индекс снимка повреждён: не совпала контрольная сумма");
+		}
+		blockOffsets = new long[blocks];
+		firstCodes = new String[blocks];
+		firstJobs = new String[blocks];
+		for (int i = 0; i < blocks; i++) {
+			blockOffsets[i] = index.getLong();
+			firstCodes[i] = readString(index);
+			firstJobs[i] = readString(index);
+		}
+	}
+
+	/**
+	 * Открывает снимок для поиска по ключу.
+	 *
+	 * @param file  путь к файлу снимка
+	 * @return снимок
+	 * @throws RuntimeException если файл не удалось открыть или он повреждён
+	 */
+	public static DepartmentSnapshot open(Path file) {
+		try {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				return new DepartmentSnapshot(channel);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось открыть снимок " + file, e);
+		}
+	}
+
+	/**
+	 * Проверяет, что имя файла указывает на снимок (запись в формате снимка вместо XML).
+	 *
+	 * @param filename  имя файла
+	 */
+	public static boolean isSnapshotName(String filename) {
+		return filename.toLowerCase(Locale.ROOT).endsWith(EXTENSION);
+	}
+
+	/**
+	 * Проверяет по первым байтам файла, что он является снимком.
+	 *
+	 * @param filename  путь к файлу
+	 * @return false, в том числе если файл не существует или короче признака формата
+	 */
+	public static boolean isSnapshot(String filename) {
+		byte[] header = new byte[4];
+		try (InputStream in = new FileInputStream(filename)) {
+			if (in.readNBytes(header, 0, header.length) < header.length) {
+				return false;
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		return ByteBuffer.wrap(header).getInt() == MAGIC;
+	}
+
+	/**
+	 * Возвращает количество записей снимка.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Ищет отдел по ключу: двоичным поиском по индексу выбирается блок, и читается только он.
+	 *
+	 * @param depCode  код отдела
+	 * @param depJob   должность в отделе
+	 * @return отдел с описанием или null, если ключа нет
+	 * @throws RuntimeException если блок не удалось прочитать или он повреждён
+	 */
+	public Department find(String depCode, String depJob) {
+		int low = 0;
+		int high = blockOffsets.length - 1;
+		int block = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (DepartmentKey.compare(firstCodes[middle], firstJobs[middle], depCode, depJob) <= 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (block < 0) {
+			return null;
+		}
+		try {
+			ByteBuffer header = readFully(blockOffsets[block], BLOCK_HEADER_SIZE);
+			int count = header.getInt();
+			int length = header.getInt();
+			int expectedCrc = header.getInt();
+			ByteBuffer data = readFully(blockOffsets[block] + BLOCK_HEADER_SIZE, length);
+			if (crc(data.array(), 0, length) != expectedCrc) {
+				throw new IllegalStateException("Блок снимка повреждён: не совпала контрольная сумма");
+			}
+			for (int i = 0; i < count; i++) {
+				String code = readString(data);
+				String job = readString(data);
+				int compare = DepartmentKey.compare(code, job, depCode, depJob);
+				if (compare == 0) {
+					return new Department(readString(data));
+				}
+				if (compare > 0) {
+					return null;
+				}
+				skipString(data);
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось прочитать снимок", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось закрыть снимок", e);
+		}
+	}
+
+	private ByteBuffer readFully(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IllegalStateException("Файл снимка повреждён: неожиданный конец файла");
+			}
+		}
+		return buffer.flip();
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+
+	private static void skipString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length > 0) {
+			buffer.position(buffer.position() + length);
+		}
+	}
+
+	static int crc(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+}
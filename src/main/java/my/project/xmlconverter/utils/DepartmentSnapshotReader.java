@@ -0,0 +1,174 @@
+package my.project.xmlconverter.utils;
+
+import my.project.xmlconverter.entities.DepartmentKey;
+import my.project.xmlconverter.xml.DepartmentReader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Последовательное чтение двоичного снимка отделов (формат описан в DepartmentSnapshot).
+ * Блок читается целиком, проверяется его контрольная сумма, и записи декодируются прямо из массива байт.
+ * Порядок ключей проверяется при чтении, поэтому повреждённый или собранный вручную файл
+ * с повторами ключей не попадёт в синхронизацию.
+ */
+public class DepartmentSnapshotReader implements DepartmentReader {
+
+	private final String filename;
+	private final DataInputStream in;
+	private byte[] block = new byte[0];
+	private int position;
+	private int remaining;
+	private boolean finished;
+	private String depCode;
+	private String depJob;
+	private String description;
+	private long count;
+
+	private DepartmentSnapshotReader(String filename, DataInputStream in) {
+		this.filename = filename;
+		this.in = in;
+	}
+
+	/**
+	 * Открывает снимок и проверяет признак формата.
+	 *
+	 * @param filename  путь к файлу снимка
+	 * @return читатель отделов в порядке ключа
+	 * @throws RuntimeException если файл не существует или не является снимком
+	 */
+	public static DepartmentSnapshotReader open(String filename) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new CountingInputStream(new FileInputStream(filename), "bytes.read"), 64 * 1024));
+			try {
+				if (in.readInt() != DepartmentSnapshot.MAGIC) {
+					throw new IllegalStateException("Файл " + filename + " не является снимком");
+				}
+			} catch (IOException | RuntimeException e) {
+				in.close();
+				throw e;
+			}
+			return new DepartmentSnapshotReader(filename, in);
+		} catch (FileNotFoundException e) {
+			throw new RuntimeException("Файл не существует: " + filename, e);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось открыть снимок " + filename, e);
+		}
+	}
+
+	/**
+	 * Читает снимок целиком, проверяя контрольные суммы блоков и порядок ключей, без учёта
+	 * в счётчиках разбора. Позволяет отвергнуть повреждённый снимок до применения изменений.
+	 *
+	 * @param filename  путь к файлу снимка
+	 * @throws RuntimeException если снимок повреждён или содержит повторы ключей
+	 */
+	public static void verify(String filename) {
+		try (DepartmentSnapshotReader reader = open(filename)) {
+			while (reader.next()) {
+				reader.count = 0;
+			}
+		}
+	}
+
+	@Override
+	public boolean next() {
+		if (remaining == 0 && !readBlock()) {
+			return false;
+		}
+		String previousCode = depCode;
+		String previousJob = depJob;
+		depCode = readString();
+		depJob = readString();
+		description = readString();
+		remaining--;
+		count++;
+		if (previousCode != null && DepartmentKey.compare(previousCode, previousJob, depCode, depJob) >= 0) {
+			throw new IllegalStateException("Снимок " + filename + " повреждён: нарушен порядок ключей на записи "
+					+ depCode + " " + depJob);
+		}
+		return true;
+	}
+
+	@Override
+	public String getDepCode() {
+		return depCode;
+	}
+
+	@Override
+	public String getDepJob() {
+		return depJob;
+	}
+
+	@Override
+	public String getDescription() {
+		return description;
+	}
+
+	@Override
+	public void close() {
+		Metrics.count("rows.xml.parsed", count);
+		count = 0;
+		try {
+			in.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось закрыть снимок", e);
+		}
+	}
+
+	/**
+	 * Читает следующий блок и проверяет его контрольную сумму.
+	 *
+	 * @return false, если блоки закончились
+	 */
+	private boolean readBlock() {
+		if (finished) {
+			return false;
+		}
+		try {
+			int records = in.readInt();
+			if (records == DepartmentSnapshot.END_OF_BLOCKS) {
+				finished = true;
+				return false;
+			}
+			int length = in.readInt();
+			int expectedCrc = in.readInt();
+			if (records <= 0 || length < 0) {
+				throw new IllegalStateException("Снимок " + filename + " повреждён: некорректный заголовок блока");
+			}
+			if (block.length < length) {
+				block = new byte[Math.max(length, block.length * 2)];
+			}
+			in.readFully(block, 0, length);
+			if (DepartmentSnapshot.crc(block, 0, length) != expectedCrc) {
+				throw new IllegalStateException("Снимок " + filename + " повреждён: не совпала контрольная сумма блока");
+			}
+			position = 0;
+			remaining = records;
+			return true;
+		} catch (EOFException e) {
+			throw new IllegalStateException("Снимок " + filename + " повреждён: неожиданный конец файла", e);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось прочитать снимок " + filename, e);
+		}
+	}
+
+	private String readString() {
+		int length = (block[position] & 0xFF) << 24 | (block[position + 1] & 0xFF) << 16
+				| (block[position + 2] & 0xFF) << 8 | block[position + 3] & 0xFF;
+		position += 4;
+		if (length < 0) {
+			return null;
+		}
+		String value = new String(block, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+}
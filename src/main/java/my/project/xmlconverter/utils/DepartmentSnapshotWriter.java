@@ -0,0 +1,153 @@
+package my.project.xmlconverter.utils;
+
+import my.project.xmlconverter.dao.DepartmentConsumer;
+import my.project.xmlconverter.entities.DepartmentKey;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковая запись двоичного снимка отделов (формат описан в DepartmentSnapshot).
+ * Записи должны поступать в порядке ключа DepartmentKey без повторов, например из
+ * DepartmentDAO.openOrderedCursor. Блок собирается в памяти до BLOCK_SIZE байт и записывается
+ * вместе с контрольной суммой; в памяти остаются только ключи первых записей блоков для индекса.
+ */
+public class DepartmentSnapshotWriter implements DepartmentConsumer, AutoCloseable {
+
+	/**
+	 * Размер данных блока, после которого блок записывается в файл.
+	 */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private final DataOutputStream out;
+	private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+	private final DataOutputStream block = new DataOutputStream(blockBytes);
+	private final List<Long> blockOffsets = new ArrayList<>();
+	private final List<String> firstCodes = new ArrayList<>();
+	private final List<String> firstJobs = new ArrayList<>();
+	private long position;
+	private int blockCount;
+	private long count;
+	private String lastCode;
+	private String lastJob;
+
+	/**
+	 * Создаёт файл снимка и записывает заголовок.
+	 *
+	 * @param filename  путь к файлу
+	 * @throws RuntimeException если файл не удалось создать
+	 */
+	public DepartmentSnapshotWriter(String filename) {
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new CountingOutputStream(new FileOutputStream(filename), "bytes.written"), 64 * 1024));
+			out.writeInt(DepartmentSnapshot.MAGIC);
+			position = 4;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось создать файл " + filename, e);
+		}
+	}
+
+	/**
+	 * Добавляет запись в текущий блок.
+	 *
+	 * @throws IllegalStateException если запись нарушает порядок ключей
+	 */
+	@Override
+	public void accept(String depCode, String depJob, String description) {
+		if (lastCode != null && DepartmentKey.compare(lastCode, lastJob, depCode, depJob) >= 0) {
+			throw new IllegalStateException("Записи снимка должны быть упорядочены по ключу без повторов: "
+					+ depCode + " " + depJob);
+		}
+		lastCode = depCode;
+		lastJob = depJob;
+		try {
+			if (blockCount == 0) {
+				blockOffsets.add(position);
+				firstCodes.add(depCode);
+				firstJobs.add(depJob);
+			}
+			writeString(block, depCode);
+			writeString(block, depJob);
+			writeString(block, description);
+			blockCount++;
+			count++;
+			if (blockBytes.size() >= BLOCK_SIZE) {
+				flushBlock();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось записать снимок", e);
+		}
+	}
+
+	/**
+	 * Возвращает количество записанных отделов.
+	 *
+	 * @return количество отделов
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Записывает последний блок, индекс и концевик и закрывает файл.
+	 *
+	 * @throws RuntimeException если не удалось завершить запись
+	 */
+	@Override
+	public void close() {
+		try {
+			flushBlock();
+			out.writeInt(DepartmentSnapshot.END_OF_BLOCKS);
+			long indexOffset = position + 4;
+			ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+			DataOutputStream index = new DataOutputStream(indexBytes);
+			for (int i = 0; i < blockOffsets.size(); i++) {
+				index.writeLong(blockOffsets.get(i));
+				writeString(index, firstCodes.get(i));
+				writeString(index, firstJobs.get(i));
+			}
+			byte[] indexData = indexBytes.toByteArray();
+			out.write(indexData);
+			out.writeLong(indexOffset);
+			out.writeInt(blockOffsets.size());
+			out.writeLong(count);
+			out.writeInt(DepartmentSnapshot.crc(indexData, 0, indexData.length));
+			out.writeInt(DepartmentSnapshot.MAGIC);
+			out.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось завершить запись снимка", e);
+		}
+	}
+
+	private void flushBlock() throws IOException {
+		if (blockCount == 0) {
+			return;
+		}
+		byte[] data = blockBytes.toByteArray();
+		out.writeInt(blockCount);
+		out.writeInt(data.length);
+		out.writeInt(DepartmentSnapshot.crc(data, 0, data.length));
+		out.write(data);
+		position += DepartmentSnapshot.BLOCK_HEADER_SIZE + data.length;
+		blockBytes.reset();
+		blockCount = 0;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
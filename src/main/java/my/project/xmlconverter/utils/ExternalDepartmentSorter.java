@@ -0,0 +1,386 @@
+package my.project.xmlconverter.utils;
+
+import my.project.xmlconverter.dao.DepartmentConsumer;
+import my.project.xmlconverter.entities.DepartmentKey;
+import my.project.xmlconverter.xml.DepartmentReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Внешняя сортировка отделов по ключу (depCode, depJob).
+ * Записи накапливаются в памяти порциями ограниченного размера (по количеству записей и по оценке
+ * занимаемой памяти); заполненная порция сортируется и сбрасывается во временный файл.
+ * Отсортированный результат выдаётся слиянием всех порций, при этом повторяющиеся ключи считаются ошибкой.
+ * Если порций больше, чем помещается буферов чтения в отведённую память, они предварительно
+ * сливаются группами в более крупные порции.
+ */
+public class ExternalDepartmentSorter implements DepartmentConsumer, AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(ExternalDepartmentSorter.class);
+	private static final Comparator<Entry> ORDER =
+			(a, b) -> DepartmentKey.compare(a.depCode(), a.depJob(), b.depCode(), b.depJob());
+
+	private static final int IO_BUFFER = 64 * 1024;
+	private static final int MIN_FAN_IN = 2;
+	private static final int MAX_FAN_IN = 256;
+
+	private final int bufferSize;
+	private final long bufferBytes;
+	private final int fanIn;
+	private final List<Entry> buffer = new ArrayList<>();
+	private final List<Path> runs = new ArrayList<>();
+	private long bufferedBytes;
+
+	/**
+	 * Создаёт сортировщик без ограничения памяти буфера.
+	 *
+	 * @param bufferSize  максимальное количество записей, сортируемых в памяти
+	 */
+	public ExternalDepartmentSorter(int bufferSize) {
+		this(bufferSize, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Создаёт сортировщик с ограничением памяти.
+	 *
+	 * @param bufferSize   максимальное количество записей, сортируемых в памяти
+	 * @param bufferBytes  память под буфер записей и буферы чтения порций при слиянии, байт
+	 */
+	public ExternalDepartmentSorter(int bufferSize, long bufferBytes) {
+		this.bufferSize = Math.max(1, bufferSize);
+		this.bufferBytes = Math.max(1, bufferBytes);
+		this.fanIn = (int) Math.max(MIN_FAN_IN, Math.min(MAX_FAN_IN, this.bufferBytes / IO_BUFFER));
+	}
+
+	/**
+	 * Добавляет запись; при заполнении буфера он сортируется и сбрасывается на диск.
+	 */
+	@Override
+	public void accept(String depCode, String depJob, String description) {
+		buffer.add(new Entry(depCode, depJob, description));
+		bufferedBytes += MemoryBudget.estimateRecord(depCode, depJob, description);
+		if (buffer.size() >= bufferSize || bufferedBytes >= bufferBytes) {
+			spill();
+		}
+	}
+
+	/**
+	 * Возвращает записи в порядке ключей. Вызывается один раз после добавления всех записей.
+	 *
+	 * @return читатель отсортированных записей
+	 * @throws RuntimeException если встретились дубликаты ключей
+	 */
+	public DepartmentReader sorted() {
+		buffer.sort(ORDER);
+		if (runs.isEmpty()) {
+			return new UniqueKeyReader(new BufferReader(buffer));
+		}
+		if (!buffer.isEmpty()) {
+			spill();
+		}
+		while (runs.size() > fanIn) {
+			mergePass();
+		}
+		log.info("Слияние {} отсортированных порций", runs.size());
+		return new UniqueKeyReader(new MergeReader(runs));
+	}
+
+	/**
+	 * Возвращает записи в порядке ключей, как sorted, но проверяет отсутствие дубликатов до выдачи
+	 * первой записи: итоговое слияние порций записывается в один временный файл, и читатель
+	 * открывается на нём. Нужен, когда изменения фиксируются частями и дубликат, найденный
+	 * в середине потока, оставил бы часть изменений уже зафиксированной.
+	 * Вызывается один раз после добавления всех записей.
+	 *
+	 * @return читатель отсортированных записей
+	 * @throws RuntimeException если встретились дубликаты ключей
+	 */
+	public DepartmentReader sortedVerified() {
+		if (runs.isEmpty()) {
+			buffer.sort(ORDER);
+			try (DepartmentReader check = new UniqueKeyReader(new BufferReader(buffer))) {
+				while (check.next()) {
+					// только проверка ключей
+				}
+			}
+			return new UniqueKeyReader(new BufferReader(buffer));
+		}
+		List<Path> merged = new ArrayList<>();
+		try {
+			Path verified = Files.createTempFile("departments-run", ".bin");
+			try (DepartmentReader reader = sorted();
+				 DataOutputStream out = openRun(verified)) {
+				merged.addAll(runs);
+				runs.add(verified);
+				while (reader.next()) {
+					writeEntry(out, new Entry(reader.getDepCode(), reader.getDepJob(), reader.getDescription()));
+				}
+			}
+			log.info("Порции слиты в {}, дубликатов ключей нет", verified);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось записать временный файл сортировки", e);
+		}
+		for (Path run : merged) {
+			try {
+				Files.deleteIfExists(run);
+			} catch (IOException e) {
+				log.warn("Не удалось удалить временный файл {}: {}", run, e.getMessage());
+			}
+		}
+		runs.removeAll(merged);
+		return new UniqueKeyReader(new MergeReader(runs));
+	}
+
+	/**
+	 * Удаляет временные файлы.
+	 */
+	@Override
+	public void close() {
+		buffer.clear();
+		bufferedBytes = 0;
+		for (Path run : runs) {
+			try {
+				Files.deleteIfExists(run);
+			} catch (IOException e) {
+				log.warn("Не удалось удалить временный файл {}: {}", run, e.getMessage());
+			}
+		}
+		runs.clear();
+	}
+
+	private void spill() {
+		buffer.sort(ORDER);
+		try {
+			Path run = Files.createTempFile("departments-run", ".bin");
+			runs.add(run);
+			try (DataOutputStream out = openRun(run)) {
+				for (Entry entry : buffer) {
+					writeEntry(out, entry);
+				}
+			}
+			log.debug("Порция из {} записей (~{} КБ) сброшена в {}", buffer.size(), bufferedBytes / 1024, run);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось записать временный файл сортировки", e);
+		}
+		buffer.clear();
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * Сливает первые fanIn порций в одну новую порцию в конце списка.
+	 * Дубликаты здесь не проверяются - это делает итоговое слияние.
+	 */
+	private void mergePass() {
+		List<Path> group = new ArrayList<>(runs.subList(0, fanIn));
+		try {
+			Path merged = Files.createTempFile("departments-run", ".bin");
+			runs.add(merged);
+			try (MergeReader reader = new MergeReader(group);
+				 DataOutputStream out = openRun(merged)) {
+				for (Entry entry = reader.next(); entry != null; entry = reader.next()) {
+					writeEntry(out, entry);
+				}
+			}
+			log.debug("Промежуточное слияние {} порций в {}", group.size(), merged);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Не удалось записать временный файл сортировки", e);
+		}
+		runs.subList(0, fanIn).clear();
+		for (Path run : group) {
+			try {
+				Files.deleteIfExists(run);
+			} catch (IOException e) {
+				log.warn("Не удалось удалить временный файл {}: {}", run, e.getMessage());
+			}
+		}
+	}
+
+	private static DataOutputStream openRun(Path run) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER));
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+		writeString(out, entry.depCode());
+		writeString(out, entry.depJob());
+		writeString(out, entry.description());
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private record Entry(String depCode, String depJob, String description) {
+	}
+
+	/**
+	 * Источник отсортированных записей.
+	 */
+	private interface EntrySource extends AutoCloseable {
+
+		Entry next();
+
+		@Override
+		void close();
+	}
+
+	/**
+	 * Выдаёт записи из отсортированного буфера в памяти.
+	 */
+	private static final class BufferReader implements EntrySource {
+
+		private final List<Entry> entries;
+		private int position;
+
+		BufferReader(List<Entry> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public Entry next() {
+			return position < entries.size() ? entries.get(position++) : null;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Сливает отсортированные временные файлы через очередь с приоритетом.
+	 */
+	private static final class MergeReader implements EntrySource {
+
+		private final List<DataInputStream> inputs = new ArrayList<>();
+		private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> ORDER.compare(a.entry, b.entry));
+
+		MergeReader(List<Path> runs) {
+			try {
+				for (Path run : runs) {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER));
+					inputs.add(in);
+					advance(in);
+				}
+			} catch (IOException e) {
+				close();
+				throw new UncheckedIOException("Не удалось открыть временный файл сортировки", e);
+			}
+		}
+
+		@Override
+		public Entry next() {
+			Head head = heads.poll();
+			if (head == null) {
+				return null;
+			}
+			try {
+				advance(head.input);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Не удалось прочитать временный файл сортировки", e);
+			}
+			return head.entry;
+		}
+
+		@Override
+		public void close() {
+			for (DataInputStream input : inputs) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					log.warn("Не удалось закрыть временный файл: {}", e.getMessage());
+				}
+			}
+		}
+
+		private void advance(DataInputStream in) throws IOException {
+			String depCode;
+			try {
+				depCode = readString(in);
+			} catch (EOFException e) {
+				return;
+			}
+			heads.add(new Head(new Entry(depCode, readString(in), readString(in)), in));
+		}
+
+		private record Head(Entry entry, DataInputStream input) {
+		}
+	}
+
+	/**
+	 * Проверяет, что соседние записи отсортированного потока имеют разные ключи.
+	 */
+	private static final class UniqueKeyReader implements DepartmentReader {
+
+		private final EntrySource source;
+		private Entry current;
+
+		UniqueKeyReader(EntrySource source) {
+			this.source = source;
+		}
+
+		@Override
+		public boolean next() {
+			Entry previous = current;
+			current = source.next();
+			if (current == null) {
+				return false;
+			}
+			if (previous != null && ORDER.compare(previous, current) == 0) {
+				log.error("Обнаружен дубликат департамента: {} {}", current.depCode(), current.depJob());
+				throw new RuntimeException("Обнаружен дубликат департамента: "
+						+ current.depCode() + " " + current.depJob());
+			}
+			return true;
+		}
+
+		@Override
+		public String getDepCode() {
+			return current.depCode();
+		}
+
+		@Override
+		public String getDepJob() {
+			return current.depJob();
+		}
+
+		@Override
+		public String getDescription() {
+			return current.description();
+		}
+
+		@Override
+		public void close() {
+			source.close();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package my.project.xmlconverter.utils;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Пиковое заполнение кучи с момента сброса.
+ * Пики отдельных пулов (eden, survivor, old) достигаются в разное время, и их сумма завышает пик кучи,
+ * иногда на весь размер eden. Между сборками мусора заполнение кучи только растёт, поэтому настоящий
+ * пик приходится на момент перед одной из сборок или на текущий момент: по уведомлениям сборщиков
+ * суммируется заполнение пулов кучи перед сборкой (одновременный снимок всех пулов) и запоминается
+ * наибольшее значение. Уведомления о сборках, начатых до сброса, не учитываются.
+ * Все методы потокобезопасны.
+ */
+public final class HeapPeak {
+
+	private static final AtomicLong PEAK = new AtomicLong();
+	private static volatile long resetUptime;
+	private static final Set<String> HEAP_POOLS = ManagementFactory.getMemoryPoolMXBeans().stream()
+			.filter(pool -> pool.getType() == MemoryType.HEAP)
+			.map(MemoryPoolMXBean::getName)
+			.collect(Collectors.toUnmodifiableSet());
+
+	static {
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter emitter) {
+				emitter.addNotificationListener((notification, handback) -> onCollection(notification), null, null);
+			}
+		}
+	}
+
+	private HeapPeak() {}
+
+	/**
+	 * Начинает отсчёт пика с текущего заполнения кучи.
+	 */
+	public static void reset() {
+		resetUptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		PEAK.set(used());
+	}
+
+	/**
+	 * Возвращает пиковое заполнение кучи с момента сброса.
+	 *
+	 * @return байты
+	 */
+	public static long get() {
+		return PEAK.accumulateAndGet(used(), Math::max);
+	}
+
+	private static long used() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static void onCollection(Notification notification) {
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+			return;
+		}
+		GarbageCollectionNotificationInfo info =
+				GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+		if (info.getGcInfo().getStartTime() < resetUptime) {
+			return;
+		}
+		long beforeGc = 0;
+		for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+			if (HEAP_POOLS.contains(pool.getKey())) {
+				beforeGc += pool.getValue().getUsed();
+			}
+		}
+		PEAK.accumulateAndGet(beforeGc, Math::max);
+	}
+}
@@ -0,0 +1,79 @@
+package my.project.xmlconverter.utils;
+
+import java.io.File;
+
+/**
+ * Общий бюджет памяти (memory.budget.mb) для этапов, размер данных которых растёт с размером входа.
+ * Бюджет не ограничивает кучу JVM, а делится между этапами: каждый этап получает свою долю
+ * (share), сам учитывает свои буферы и сбрасывает их на диск, когда доля исчерпана.
+ * Этапы, которые не умеют работать по частям (загрузка таблицы и XML целиком, DOM-дерево),
+ * заранее оценивают нужный объём (estimate*) и, если он не помещается в бюджет,
+ * заменяются ограниченными вариантами. 0 - бюджет не задан, поведение не меняется.
+ * Бюджет стоит задавать заметно меньше -Xmx: оценки приблизительные, а память нужна и остальному процессу.
+ */
+public final class MemoryBudget {
+
+	private static final String BUDGET = "memory.budget.mb";
+
+	/**
+	 * Примерный расход кучи на запись отдела в списке без учёта текста: сама запись, три объекта
+	 * String с массивами и ссылка в списке.
+	 */
+	private static final int RECORD_OVERHEAD = 160;
+
+	/**
+	 * Во сколько раз сжатый XML меньше исходного - для оценки по размеру сжатого файла.
+	 */
+	private static final int COMPRESSION_RATIO = 8;
+
+	private MemoryBudget() {}
+
+	/**
+	 * Возвращает бюджет в байтах.
+	 *
+	 * @return бюджет или 0, если он не задан
+	 */
+	public static long bytes() {
+		return Math.max(0, PropertiesUtil.getInt(BUDGET, 0)) * 1024L * 1024L;
+	}
+
+	/**
+	 * Проверяет, задан ли бюджет.
+	 */
+	public static boolean isLimited() {
+		return bytes() > 0;
+	}
+
+	/**
+	 * Возвращает долю бюджета для этапа.
+	 *
+	 * @param fraction  доля от 0 до 1
+	 * @return байты или Long.MAX_VALUE, если бюджет не задан
+	 */
+	public static long share(double fraction) {
+		long bytes = bytes();
+		return bytes > 0 ? (long) (bytes * fraction) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Оценивает расход кучи на запись отдела, хранящуюся как три объекта String
+	 * (кириллица хранится в String по два байта на символ).
+	 *
+	 * @return байты
+	 */
+	public static long estimateRecord(String depCode, String depJob, String description) {
+		long chars = depCode.length() + depJob.length() + (description == null ? 0 : description.length());
+		return RECORD_OVERHEAD + 2 * chars;
+	}
+
+	/**
+	 * Оценивает объём несжатого XML-файла: для сжатого файла размер умножается на типичную степень сжатия.
+	 *
+	 * @param filename  путь к файлу
+	 * @return байты
+	 */
+	public static long estimateXmlBytes(String filename) {
+		long size = new File(filename).length();
+		return CompressionCodec.detect(filename) == CompressionCodec.NONE ? size : size * COMPRESSION_RATIO;
+	}
+}
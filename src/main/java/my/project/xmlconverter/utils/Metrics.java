@@ -0,0 +1,302 @@
+package my.project.xmlconverter.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Сбор показателей выполнения команды: время этапов, счётчики строк и байт, пиковое заполнение кучи.
+ * В конце запуска формирует отчёт в JSON (файл metrics.report.file, "-" - стандартный вывод)
+ * и, при заданном metrics.prometheus.file, текстовый файл для textfile collector node exporter.
+ * Показатели собираются в контекст запуска (Run). По умолчанию используется общий контекст процесса,
+ * который сбрасывает reset; одновременные запуски в одном процессе (serve) открывают каждый свой
+ * контекст begin. Контекст привязан к потоку и наследуется потоками, созданными внутри запуска
+ * (пулы, виртуальные потоки, потоки сжатия), поэтому показатели запусков не смешиваются.
+ * Пиковое заполнение кучи общее для процесса: если запуски пересекались, оно в отчёт не попадает.
+ * Все методы потокобезопасны.
+ */
+public final class Metrics {
+
+	private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+	private static final String REPORT_FILE = "metrics.report.file";
+	private static final String PROMETHEUS_FILE = "metrics.prometheus.file";
+	private static final String PREFIX = "xmlconverter_";
+
+	private static final InheritableThreadLocal<Run> CURRENT = new InheritableThreadLocal<>();
+	private static final Set<Run> ACTIVE = ConcurrentHashMap.newKeySet();
+	private static volatile Run global = new Run();
+
+	private Metrics() {}
+
+	/**
+	 * Показатели одного запуска. Закрытие отвязывает контекст от потока, открывшего его.
+	 */
+	public static final class Run implements AutoCloseable {
+
+		private final Map<String, LongAdder> timers = new ConcurrentHashMap<>();
+		private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+		private final long startNanos = System.nanoTime();
+		private final Instant startTime = Instant.now();
+		private volatile boolean overlapped;
+
+		private Run() {}
+
+		@Override
+		public void close() {
+			ACTIVE.remove(this);
+			if (CURRENT.get() == this) {
+				CURRENT.remove();
+			}
+		}
+	}
+
+	/**
+	 * Таймер этапа, учитывающий время от создания до закрытия.
+	 */
+	public static final class Timer implements AutoCloseable {
+
+		private final String stage;
+		private final long start = System.nanoTime();
+
+		private Timer(String stage) {
+			this.stage = stage;
+		}
+
+		@Override
+		public void close() {
+			addTime(stage, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Начинает новый запуск: сбрасывает накопленные показатели и пик кучи.
+	 */
+	public static void reset() {
+		global = new Run();
+		HeapPeak.reset();
+	}
+
+	/**
+	 * Начинает запуск со своими показателями и привязывает его к текущему потоку до закрытия.
+	 * Пик кучи сбрасывается, только если других запусков сейчас нет.
+	 *
+	 * @return контекст запуска, который нужно закрыть после report
+	 */
+	public static synchronized Run begin() {
+		Run run = new Run();
+		if (ACTIVE.isEmpty()) {
+			HeapPeak.reset();
+		} else {
+			run.overlapped = true;
+			ACTIVE.forEach(active -> active.overlapped = true);
+		}
+		ACTIVE.add(run);
+		CURRENT.set(run);
+		return run;
+	}
+
+	private static Run current() {
+		Run run = CURRENT.get();
+		return run != null ? run : global;
+	}
+
+	/**
+	 * Запускает таймер этапа. Время этапов с одинаковым именем суммируется.
+	 *
+	 * @param stage  имя этапа
+	 * @return таймер, который нужно закрыть по окончании этапа
+	 */
+	public static Timer timer(String stage) {
+		return new Timer(stage);
+	}
+
+	/**
+	 * Добавляет время к этапу.
+	 *
+	 * @param stage  имя этапа
+	 * @param nanos  время в наносекундах
+	 */
+	public static void addTime(String stage, long nanos) {
+		current().timers.computeIfAbsent(stage, key -> new LongAdder()).add(nanos);
+	}
+
+	/**
+	 * Увеличивает счётчик.
+	 *
+	 * @param counter  имя счётчика
+	 * @param delta    приращение
+	 */
+	public static void count(String counter, long delta) {
+		current().counters.computeIfAbsent(counter, key -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * Возвращает текущее значение счётчика.
+	 *
+	 * @param counter  имя счётчика
+	 * @return значение счётчика
+	 */
+	public static long get(String counter) {
+		LongAdder adder = current().counters.get(counter);
+		return adder == null ? 0 : adder.sum();
+	}
+
+	/**
+	 * Формирует отчёт о текущем запуске и записывает его в настроенные места.
+	 * Ошибки записи отчёта не прерывают работу приложения.
+	 *
+	 * @param command  выполненная команда
+	 * @param success  успешно ли завершена команда
+	 */
+	public static void report(String command, boolean success) {
+		Run run = current();
+		long durationNanos = System.nanoTime() - run.startNanos;
+		long peakHeap = run.overlapped ? -1 : HeapPeak.get();
+		Instant startTime = run.startTime;
+		Map<String, Long> timers = snapshot(run.timers);
+		Map<String, Long> counters = snapshot(run.counters);
+		String reportFile = PropertiesUtil.get(REPORT_FILE);
+		if (reportFile != null && !reportFile.isBlank()) {
+			String json = toJson(command, success, startTime, durationNanos, peakHeap, timers, counters);
+			if ("-".equals(reportFile.trim())) {
+				System.out.println(json);
+			} else {
+				write(Path.of(reportFile.trim()), json);
+			}
+		}
+		String prometheusFile = PropertiesUtil.get(PROMETHEUS_FILE);
+		if (prometheusFile != null && !prometheusFile.isBlank()) {
+			write(Path.of(prometheusFile.trim()),
+					toPrometheus(command, success, startTime, durationNanos, peakHeap, timers, counters));
+		}
+		log.info("Команда {} выполнена за {} мс, пик кучи {}, этапы (мс): {}, счётчики: {}", command,
+				durationNanos / 1_000_000, peakHeap < 0 ? "не определён (параллельные запуски)" : peakHeap / (1024 * 1024) + " МБ",
+				toMillis(timers), counters);
+	}
+
+	private static String toJson(String command, boolean success, Instant startTime, long durationNanos,
+								 long peakHeap, Map<String, Long> timers, Map<String, Long> counters) {
+		StringBuilder json = new StringBuilder(512);
+		json.append("{\"command\":\"").append(escapeJson(command)).append('"')
+				.append(",\"success\":").append(success)
+				.append(",\"startedAt\":\"").append(startTime).append('"')
+				.append(",\"durationMs\":").append(durationNanos / 1_000_000);
+		if (peakHeap >= 0) {
+			json.append(",\"peakHeapBytes\":").append(peakHeap);
+		}
+		json.append(",\"stagesMs\":{");
+		appendJsonMap(json, toMillis(timers));
+		json.append("},\"counters\":{");
+		appendJsonMap(json, counters);
+		json.append("}}");
+		return json.toString();
+	}
+
+	private static void appendJsonMap(StringBuilder json, Map<String, Long> values) {
+		boolean first = true;
+		for (var entry : values.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			json.append('"').append(escapeJson(entry.getKey())).append("\":").append(entry.getValue());
+		}
+	}
+
+	private static String toPrometheus(String command, boolean success, Instant startTime, long durationNanos,
+									   long peakHeap, Map<String, Long> timers, Map<String, Long> counters) {
+		String labels = "command=\"" + command + "\"";
+		StringBuilder text = new StringBuilder(1024);
+		gauge(text, "run_success", "1 if the last run succeeded", labels, success ? 1 : 0);
+		gauge(text, "run_timestamp_seconds", "Start time of the last run", labels, startTime.getEpochSecond());
+		gauge(text, "run_duration_seconds", "Wall time of the last run", labels, durationNanos / 1e9);
+		if (peakHeap >= 0) {
+			gauge(text, "heap_peak_bytes", "Peak heap usage during the last run", labels, peakHeap);
+		}
+		text.append("# HELP ").append(PREFIX).append("stage_seconds Time spent in each stage of the last run\n")
+				.append("# TYPE ").append(PREFIX).append("stage_seconds gauge\n");
+		for (var entry : timers.entrySet()) {
+			text.append(PREFIX).append("stage_seconds{").append(labels).append(",stage=\"")
+					.append(entry.getKey()).append("\"} ").append(entry.getValue() / 1e9).append('\n');
+		}
+		text.append("# HELP ").append(PREFIX).append("count Rows and bytes processed in the last run\n")
+				.append("# TYPE ").append(PREFIX).append("count gauge\n");
+		for (var entry : counters.entrySet()) {
+			text.append(PREFIX).append("count{").append(labels).append(",name=\"")
+					.append(entry.getKey()).append("\"} ").append(entry.getValue()).append('\n');
+		}
+		return text.toString();
+	}
+
+	private static void gauge(StringBuilder text, String name, String help, String labels, double value) {
+		text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n')
+				.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n")
+				.append(PREFIX).append(name).append('{').append(labels).append("} ").append(format(value)).append('\n');
+	}
+
+	private static String format(double value) {
+		return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+	}
+
+	/**
+	 * Записывает файл атомарно: сначала во временный файл рядом, затем переименованием,
+	 * чтобы сборщик никогда не прочитал файл наполовину.
+	 */
+	private static void write(Path file, String content) {
+		try {
+			Path parent = file.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+			Files.writeString(temp, content, StandardCharsets.UTF_8);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.error("Не удалось записать отчёт {}: {}", file, e.getMessage());
+		}
+	}
+
+	private static Map<String, Long> snapshot(Map<String, LongAdder> source) {
+		Map<String, Long> result = new TreeMap<>();
+		source.forEach((key, value) -> result.put(key, value.sum()));
+		return result;
+	}
+
+	private static Map<String, Long> toMillis(Map<String, Long> timers) {
+		Map<String, Long> result = new TreeMap<>();
+		timers.forEach((key, value) -> result.put(key, value / 1_000_000));
+		return result;
+	}
+
+
+	private static String escapeJson(String value) {
+		StringBuilder result = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"' -> result.append("\\\"");
+				case '\\' -> result.append("\\\\");
+				case '\n' -> result.append("\\n");
+				case '\r' -> result.append("\\r");
+				case '\t' -> result.append("\\t");
+				default -> {
+					if (c < 0x20) {
+						result.append(String.format("\\u%04x", (int) c));
+					} else {
+						result.append(c);
+					}
+				}
+			}
+		}
+		return result.toString();
+	}
+}
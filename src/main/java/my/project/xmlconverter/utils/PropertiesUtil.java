@@ -6,6 +6,7 @@ import java.util.Properties;
 /**
  * Утилита для работы с файлом конфигурации application.properties.
  * Обеспечивает загрузку и доступ к параметрам конфигурации.
+ * Системные свойства JVM (-Dключ=значение) имеют приоритет над значениями из файла.
  */
 public final class PropertiesUtil {
 
@@ -36,7 +37,7 @@ public final class PropertiesUtil {
 	 * @return значение параметра
 	 */
 	public static String get(String key) {
-		return PROPERTIES.getProperty(key);
+		return System.getProperty(key, PROPERTIES.getProperty(key));
 	}
 
 	/**
@@ -46,6 +47,28 @@ public final class PropertiesUtil {
 	 * @return значение параметра или defaultValue если параметр не найден
 	 */
 	public static String get(String key, String defaultValue) {
-		return PROPERTIES.getProperty(key, defaultValue);
+		return System.getProperty(key, PROPERTIES.getProperty(key, defaultValue));
 	}
-}
+
+	/**
+	 * Получает целочисленное значение параметра по ключу
+	 * @param key ключ параметра
+	 * @param defaultValue значение по умолчанию
+	 * @return значение параметра или defaultValue если параметр не найден
+	 */
+	public static int getInt(String key, int defaultValue) {
+		String value = get(key);
+		return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * Получает логическое значение параметра по ключу
+	 * @param key ключ параметра
+	 * @param defaultValue значение по умолчанию
+	 * @return значение параметра или defaultValue если параметр не найден
+	 */
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		String value = get(key);
+		return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,175 @@
+package my.project.xmlconverter.xml;
+
+import my.project.xmlconverter.dao.DepartmentDeltaConsumer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Потоковая запись документа изменений (export --since) на основе XMLStreamWriter.
+ * Корневой элемент changes содержит метки since и until, добавленные и изменённые отделы
+ * записываются элементами upsert с полями, как у department, удалённые - элементами delete
+ * только с ключевыми полями:
+ * <pre>
+ * &lt;changes since="..." until="..."&gt;
+ *     &lt;upsert&gt;&lt;depCode/&gt;&lt;depJob/&gt;&lt;description/&gt;&lt;/upsert&gt;
+ *     &lt;delete&gt;&lt;depCode/&gt;&lt;depJob/&gt;&lt;/delete&gt;
+ * &lt;/changes&gt;
+ * </pre>
+ */
+public class DepartmentChangeXmlWriter implements DepartmentDeltaConsumer, AutoCloseable {
+
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newDefaultFactory();
+	private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+	private static final String ROOT = "changes";
+	private static final String INDENT = "    ";
+
+	private final Writer out;
+	private final XMLStreamWriter writer;
+	private final boolean indent;
+	private final String since;
+	private final String until;
+	private final String lineSeparator = System.lineSeparator();
+	private boolean rootStarted;
+	private long upserts;
+	private long deletes;
+
+	/**
+	 * Создаёт писатель и записывает XML-декларацию.
+	 *
+	 * @param outputStream  поток для записи документа (закрывается вместе с писателем)
+	 * @param indent        форматировать ли документ отступами
+	 * @param since         метка, после которой выбраны изменения
+	 * @param until         новая метка для следующего экспорта изменений
+	 * @throws RuntimeException если не удалось начать запись
+	 */
+	public DepartmentChangeXmlWriter(OutputStream outputStream, boolean indent, String since, String until) {
+		this.out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024);
+		this.indent = indent;
+		this.since = since;
+		this.until = until;
+		try {
+			out.write(DECLARATION);
+			if (indent) {
+				out.write(lineSeparator);
+			}
+			writer = OUTPUT_FACTORY.createXMLStreamWriter(out);
+		} catch (IOException | XMLStreamException e) {
+			throw new RuntimeException("Не удалось начать запись XML", e);
+		}
+	}
+
+	@Override
+	public void upsert(String depCode, String depJob, String description) {
+		try {
+			startEntry("upsert", depCode, depJob);
+			writeField("description", description);
+			endEntry();
+			upserts++;
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Не удалось записать изменение отдела в XML", e);
+		}
+	}
+
+	@Override
+	public void delete(String depCode, String depJob) {
+		try {
+			startEntry("delete", depCode, depJob);
+			endEntry();
+			deletes++;
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Не удалось записать удаление отдела в XML", e);
+		}
+	}
+
+	/**
+	 * Возвращает количество записанных элементов upsert.
+	 */
+	public long getUpserts() {
+		return upserts;
+	}
+
+	/**
+	 * Возвращает количество записанных элементов delete.
+	 */
+	public long getDeletes() {
+		return deletes;
+	}
+
+	/**
+	 * Завершает корневой элемент и закрывает поток.
+	 *
+	 * @throws RuntimeException если не удалось завершить запись
+	 */
+	@Override
+	public void close() {
+		try {
+			if (rootStarted) {
+				newLine(0);
+				writer.writeEndElement();
+			} else {
+				writer.writeEmptyElement(ROOT);
+				writeRootAttributes();
+			}
+			writer.writeEndDocument();
+			if (indent) {
+				writer.writeCharacters(lineSeparator);
+			}
+			writer.flush();
+			writer.close();
+			out.close();
+		} catch (IOException | XMLStreamException e) {
+			throw new RuntimeException("Не удалось завершить запись XML", e);
+		}
+	}
+
+	private void startEntry(String name, String depCode, String depJob) throws XMLStreamException {
+		if (!rootStarted) {
+			writer.writeStartElement(ROOT);
+			writeRootAttributes();
+			rootStarted = true;
+		}
+		newLine(1);
+		writer.writeStartElement(name);
+		writeField("depCode", depCode);
+		writeField("depJob", depJob);
+	}
+
+	private void endEntry() throws XMLStreamException {
+		newLine(1);
+		writer.writeEndElement();
+	}
+
+	private void writeRootAttributes() throws XMLStreamException {
+		writer.writeAttribute("since", since);
+		writer.writeAttribute("until", until);
+	}
+
+	private void writeField(String name, String value) throws XMLStreamException {
+		newLine(2);
+		if (value == null || value.isEmpty()) {
+			writer.writeEmptyElement(name);
+			return;
+		}
+		writer.writeStartElement(name);
+		DepartmentXmlWriter.writeText(writer, value);
+		writer.writeEndElement();
+	}
+
+	private void newLine(int depth) throws XMLStreamException {
+		if (!indent) {
+			return;
+		}
+		writer.writeCharacters(lineSeparator);
+		for (int i = 0; i < depth; i++) {
+			writer.writeCharacters(INDENT);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package my.project.xmlconverter.xml;
+
+/**
+ * Однопроходное чтение отделов из источника данных.
+ * Реализации выдают записи по одной, не накапливая весь документ в памяти.
+ */
+public interface DepartmentReader extends AutoCloseable {
+
+	/**
+	 * Переходит к следующему отделу.
+	 *
+	 * @return true, если отдел прочитан, false - если записи закончились
+	 * @throws RuntimeException если не удалось прочитать источник
+	 */
+	boolean next();
+
+	/**
+	 * Возвращает код текущего отдела.
+	 *
+	 * @return код отдела
+	 */
+	String getDepCode();
+
+	/**
+	 * Возвращает должность текущего отдела.
+	 *
+	 * @return должность
+	 */
+	String getDepJob();
+
+	/**
+	 * Возвращает описание текущего отдела.
+	 *
+	 * @return описание
+	 */
+	String getDescription();
+
+	/**
+	 * Закрывает источник данных.
+	 */
+	@Override
+	void close();
+}
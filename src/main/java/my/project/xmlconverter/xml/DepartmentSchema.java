@@ -0,0 +1,118 @@
+package my.project.xmlconverter.xml;
+
+import my.project.xmlconverter.utils.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+import java.net.URL;
+
+/**
+ * Схема файла отделов departments.xsd из ресурсов приложения.
+ * Схема компилируется один раз на процесс при первом обращении: объект Schema неизменяем и
+ * потокобезопасен, а ValidatorHandler, создаваемый для каждого файла, - нет.
+ * Проверка включается параметром xml.validate.
+ */
+public final class DepartmentSchema {
+
+	private static final Logger log = LoggerFactory.getLogger(DepartmentSchema.class);
+	private static final String VALIDATE = "xml.validate";
+
+	/**
+	 * Проверка ограничений identity (xs:key, xs:unique) ведёт стек значений для каждого элемента,
+	 * даже если в схеме их нет; отключение сокращает время проверки примерно на треть.
+	 */
+	private static final String IDENTITY_CONSTRAINT_CHECKING =
+			"http://apache.org/xml/features/validation/identity-constraint-checking";
+
+	/**
+	 * Имя ресурса схемы.
+	 */
+	public static final String RESOURCE = "departments.xsd";
+
+	/**
+	 * Обработчик ошибок для построителей DOM со схемой: по умолчанию нарушения схемы только выводятся
+	 * в stderr, а разбор продолжается, поэтому первое нарушение прерывает разбор исключением.
+	 */
+	public static final ErrorHandler ERROR_HANDLER = new ErrorHandler() {
+		@Override
+		public void warning(SAXParseException e) {
+			log.warn("Предупреждение проверки по схеме в строке {}: {}", e.getLineNumber(), e.getMessage());
+		}
+
+		@Override
+		public void error(SAXParseException e) throws SAXException {
+			throw e;
+		}
+
+		@Override
+		public void fatalError(SAXParseException e) throws SAXException {
+			throw e;
+		}
+	};
+
+	private DepartmentSchema() {}
+
+	/**
+	 * Проверяет, включена ли проверка XML по схеме (xml.validate).
+	 */
+	public static boolean isEnabled() {
+		return PropertiesUtil.getBoolean(VALIDATE, false);
+	}
+
+	/**
+	 * Возвращает скомпилированную схему.
+	 *
+	 * @return схема
+	 * @throws RuntimeException если ресурс схемы не найден или не компилируется
+	 */
+	public static Schema get() {
+		return Holder.SCHEMA;
+	}
+
+	/**
+	 * Создаёт проверяющий обработчик SAX-событий для одного документа.
+	 *
+	 * @return обработчик, бросающий SAXException при первом нарушении схемы
+	 */
+	public static ValidatorHandler newValidatorHandler() {
+		ValidatorHandler handler = get().newValidatorHandler();
+		try {
+			handler.setFeature(IDENTITY_CONSTRAINT_CHECKING, false);
+		} catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+			log.debug("Реализация проверки не поддерживает отключение identity-ограничений: {}", e.getMessage());
+		}
+		return handler;
+	}
+
+	private static final class Holder {
+
+		private static final Schema SCHEMA = compile();
+
+		private static Schema compile() {
+			URL resource = DepartmentSchema.class.getClassLoader().getResource(RESOURCE);
+			if (resource == null) {
+				throw new IllegalStateException("Не найден ресурс схемы " + RESOURCE);
+			}
+			long start = System.nanoTime();
+			try {
+				SchemaFactory factory = SchemaFactory.newDefaultInstance();
+				factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+				factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+				Schema schema = factory.newSchema(resource);
+				log.info("Схема {} скомпилирована за {} мс", RESOURCE, (System.nanoTime() - start) / 1_000_000);
+				return schema;
+			} catch (SAXException e) {
+				throw new IllegalStateException("Не удалось скомпилировать схему " + RESOURCE, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package my.project.xmlconverter.xml;
+
+import my.project.xmlconverter.dao.DepartmentConsumer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Потоковая запись отделов в XML на основе XMLStreamWriter.
+ * Формирует тот же документ, что и связка DOM + Transformer в ConvertService и ExportService,
+ * но не строит дерево в памяти: каждый отдел записывается сразу после получения.
+ * Для параллельного экспорта писатель может формировать фрагмент - только элементы department
+ * без декларации и корневого элемента; готовые фрагменты дописываются в документ appendFragment.
+ */
+public class DepartmentXmlWriter implements DepartmentConsumer, AutoCloseable {
+
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newDefaultFactory();
+	private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+	private static final String ROOT = "departments";
+	private static final String DEPARTMENT = "department";
+	private static final String INDENT = "    ";
+
+	private final OutputStream stream;
+	private final Writer out;
+	private final XMLStreamWriter writer;
+	private final boolean indent;
+	private final boolean fragment;
+	private final String lineSeparator = System.lineSeparator();
+	private boolean rootStarted;
+	private long count;
+
+	/**
+	 * Создаёт писатель и записывает XML-декларацию.
+	 *
+	 * @param outputStream  поток для записи документа (закрывается вместе с писателем)
+	 * @param indent        форматировать ли документ отступами, как Transformer с OutputKeys.INDENT
+	 * @throws RuntimeException если не удалось начать запись
+	 */
+	public DepartmentXmlWriter(OutputStream outputStream, boolean indent) {
+		this(outputStream, indent, false);
+	}
+
+	private DepartmentXmlWriter(OutputStream outputStream, boolean indent, boolean fragment) {
+		this.stream = outputStream;
+		this.out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024);
+		this.indent = indent;
+		this.fragment = fragment;
+		try {
+			if (!fragment) {
+				out.write(DECLARATION);
+				if (indent) {
+					out.write(lineSeparator);
+				}
+			}
+			writer = OUTPUT_FACTORY.createXMLStreamWriter(out);
+		} catch (IOException | XMLStreamException e) {
+			throw new RuntimeException("Не удалось начать запись XML", e);
+		}
+	}
+
+	/**
+	 * Создаёт писатель фрагмента: элементы department записываются так же, как внутри документа,
+	 * но без XML-декларации и корневого элемента.
+	 *
+	 * @param outputStream  поток для записи фрагмента (закрывается вместе с писателем)
+	 * @param indent        форматировать ли фрагмент отступами
+	 * @return писатель фрагмента
+	 * @throws RuntimeException если не удалось начать запись
+	 */
+	public static DepartmentXmlWriter fragment(OutputStream outputStream, boolean indent) {
+		return new DepartmentXmlWriter(outputStream, indent, true);
+	}
+
+	/**
+	 * Дописывает в документ фрагмент, сформированный писателем fragment с тем же форматированием.
+	 *
+	 * @param file   файл с фрагментом
+	 * @param count  количество отделов во фрагменте
+	 * @throws RuntimeException если не удалось дописать фрагмент
+	 */
+	public void appendFragment(Path file, long count) {
+		if (count == 0) {
+			return;
+		}
+		try {
+			if (!rootStarted) {
+				writer.writeStartElement(ROOT);
+				// закрывает открывающий тег корневого элемента до копирования байт фрагмента
+				writer.writeCharacters("");
+				rootStarted = true;
+			}
+			writer.flush();
+			out.flush();
+			Files.copy(file, stream);
+			this.count += count;
+		} catch (IOException | XMLStreamException e) {
+			throw new RuntimeException("Не удалось дописать фрагмент XML", e);
+		}
+	}
+
+	/**
+	 * Записывает один элемент department.
+	 *
+	 * @param depCode      код отдела
+	 * @param depJob       должность в отделе
+	 * @param description  описание отдела (может быть null)
+	 * @throws RuntimeException если не удалось записать элемент
+	 */
+	@Override
+	public void accept(String depCode, String depJob, String description) {
+		try {
+			if (!rootStarted && !fragment) {
+				writer.writeStartElement(ROOT);
+				rootStarted = true;
+			}
+			newLine(1);
+			writer.writeStartElement(DEPARTMENT);
+			writeField("depCode", depCode);
+			writeField("depJob", depJob);
+			writeField("description", description);
+			newLine(1);
+			writer.writeEndElement();
+			count++;
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Не удалось записать отдел в XML", e);
+		}
+	}
+
+	/**
+	 * Возвращает количество записанных отделов.
+	 *
+	 * @return количество отделов
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Завершает корневой элемент (кроме фрагмента) и закрывает поток.
+	 *
+	 * @throws RuntimeException если не удалось завершить запись
+	 */
+	@Override
+	public void close() {
+		try {
+			if (fragment) {
+				writer.flush();
+				writer.close();
+				out.close();
+				return;
+			}
+			if (rootStarted) {
+				newLine(0);
+				writer.writeEndElement();
+			} else {
+				writer.writeEmptyElement(ROOT);
+			}
+			writer.writeEndDocument();
+			if (indent) {
+				writer.writeCharacters(lineSeparator);
+			}
+			writer.flush();
+			writer.close();
+			out.close();
+		} catch (IOException | XMLStreamException e) {
+			throw new RuntimeException("Не удалось завершить запись XML", e);
+		}
+	}
+
+	private void writeField(String name, String value) throws XMLStreamException {
+		newLine(2);
+		if (value == null || value.isEmpty()) {
+			writer.writeEmptyElement(name);
+			return;
+		}
+		writer.writeStartElement(name);
+		writeText(writer, value);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Записывает текст, экранируя символы так же, как сериализатор Transformer:
+	 * возврат каретки, управляющие символы C1 и символы вне BMP выводятся ссылками на символ.
+	 */
+	static void writeText(XMLStreamWriter writer, String value) throws XMLStreamException {
+		int start = 0;
+		int length = value.length();
+		int i = 0;
+		while (i < length) {
+			int codePoint = value.codePointAt(i);
+			int width = Character.charCount(codePoint);
+			if (codePoint < 0x20 && codePoint != '\t' && codePoint != '\n' && codePoint != '\r') {
+				throw new XMLStreamException("Недопустимый символ XML (Unicode: 0x"
+						+ Integer.toHexString(codePoint) + ") в значении: " + value);
+			}
+			if (codePoint == '\r' || (codePoint >= 0x7F && codePoint <= 0x9F) || width > 1) {
+				if (i > start) {
+					writer.writeCharacters(value.substring(start, i));
+				}
+				writer.writeEntityRef("#" + codePoint);
+				start = i + width;
+			}
+			i += width;
+		}
+		if (start == 0) {
+			writer.writeCharacters(value);
+		} else if (start < length) {
+			writer.writeCharacters(value.substring(start));
+		}
+	}
+
+	private void newLine(int depth) throws XMLStreamException {
+		if (!indent) {
+			return;
+		}
+		writer.writeCharacters(lineSeparator);
+		for (int i = 0; i < depth; i++) {
+			writer.writeCharacters(INDENT);
+		}
+	}
+}
@@ -0,0 +1,519 @@
+package my.project.xmlconverter.xml;
+
+import my.project.xmlconverter.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Чтение отделов из XML-файла, отображённого в память окнами по chunkSize байт.
+ * Разбор выполняется прямо по байтам файла специализированным токенизатором для схемы
+ * departments/department/(depCode, depJob, description) в кодировке UTF-8:
+ * текст полей декодируется из отображённой памяти, ссылки на сущности разбираются,
+ * только если в тексте есть '&amp;'.
+ * Если документ выходит за рамки этой схемы (комментарии, CDATA, атрибуты, DOCTYPE,
+ * другая кодировка, некорректный UTF-8 и т.п.), чтение продолжается через
+ * StaxDepartmentReader: файл открывается заново, и уже выданные записи пропускаются.
+ * Читатель может разбирать и отдельный диапазон байт файла для параллельного разбора,
+ * в этом случае переход на StAX невозможен и неподходящий документ приводит к ошибке.
+ */
+public class MappedDepartmentReader implements DepartmentReader {
+
+	private static final Logger log = LoggerFactory.getLogger(MappedDepartmentReader.class);
+
+	/**
+	 * Размер окна отображения по умолчанию.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	private static final byte[] XML_DECLARATION = ascii("<?xml");
+	private static final byte[] ROOT = ascii("<departments");
+	private static final byte[] ROOT_END = ascii("</departments>");
+	private static final byte[] DEPARTMENT = ascii("<department>");
+	private static final byte[] DEPARTMENT_END = ascii("</department>");
+	private static final byte[][] FIELDS = {ascii("depCode"), ascii("depJob"), ascii("description")};
+
+	/**
+	 * Окно закончилось раньше записи: нужно отобразить следующее окно с начала записи.
+	 */
+	private static final Stop UNDERFLOW = new Stop();
+
+	/**
+	 * Документ не подходит для быстрого разбора.
+	 */
+	private static final Stop UNSUPPORTED = new Stop();
+
+	private final String filename;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final long rangeStart;
+	private final long rangeEnd;
+	private final int chunkSize;
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT);
+	private final String[] fields = new String[3];
+	private final StringBuilder entityText = new StringBuilder();
+	private MappedByteBuffer buffer;
+	private long bufferStart;
+	private int limit;
+	private int position;
+	private byte[] bytes = new byte[256];
+	private CharBuffer chars = CharBuffer.allocate(256);
+	private boolean started;
+	private boolean finished;
+	private long count;
+	private DepartmentReader fallback;
+
+	/**
+	 * Открывает файл для чтения.
+	 *
+	 * @param filename   путь к XML-файлу
+	 * @param chunkSize  размер окна отображения в байтах; запись должна помещаться в окно
+	 * @throws RuntimeException если файл не существует или не может быть открыт
+	 */
+	public MappedDepartmentReader(String filename, int chunkSize) {
+		this(filename, chunkSize, 0, -1);
+	}
+
+	/**
+	 * Открывает диапазон байт файла для чтения.
+	 * Диапазон должен начинаться в начале файла или сразу после закрывающего тега department
+	 * и заканчиваться сразу после закрывающего тега department или в конце файла.
+	 * Пролог разбирается только в диапазоне, начинающемся с начала файла, закрывающий тег
+	 * корневого элемента - только в диапазоне, заканчивающемся в конце файла.
+	 *
+	 * @param filename   путь к XML-файлу
+	 * @param chunkSize  размер окна отображения в байтах; запись должна помещаться в окно
+	 * @param start      смещение начала диапазона
+	 * @param end        смещение конца диапазона (не включая) или -1 для конца файла
+	 * @throws RuntimeException если файл не существует или не может быть открыт
+	 */
+	public MappedDepartmentReader(String filename, int chunkSize, long start, long end) {
+		this.filename = filename;
+		this.chunkSize = Math.max(4096, chunkSize);
+		try {
+			this.channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+			this.fileSize = channel.size();
+		} catch (NoSuchFileException e) {
+			throw new RuntimeException("Файл не существует: " + filename, e);
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось открыть файл: " + filename, e);
+		}
+		this.rangeStart = Math.min(start, fileSize);
+		this.rangeEnd = end < 0 ? fileSize : Math.min(end, fileSize);
+	}
+
+	/**
+	 * Открывает XML-файл для чтения с окном отображения по умолчанию.
+	 *
+	 * @param filename  путь к XML-файлу
+	 * @return читатель отделов
+	 * @throws RuntimeException если файл не существует
+	 */
+	public static MappedDepartmentReader open(String filename) {
+		return new MappedDepartmentReader(filename, DEFAULT_CHUNK_SIZE);
+	}
+
+	@Override
+	public boolean next() {
+		if (fallback != null) {
+			return fallback.next();
+		}
+		if (finished) {
+			return false;
+		}
+		try {
+			if (!started) {
+				map(rangeStart);
+				if (rangeStart == 0) {
+					readProlog();
+				}
+				started = true;
+				if (finished) {
+					return false;
+				}
+			}
+			while (true) {
+				int recordStart = position;
+				try {
+					if (!readDepartment()) {
+						finished = true;
+						return false;
+					}
+					count++;
+					return true;
+				} catch (Stop stop) {
+					if (stop == UNSUPPORTED || recordStart == 0 && limit == Math.min(chunkSize, rangeEnd - bufferStart)) {
+						throw UNSUPPORTED;
+					}
+					map(bufferStart + recordStart);
+				}
+			}
+		} catch (Stop stop) {
+			return switchToFallback();
+		}
+	}
+
+	@Override
+	public String getDepCode() {
+		return fallback != null ? fallback.getDepCode() : fields[0];
+	}
+
+	@Override
+	public String getDepJob() {
+		return fallback != null ? fallback.getDepJob() : fields[1];
+	}
+
+	@Override
+	public String getDescription() {
+		return fallback != null ? fallback.getDescription() : fields[2];
+	}
+
+	@Override
+	public void close() {
+		if (fallback != null) {
+			fallback.close();
+		} else if (isWholeFile()) {
+			Metrics.count("rows.xml.parsed", count);
+			Metrics.count("bytes.read", bufferStart + position);
+		}
+		count = 0;
+		buffer = null;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось закрыть XML-файл", e);
+		}
+	}
+
+	/**
+	 * Переключается на StaxDepartmentReader и пропускает уже выданные записи.
+	 */
+	private boolean switchToFallback() {
+		if (!isWholeFile()) {
+			throw new IllegalStateException("Фрагмент файла " + filename + " с позиции " + rangeStart
+					+ " не подходит для быстрого разбора");
+		}
+		log.info("Файл {} не подходит для быстрого разбора, продолжение через StAX после {} записей",
+				filename, count);
+		buffer = null;
+		fallback = StaxDepartmentReader.open(filename);
+		for (long i = 0; i < count; i++) {
+			if (!fallback.next()) {
+				throw new IllegalStateException("Разбор через StAX вернул меньше записей, чем быстрый разбор");
+			}
+		}
+		return fallback.next();
+	}
+
+	private boolean isWholeFile() {
+		return rangeStart == 0 && rangeEnd == fileSize;
+	}
+
+	/**
+	 * Разбирает BOM, объявление XML и открывающий тег корневого элемента departments.
+	 */
+	private void readProlog() {
+		if (peek(position) == 0xEF && peek(position + 1) == 0xBB && peek(position + 2) == 0xBF) {
+			position += 3;
+		}
+		if (matches(XML_DECLARATION)) {
+			int end = position;
+			while (peek(end) != '?' || peek(end + 1) != '>') {
+				if (peek(end) < 0) {
+					throw UNSUPPORTED;
+				}
+				end++;
+			}
+			String declaration = latin1(position, end).toLowerCase(Locale.ROOT);
+			int encoding = declaration.indexOf("encoding");
+			if (!declaration.matches("\\s+version\\s*=\\s*[\"']1\\.0[\"'][\\s\\S]*")
+					|| encoding >= 0 && !declaration.substring(encoding).matches("encoding\\s*=\\s*[\"']utf-8[\"'][\\s\\S]*")) {
+				throw UNSUPPORTED;
+			}
+			position = end + 2;
+		}
+		skipWhitespace();
+		expect(ROOT);
+		if (peek(position) == '/' && peek(position + 1) == '>') {
+			position += 2;
+			expectEnd();
+			finished = true;
+		} else if (peek(position) == '>') {
+			position++;
+		} else {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Разбирает очередной элемент department.
+	 *
+	 * @return false, если достигнут закрывающий тег корневого элемента или конец диапазона
+	 */
+	private boolean readDepartment() {
+		skipWhitespace();
+		if (rangeEnd < fileSize && peek(position) < 0) {
+			return false;
+		}
+		if (matches(ROOT_END)) {
+			expectEnd();
+			return false;
+		}
+		expect(DEPARTMENT);
+		Arrays.fill(fields, null);
+		for (int i = 0; i < FIELDS.length; i++) {
+			skipWhitespace();
+			if (peek(position) != '<') {
+				throw UNSUPPORTED;
+			}
+			position++;
+			int field = readFieldName();
+			if (fields[field] != null) {
+				throw UNSUPPORTED;
+			}
+			fields[field] = readFieldText(FIELDS[field]);
+		}
+		skipWhitespace();
+		expect(DEPARTMENT_END);
+		return true;
+	}
+
+	/**
+	 * Определяет имя поля по открывающему тегу, позиция стоит сразу после '&lt;'.
+	 */
+	private int readFieldName() {
+		for (int field = 0; field < FIELDS.length; field++) {
+			if (matchesAt(position, FIELDS[field])) {
+				int after = peek(position + FIELDS[field].length);
+				if (after == '>' || after == '/') {
+					position += FIELDS[field].length;
+					return field;
+				}
+			}
+		}
+		throw UNSUPPORTED;
+	}
+
+	/**
+	 * Читает текст поля до закрывающего тега, позиция стоит на '&gt;' или '/&gt;' открывающего тега.
+	 */
+	private String readFieldText(byte[] name) {
+		if (peek(position) == '/') {
+			if (peek(position + 1) != '>') {
+				throw UNSUPPORTED;
+			}
+			position += 2;
+			return "";
+		}
+		position++;
+		int start = position;
+		boolean ascii = true;
+		boolean special = false;
+		int b;
+		while ((b = peek(position)) != '<') {
+			if (b < 0) {
+				throw UNSUPPORTED;
+			}
+			if (b >= 0x80) {
+				ascii = false;
+			} else if (b == '&' || b == '\r') {
+				special = true;
+			} else if (b < 0x20 && b != '\t' && b != '\n') {
+				throw UNSUPPORTED;
+			}
+			position++;
+		}
+		int end = position;
+		if (peek(position + 1) != '/' || !matchesAt(position + 2, name) || peek(position + 2 + name.length) != '>') {
+			throw UNSUPPORTED;
+		}
+		position += 3 + name.length;
+		String text = ascii ? latin1(start, end) : utf8(start, end);
+		return special ? resolveReferences(text) : text;
+	}
+
+	private String latin1(int start, int end) {
+		int length = end - start;
+		if (bytes.length < length) {
+			bytes = new byte[Math.max(length, bytes.length * 2)];
+		}
+		buffer.get(start, bytes, 0, length);
+		return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Декодирует UTF-8 прямо из отображённой памяти; некорректные последовательности
+	 * передают разбор стандартному парсеру, который сообщит об ошибке.
+	 */
+	private String utf8(int start, int end) {
+		int length = end - start;
+		if (chars.capacity() < length) {
+			chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+		}
+		chars.clear();
+		decoder.reset();
+		ByteBuffer slice = buffer.slice(start, length);
+		CoderResult result = decoder.decode(slice, chars, true);
+		if (result.isError() || decoder.flush(chars).isError()) {
+			throw UNSUPPORTED;
+		}
+		return new String(chars.array(), 0, chars.position());
+	}
+
+	/**
+	 * Нормализует переводы строк и разбирает ссылки на сущности так же, как XML-парсер.
+	 */
+	private String resolveReferences(String text) {
+		StringBuilder result = entityText;
+		result.setLength(0);
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '\r') {
+				result.append('\n');
+				if (i + 1 < length && text.charAt(i + 1) == '\n') {
+					i++;
+				}
+			} else if (c == '&') {
+				int semicolon = text.indexOf(';', i);
+				if (semicolon < 0) {
+					throw UNSUPPORTED;
+				}
+				appendReference(result, text.substring(i + 1, semicolon));
+				i = semicolon;
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	private static void appendReference(StringBuilder result, String name) {
+		switch (name) {
+			case "lt" -> result.append('<');
+			case "gt" -> result.append('>');
+			case "amp" -> result.append('&');
+			case "quot" -> result.append('"');
+			case "apos" -> result.append('\'');
+			default -> {
+				if (name.length() < 2 || name.charAt(0) != '#') {
+					throw UNSUPPORTED;
+				}
+				int codePoint;
+				try {
+					codePoint = name.charAt(1) == 'x'
+							? Integer.parseInt(name.substring(2), 16)
+							: Integer.parseInt(name.substring(1));
+				} catch (NumberFormatException e) {
+					throw UNSUPPORTED;
+				}
+				if (!isXmlChar(codePoint)) {
+					throw UNSUPPORTED;
+				}
+				result.appendCodePoint(codePoint);
+			}
+		}
+	}
+
+	private static boolean isXmlChar(int c) {
+		return c == 0x9 || c == 0xA || c == 0xD || c >= 0x20 && c <= 0xD7FF
+				|| c >= 0xE000 && c <= 0xFFFD || c >= 0x10000 && c <= 0x10FFFF;
+	}
+
+	private void skipWhitespace() {
+		int b;
+		while ((b = peek(position)) == ' ' || b == '\n' || b == '\t' || b == '\r') {
+			position++;
+		}
+	}
+
+	private void expect(byte[] token) {
+		if (!matches(token)) {
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * Проверяет, что после текущей позиции до конца файла только пробельные символы.
+	 */
+	private void expectEnd() {
+		skipWhitespace();
+		if (peek(position) >= 0) {
+			throw UNSUPPORTED;
+		}
+	}
+
+	private boolean matches(byte[] token) {
+		if (matchesAt(position, token)) {
+			position += token.length;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean matchesAt(int at, byte[] token) {
+		for (int i = 0; i < token.length; i++) {
+			if (peek(at + i) != token[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Возвращает байт окна без знака или -1 в конце диапазона.
+	 *
+	 * @throws Stop UNDERFLOW, если окно закончилось раньше файла
+	 */
+	private int peek(int at) {
+		if (at < limit) {
+			return buffer.get(at) & 0xFF;
+		}
+		if (bufferStart + at >= rangeEnd) {
+			return -1;
+		}
+		throw UNDERFLOW;
+	}
+
+	private void map(long start) {
+		try {
+			long size = Math.min(chunkSize, rangeEnd - start);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			bufferStart = start;
+			limit = (int) size;
+			position = 0;
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось отобразить файл в память: " + filename, e);
+		}
+	}
+
+	private static byte[] ascii(String value) {
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Сигнал прекращения быстрого разбора; создаётся один раз, без стека вызовов.
+	 */
+	private static final class Stop extends RuntimeException {
+
+		Stop() {
+			super(null, null, false, false);
+		}
+	}
+}
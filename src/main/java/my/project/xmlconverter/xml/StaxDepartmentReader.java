@@ -0,0 +1,220 @@
+package my.project.xmlconverter.xml;
+
+import my.project.xmlconverter.utils.CompressionCodec;
+import my.project.xmlconverter.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static javax.xml.stream.XMLStreamConstants.*;
+
+/**
+ * Чтение отделов из XML через XMLStreamReader за один проход.
+ * Каждый элемент department разбирается по мере чтения файла, дерево документа не строится.
+ * Поля ищутся среди потомков department так же, как getElementsByTagName в DOM-варианте:
+ * берётся первое вхождение, значение - весь текст элемента.
+ * Сжатые файлы (gzip, zstd) распаковываются на лету.
+ * При проверке по схеме (xml.validate) каждое прочитанное событие сразу передаётся
+ * в StaxSchemaValidator, поэтому файл читается один раз; при закрытии в журнал выводится
+ * оценка времени проверки в процентах от времени разбора.
+ */
+public class StaxDepartmentReader implements DepartmentReader {
+
+	private static final Logger log = LoggerFactory.getLogger(StaxDepartmentReader.class);
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+	private static final String DEPARTMENT = "department";
+	private static final String DEP_CODE = "depCode";
+	private static final String DEP_JOB = "depJob";
+	private static final String DESCRIPTION = "description";
+
+	private final InputStream inputStream;
+	private final XMLStreamReader reader;
+	private final StaxSchemaValidator validator;
+	private final StringBuilder text = new StringBuilder();
+	private String depCode;
+	private String depJob;
+	private String description;
+	private long count;
+	private long parseNanos;
+
+	/**
+	 * Создаёт читатель поверх потока без проверки по схеме.
+	 *
+	 * @param inputStream  поток с XML-документом (закрывается вместе с читателем)
+	 * @throws RuntimeException если не удалось начать разбор
+	 */
+	public StaxDepartmentReader(InputStream inputStream) {
+		this(inputStream, false);
+	}
+
+	/**
+	 * Создаёт читатель поверх потока.
+	 *
+	 * @param inputStream  поток с XML-документом (закрывается вместе с читателем)
+	 * @param validate     проверять ли документ по схеме DepartmentSchema при разборе
+	 * @throws RuntimeException если не удалось начать разбор
+	 */
+	public StaxDepartmentReader(InputStream inputStream, boolean validate) {
+		this.inputStream = inputStream;
+		try {
+			this.reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Не удалось начать разбор XML", e);
+		}
+		this.validator = validate ? new StaxSchemaValidator(reader) : null;
+	}
+
+	/**
+	 * Открывает XML-файл для чтения, распаковывая его, если он сжат.
+	 * Документ проверяется по схеме, если включён параметр xml.validate.
+	 *
+	 * @param filename  путь к XML-файлу
+	 * @return читатель отделов
+	 * @throws RuntimeException если файл не существует
+	 */
+	public static StaxDepartmentReader open(String filename) {
+		try {
+			InputStream in = CompressionCodec.openInput(filename);
+			try {
+				return new StaxDepartmentReader(in, DepartmentSchema.isEnabled());
+			} catch (RuntimeException e) {
+				in.close();
+				throw e;
+			}
+		} catch (FileNotFoundException e) {
+			throw new RuntimeException("Файл не существует: " + filename, e);
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось открыть файл: " + filename, e);
+		}
+	}
+
+	@Override
+	public boolean next() {
+		long start = validator == null ? 0 : System.nanoTime();
+		try {
+			while (reader.hasNext()) {
+				if (nextEvent() == START_ELEMENT && DEPARTMENT.equals(reader.getLocalName())) {
+					readDepartment();
+					count++;
+					return true;
+				}
+			}
+			return false;
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Ошибка разбора XML: " + e.getMessage(), e);
+		} finally {
+			if (validator != null) {
+				parseNanos += System.nanoTime() - start;
+			}
+		}
+	}
+
+	@Override
+	public String getDepCode() {
+		return depCode;
+	}
+
+	@Override
+	public String getDepJob() {
+		return depJob;
+	}
+
+	@Override
+	public String getDescription() {
+		return description;
+	}
+
+	@Override
+	public void close() {
+		Metrics.count("rows.xml.parsed", count);
+		count = 0;
+		if (validator != null && parseNanos > 0) {
+			long validateNanos = Math.min(validator.estimatedNanos(), parseNanos);
+			Metrics.addTime("xml.validate", validateNanos);
+			long withoutValidation = Math.max(1, parseNanos - validateNanos);
+			log.info("Проверка по схеме: около {} мс, {}% времени разбора", validateNanos / 1_000_000,
+					String.format("%.1f", validateNanos * 100.0 / withoutValidation));
+			parseNanos = 0;
+		}
+		try {
+			reader.close();
+			inputStream.close();
+		} catch (Exception e) {
+			throw new RuntimeException("Не удалось закрыть XML-файл", e);
+		}
+	}
+
+	/**
+	 * Разбирает элемент department, на открывающем теге которого стоит читатель.
+	 */
+	private void readDepartment() throws XMLStreamException {
+		depCode = null;
+		depJob = null;
+		description = null;
+		int depth = 1;
+		while (depth > 0) {
+			int event = nextEvent();
+			if (event == START_ELEMENT) {
+				String name = reader.getLocalName();
+				if (DEP_CODE.equals(name) && depCode == null) {
+					depCode = readText();
+				} else if (DEP_JOB.equals(name) && depJob == null) {
+					depJob = readText();
+				} else if (DESCRIPTION.equals(name) && description == null) {
+					description = readText();
+				} else {
+					depth++;
+				}
+			} else if (event == END_ELEMENT) {
+				depth--;
+			}
+		}
+		if (depCode == null || depJob == null || description == null) {
+			throw new RuntimeException("Элемент department в строке " + reader.getLocation().getLineNumber()
+					+ " не содержит обязательных полей depCode, depJob и description");
+		}
+	}
+
+	/**
+	 * Собирает текст элемента вместе с вложенными элементами и переходит на его закрывающий тег.
+	 */
+	private String readText() throws XMLStreamException {
+		text.setLength(0);
+		int depth = 1;
+		while (depth > 0) {
+			switch (nextEvent()) {
+				case CHARACTERS, CDATA, SPACE ->
+						text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				case START_ELEMENT -> depth++;
+				case END_ELEMENT -> depth--;
+				default -> {
+				}
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Переходит к следующему событию и передаёт его на проверку по схеме, если она включена.
+	 */
+	private int nextEvent() throws XMLStreamException {
+		int event = reader.next();
+		if (validator != null) {
+			validator.accept(event);
+		}
+		return event;
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+}
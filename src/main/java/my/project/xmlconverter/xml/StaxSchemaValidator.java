@@ -0,0 +1,153 @@
+package my.project.xmlconverter.xml;
+
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.ValidatorHandler;
+
+import static javax.xml.stream.XMLStreamConstants.*;
+
+/**
+ * Проверка документа по схеме DepartmentSchema в том же проходе, что и разбор StAX:
+ * каждое событие XMLStreamReader, полученное читателем, передаётся в ValidatorHandler
+ * как соответствующее SAX-событие. Текст передаётся из буфера читателя без копирования.
+ * Время проверки оценивается по выборке: измеряется каждое SAMPLE_EVERY-е событие, поэтому
+ * замер почти не влияет на скорость разбора.
+ */
+final class StaxSchemaValidator {
+
+	/**
+	 * Шаг выборки - простое число: события элемента повторяются с коротким периодом, и при шаге,
+	 * кратном периоду, замерялось бы всегда одно и то же событие.
+	 */
+	private static final int SAMPLE_EVERY = 61;
+	private static final long TIMER_NANOS = calibrate();
+
+	private final XMLStreamReader reader;
+	private final ValidatorHandler handler;
+	private final AttributesImpl attributes = new AttributesImpl();
+	private long events;
+	private long sampledNanos;
+
+	/**
+	 * Создаёт проверяющий обработчик и начинает документ.
+	 *
+	 * @param reader  читатель, события которого будут проверяться
+	 * @throws RuntimeException если схему не удалось загрузить
+	 */
+	StaxSchemaValidator(XMLStreamReader reader) {
+		this.reader = reader;
+		this.handler = DepartmentSchema.newValidatorHandler();
+		handler.setDocumentLocator(new Locator() {
+			@Override
+			public String getPublicId() {
+				return reader.getLocation().getPublicId();
+			}
+
+			@Override
+			public String getSystemId() {
+				return reader.getLocation().getSystemId();
+			}
+
+			@Override
+			public int getLineNumber() {
+				return reader.getLocation().getLineNumber();
+			}
+
+			@Override
+			public int getColumnNumber() {
+				return reader.getLocation().getColumnNumber();
+			}
+		});
+		try {
+			handler.startDocument();
+		} catch (SAXException e) {
+			throw invalid(e);
+		}
+	}
+
+	/**
+	 * Передаёт на проверку событие, на котором стоит читатель.
+	 *
+	 * @param event  тип события, возвращённый XMLStreamReader.next
+	 * @throws RuntimeException если документ не соответствует схеме
+	 */
+	void accept(int event) {
+		if (++events % SAMPLE_EVERY != 0) {
+			forward(event);
+			return;
+		}
+		long start = System.nanoTime();
+		forward(event);
+		sampledNanos += Math.max(0, System.nanoTime() - start - TIMER_NANOS);
+	}
+
+	/**
+	 * Возвращает оценку времени проверки в наносекундах.
+	 */
+	long estimatedNanos() {
+		return sampledNanos * SAMPLE_EVERY;
+	}
+
+	private void forward(int event) {
+		try {
+			switch (event) {
+				case START_ELEMENT -> {
+					for (int i = 0; i < reader.getNamespaceCount(); i++) {
+						handler.startPrefixMapping(nonNull(reader.getNamespacePrefix(i)), nonNull(reader.getNamespaceURI(i)));
+					}
+					attributes.clear();
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						attributes.addAttribute(nonNull(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i),
+								qName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), "CDATA",
+								reader.getAttributeValue(i));
+					}
+					handler.startElement(nonNull(reader.getNamespaceURI()), reader.getLocalName(),
+							qName(reader.getPrefix(), reader.getLocalName()), attributes);
+				}
+				case END_ELEMENT -> {
+					handler.endElement(nonNull(reader.getNamespaceURI()), reader.getLocalName(),
+							qName(reader.getPrefix(), reader.getLocalName()));
+					for (int i = 0; i < reader.getNamespaceCount(); i++) {
+						handler.endPrefixMapping(nonNull(reader.getNamespacePrefix(i)));
+					}
+				}
+				case CHARACTERS, CDATA, SPACE ->
+						handler.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				case END_DOCUMENT -> handler.endDocument();
+				default -> {
+				}
+			}
+		} catch (SAXException e) {
+			throw invalid(e);
+		}
+	}
+
+	private static RuntimeException invalid(SAXException e) {
+		if (e instanceof SAXParseException parseException) {
+			return new RuntimeException("Файл не соответствует схеме " + DepartmentSchema.RESOURCE + " в строке "
+					+ parseException.getLineNumber() + ": " + e.getMessage(), e);
+		}
+		return new RuntimeException("Файл не соответствует схеме " + DepartmentSchema.RESOURCE + ": " + e.getMessage(), e);
+	}
+
+	private static long calibrate() {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < 10_000; i++) {
+			long start = System.nanoTime();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	private static String qName(String prefix, String localName) {
+		return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+	}
+
+	private static String nonNull(String value) {
+		return value == null ? "" : value;
+	}
+}
@@ -0,0 +1,176 @@
+package my.project.xmlconverter.xml;
+
+import my.project.xmlconverter.entities.TableMapping;
+import my.project.xmlconverter.utils.CompressionCodec;
+import my.project.xmlconverter.utils.Metrics;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Чтение строк таблицы, описанной TableMapping, из XML через XMLStreamReader за один проход.
+ * Разбор устроен так же, как в StaxDepartmentReader: для каждого элемента строки берётся первое
+ * вхождение элемента столбца среди потомков, значение - весь его текст. Позиция столбца находится
+ * по имени элемента в таблице поиска описания. Отсутствующий столбец читается как null,
+ * пустой элемент - как пустая строка; ключевые столбцы обязательны.
+ * Сжатые файлы (gzip, zstd) распаковываются на лету.
+ */
+public class TableXmlReader implements AutoCloseable {
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private final TableMapping mapping;
+	private final InputStream inputStream;
+	private final XMLStreamReader reader;
+	private final StringBuilder text = new StringBuilder();
+	private String[] row;
+	private long count;
+
+	/**
+	 * Создаёт читатель поверх потока.
+	 *
+	 * @param mapping      описание таблицы
+	 * @param inputStream  поток с XML-документом (закрывается вместе с читателем)
+	 * @throws RuntimeException если не удалось начать разбор
+	 */
+	public TableXmlReader(TableMapping mapping, InputStream inputStream) {
+		this.mapping = mapping;
+		this.inputStream = inputStream;
+		try {
+			this.reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Не удалось начать разбор XML", e);
+		}
+	}
+
+	/**
+	 * Открывает XML-файл для чтения, распаковывая его, если он сжат.
+	 *
+	 * @param mapping   описание таблицы
+	 * @param filename  путь к XML-файлу
+	 * @return читатель строк
+	 * @throws RuntimeException если файл не существует
+	 */
+	public static TableXmlReader open(TableMapping mapping, String filename) {
+		try {
+			InputStream in = CompressionCodec.openInput(filename);
+			try {
+				return new TableXmlReader(mapping, in);
+			} catch (RuntimeException e) {
+				in.close();
+				throw e;
+			}
+		} catch (FileNotFoundException e) {
+			throw new RuntimeException("Файл не существует: " + filename, e);
+		} catch (IOException e) {
+			throw new RuntimeException("Не удалось открыть файл: " + filename, e);
+		}
+	}
+
+	/**
+	 * Переходит к следующей строке.
+	 *
+	 * @return true, если строка прочитана, false - если строки закончились
+	 * @throws RuntimeException если не удалось прочитать файл или в строке нет ключевого столбца
+	 */
+	public boolean next() {
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == START_ELEMENT && mapping.getRowElement().equals(reader.getLocalName())) {
+					readRow();
+					count++;
+					return true;
+				}
+			}
+			row = null;
+			return false;
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Ошибка разбора XML: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Возвращает текущую строку. Для каждой строки создаётся новый массив.
+	 *
+	 * @return значения столбцов в порядке описания
+	 */
+	public String[] getRow() {
+		return row;
+	}
+
+	@Override
+	public void close() {
+		Metrics.count("rows.xml.parsed", count);
+		count = 0;
+		try {
+			reader.close();
+			inputStream.close();
+		} catch (Exception e) {
+			throw new RuntimeException("Не удалось закрыть XML-файл", e);
+		}
+	}
+
+	/**
+	 * Разбирает элемент строки, на открывающем теге которого стоит читатель.
+	 */
+	private void readRow() throws XMLStreamException {
+		String[] values = new String[mapping.getColumnCount()];
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == START_ELEMENT) {
+				int index = mapping.indexOfElement(reader.getLocalName());
+				if (index >= 0 && values[index] == null) {
+					values[index] = readText();
+				} else {
+					depth++;
+				}
+			} else if (event == END_ELEMENT) {
+				depth--;
+			}
+		}
+		for (int i = 0; i < mapping.getKeyCount(); i++) {
+			if (values[i] == null) {
+				throw new RuntimeException("Элемент " + mapping.getRowElement() + " в строке "
+						+ reader.getLocation().getLineNumber() + " не содержит ключевого поля " + mapping.getElement(i));
+			}
+		}
+		row = values;
+	}
+
+	/**
+	 * Собирает текст элемента вместе с вложенными элементами и переходит на его закрывающий тег.
+	 */
+	private String readText() throws XMLStreamException {
+		text.setLength(0);
+		int depth = 1;
+		while (depth > 0) {
+			switch (reader.next()) {
+				case CHARACTERS, CDATA, SPACE ->
+						text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				case START_ELEMENT -> depth++;
+				case END_ELEMENT -> depth--;
+				default -> {
+				}
+			}
+		}
+		return text.toString();
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+}
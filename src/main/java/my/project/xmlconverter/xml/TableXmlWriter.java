@@ -0,0 +1,141 @@
+package my.project.xmlconverter.xml;
+
+import my.project.xmlconverter.dao.TableRowConsumer;
+import my.project.xmlconverter.entities.TableMapping;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Потоковая запись строк таблицы, описанной TableMapping, в XML на основе XMLStreamWriter.
+ * Документ оформляется так же, как у DepartmentXmlWriter: корневой элемент описания,
+ * элемент строки на каждую строку и вложенные элементы столбцов в порядке описания.
+ * Столбец со значением null не записывается, пустая строка записывается пустым элементом,
+ * поэтому TableXmlReader восстанавливает значения без потерь.
+ */
+public class TableXmlWriter implements TableRowConsumer, AutoCloseable {
+
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newDefaultFactory();
+	private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+	private static final String INDENT = "    ";
+
+	private final TableMapping mapping;
+	private final Writer out;
+	private final XMLStreamWriter writer;
+	private final boolean indent;
+	private final String lineSeparator = System.lineSeparator();
+	private boolean rootStarted;
+	private long count;
+
+	/**
+	 * Создаёт писатель и записывает XML-декларацию.
+	 *
+	 * @param mapping       описание таблицы
+	 * @param outputStream  поток для записи документа (закрывается вместе с писателем)
+	 * @param indent        форматировать ли документ отступами
+	 * @throws RuntimeException если не удалось начать запись
+	 */
+	public TableXmlWriter(TableMapping mapping, OutputStream outputStream, boolean indent) {
+		this.mapping = mapping;
+		this.out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024);
+		this.indent = indent;
+		try {
+			out.write(DECLARATION);
+			if (indent) {
+				out.write(lineSeparator);
+			}
+			writer = OUTPUT_FACTORY.createXMLStreamWriter(out);
+		} catch (IOException | XMLStreamException e) {
+			throw new RuntimeException("Не удалось начать запись XML", e);
+		}
+	}
+
+	/**
+	 * Записывает один элемент строки.
+	 *
+	 * @param row  значения столбцов в порядке описания
+	 * @throws RuntimeException если не удалось записать элемент
+	 */
+	@Override
+	public void accept(String[] row) {
+		try {
+			if (!rootStarted) {
+				writer.writeStartElement(mapping.getRootElement());
+				rootStarted = true;
+			}
+			newLine(1);
+			writer.writeStartElement(mapping.getRowElement());
+			for (int i = 0; i < row.length; i++) {
+				String value = row[i];
+				if (value == null) {
+					continue;
+				}
+				newLine(2);
+				if (value.isEmpty()) {
+					writer.writeEmptyElement(mapping.getElement(i));
+				} else {
+					writer.writeStartElement(mapping.getElement(i));
+					DepartmentXmlWriter.writeText(writer, value);
+					writer.writeEndElement();
+				}
+			}
+			newLine(1);
+			writer.writeEndElement();
+			count++;
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Не удалось записать строку таблицы " + mapping.getTable() + " в XML", e);
+		}
+	}
+
+	/**
+	 * Возвращает количество записанных строк.
+	 *
+	 * @return количество строк
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Завершает корневой элемент и закрывает поток.
+	 *
+	 * @throws RuntimeException если не удалось завершить запись
+	 */
+	@Override
+	public void close() {
+		try {
+			if (rootStarted) {
+				newLine(0);
+				writer.writeEndElement();
+			} else {
+				writer.writeEmptyElement(mapping.getRootElement());
+			}
+			writer.writeEndDocument();
+			if (indent) {
+				writer.writeCharacters(lineSeparator);
+			}
+			writer.flush();
+			writer.close();
+			out.close();
+		} catch (IOException | XMLStreamException e) {
+			throw new RuntimeException("Не удалось завершить запись XML", e);
+		}
+	}
+
+	private void newLine(int depth) throws XMLStreamException {
+		if (!indent) {
+			return;
+		}
+		writer.writeCharacters(lineSeparator);
+		for (int i = 0; i < depth; i++) {
+			writer.writeCharacters(INDENT);
+		}
+	}
+}
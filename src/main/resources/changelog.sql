@@ -0,0 +1,29 @@
+-- Журнал изменённых ключей для экспорта изменений (export --since).
+-- Для каждого ключа хранится только идентификатор последней транзакции, изменившей строку,
+-- поэтому журнал не растёт при повторных изменениях и не требует очистки.
+CREATE TABLE departments_changes (
+   DepCode VARCHAR(20) NOT NULL,
+   DepJob VARCHAR(100) NOT NULL,
+   TxId xid8 NOT NULL DEFAULT pg_current_xact_id(),
+   PRIMARY KEY (DepCode, DepJob)
+);
+
+CREATE INDEX departments_changes_txid ON departments_changes (TxId);
+
+CREATE FUNCTION departments_log_change() RETURNS trigger AS $$
+BEGIN
+   IF TG_OP = 'DELETE' OR (TG_OP = 'UPDATE'
+         AND (OLD.DepCode, OLD.DepJob) IS DISTINCT FROM (NEW.DepCode, NEW.DepJob)) THEN
+      INSERT INTO departments_changes (DepCode, DepJob) VALUES (OLD.DepCode, OLD.DepJob)
+      ON CONFLICT (DepCode, DepJob) DO UPDATE SET TxId = pg_current_xact_id();
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      INSERT INTO departments_changes (DepCode, DepJob) VALUES (NEW.DepCode, NEW.DepJob)
+      ON CONFLICT (DepCode, DepJob) DO UPDATE SET TxId = pg_current_xact_id();
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER departments_log_change AFTER INSERT OR UPDATE OR DELETE ON departments
+   FOR EACH ROW EXECUTE FUNCTION departments_log_change();